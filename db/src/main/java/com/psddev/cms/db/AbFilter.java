@@ -15,9 +15,9 @@ import javax.servlet.http.HttpServletResponse;
 import com.google.common.primitives.Longs;
 import com.psddev.cms.tool.AuthenticationFilter;
 import com.psddev.cms.tool.CmsTool;
+import com.psddev.cms.tool.ToolMetadataCache;
 import com.psddev.dari.db.ApplicationFilter;
 import com.psddev.dari.db.Database;
-import com.psddev.dari.db.Query;
 import com.psddev.dari.db.State;
 import com.psddev.dari.util.AbstractFilter;
 import com.psddev.dari.util.ObjectUtils;
@@ -45,7 +45,7 @@ public class AbFilter extends AbstractFilter implements AbstractFilter.Auto {
             FilterChain chain)
             throws IOException, ServletException {
 
-        CmsTool cms = Query.from(CmsTool.class).first();
+        CmsTool cms = ToolMetadataCache.getCmsTool();
 
         if (cms == null || !cms.isEnableAbTesting()) {
             chain.doFilter(request, response);
@@ -102,6 +102,16 @@ public class AbFilter extends AbstractFilter implements AbstractFilter.Auto {
      */
     public static class Static {
 
+        /**
+         * Returns {@code true} if the given {@code request} is in an A/B
+         * test, so its output may depend on the visitor.
+         *
+         * @param request Can't be {@code null}.
+         */
+        public static boolean isTesting(HttpServletRequest request) {
+            return request.getAttribute(SEED_ATTRIBUTE) != null;
+        }
+
         public static double random(HttpServletRequest request, State state, String fieldName) {
             byte[] md5 = StringUtils.md5(String.valueOf(request.getAttribute(SEED_ATTRIBUTE)) + state.getId() + fieldName);
             long seed = Longs.fromByteArray(md5);
@@ -0,0 +1,251 @@
+package com.psddev.cms.db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeFieldType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.db.Record;
+import com.psddev.dari.db.State;
+import com.psddev.dari.util.RepeatingTask;
+import com.psddev.dari.util.Settings;
+
+/**
+ * Entry in the feed of the latest changes made to the searchable objects
+ * in the tool, indexed so that the recent activity of a user, a role or a
+ * type can be read directly without querying the objects.
+ *
+ * <p>Entries are recorded when an object is published or trashed, but not
+ * when a draft is saved automatically. There's at most one entry per
+ * object, since its ID is derived from the ID of the object, so repeated
+ * publishes replace the entry instead of flooding the feed.</p>
+ *
+ * <p>The site access of the object is copied into the
+ * {@link Site.ObjectModification} of the entry, so the same
+ * {@link Site#itemsPredicate} applies. Entries older than
+ * {@code cms/db/activityMaximumAge} days (30 by default) are pruned every
+ * hour, and the changes made before the feed existed are added by the
+ * {@link Backfiller} when {@code cms/db/activityBackfillEnabled} is
+ * set.</p>
+ */
+public class Activity extends Record {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Activity.class);
+
+    @Indexed
+    private Date date;
+
+    @Indexed
+    private ToolUser user;
+
+    @Indexed
+    private ToolRole role;
+
+    @Indexed
+    private ObjectType objectType;
+
+    @Indexed
+    private UUID objectId;
+
+    /** Creates a blank instance. */
+    protected Activity() {
+    }
+
+    /** Creates an instance for the given {@code user}'s change to the given {@code object}. */
+    public Activity(ToolUser user, Object object) {
+        State objectState = State.getInstance(object);
+        Site.ObjectModification objectSiteData = objectState.as(Site.ObjectModification.class);
+        Site.ObjectModification siteData = as(Site.ObjectModification.class);
+        Date updateDate = objectState.as(Content.ObjectModification.class).getUpdateDate();
+
+        getState().setDatabase(objectState.getDatabase());
+        getState().setId(Static.getId(objectState.getId()));
+        this.date = updateDate != null ? updateDate : new Date();
+        this.user = user;
+        this.role = user != null ? user.getRole() : null;
+        this.objectType = objectState.getType();
+        this.objectId = objectState.getId();
+
+        siteData.setOwner(objectSiteData.getOwner());
+        siteData.setGlobal(objectSiteData.isGlobal());
+        siteData.setBlacklist(new LinkedHashSet<Site>(objectSiteData.getBlacklist()));
+        siteData.setConsumers(new LinkedHashSet<Site>(objectSiteData.getConsumers()));
+    }
+
+    /** Returns the date of the change. */
+    public Date getDate() {
+        return date;
+    }
+
+    /** Returns the tool user that made the change. */
+    public ToolUser getUser() {
+        return user;
+    }
+
+    /** Returns the role of the tool user at the time of the change. */
+    public ToolRole getRole() {
+        return role;
+    }
+
+    /** Returns the type of the changed object. */
+    public ObjectType getObjectType() {
+        return objectType;
+    }
+
+    /** Returns the ID of the changed object. */
+    public UUID getObjectId() {
+        return objectId;
+    }
+
+    /** Static utility methods. */
+    public static final class Static {
+
+        private Static() {
+        }
+
+        /**
+         * Returns the ID of the entry for the object with the given
+         * {@code objectId}.
+         *
+         * @param objectId Can't be {@code null}.
+         * @return Never {@code null}.
+         */
+        public static UUID getId(UUID objectId) {
+            return UUID.nameUUIDFromBytes(("cms.activity/" + objectId).getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Appends the change by the given {@code user} to the given
+         * {@code object} to the activity feed if it's searchable.
+         *
+         * @param object If {@code null}, does nothing.
+         * @param user May be {@code null}.
+         */
+        public static void record(Object object, ToolUser user) {
+            if (object != null &&
+                    !(object instanceof Draft) &&
+                    Content.Static.isSearchable(object)) {
+                new Activity(user, object).save();
+            }
+        }
+    }
+
+    /**
+     * Adds the entries for the searchable objects that were updated within
+     * the maximum age but aren't in the feed, using their
+     * {@code cms.content.updateDate} and {@code cms.content.updateUser}.
+     * Should only be enabled on one server, and stops after one complete
+     * pass.
+     */
+    public static class Backfiller extends RepeatingTask {
+
+        private static final int BATCH_SIZE = 200;
+
+        private volatile boolean done;
+
+        @Override
+        protected DateTime calculateRunTime(DateTime currentTime) {
+            return every(currentTime, DateTimeFieldType.hourOfDay(), 0, 1);
+        }
+
+        @Override
+        protected void doRepeatingTask(DateTime runTime) {
+            if (done || !Settings.get(boolean.class, "cms/db/activityBackfillEnabled")) {
+                return;
+            }
+
+            List<Object> batch = new ArrayList<Object>();
+            long count = 0;
+
+            for (Object item : Query.
+                    fromGroup(Content.SEARCHABLE_GROUP).
+                    where(Content.UPDATE_DATE_FIELD + " > ?", runTime.minusDays(Settings.getOrDefault(int.class, "cms/db/activityMaximumAge", 30)).toDate()).
+                    noCache().
+                    iterable(BATCH_SIZE)) {
+
+                if (!shouldContinue()) {
+                    return;
+                }
+
+                batch.add(item);
+
+                if (batch.size() >= BATCH_SIZE) {
+                    count += backfill(batch);
+                    batch.clear();
+                }
+            }
+
+            count += backfill(batch);
+            done = true;
+
+            LOGGER.info("Backfilled {} activity entries", count);
+        }
+
+        // Adds the entries for the given objects that aren't in the feed.
+        private long backfill(List<Object> objects) {
+            if (objects.isEmpty()) {
+                return 0;
+            }
+
+            List<UUID> ids = new ArrayList<UUID>();
+
+            for (Object object : objects) {
+                ids.add(Static.getId(State.getInstance(object).getId()));
+            }
+
+            Set<UUID> existingIds = new HashSet<UUID>();
+
+            for (Activity activity : Query.from(Activity.class).where("_id = ?", ids).noCache().selectAll()) {
+                existingIds.add(activity.getId());
+            }
+
+            long count = 0;
+
+            for (Object object : objects) {
+                State state = State.getInstance(object);
+
+                if (existingIds.contains(Static.getId(state.getId())) || object instanceof Draft) {
+                    continue;
+                }
+
+                try {
+                    new Activity(state.as(Content.ObjectModification.class).getUpdateUser(), object).saveUnsafely();
+                    ++ count;
+
+                } catch (RuntimeException error) {
+                    LOGGER.warn(String.format("Can't backfill the activity of [%s]!", state.getId()), error);
+                }
+            }
+
+            return count;
+        }
+    }
+
+    /** Prunes the entries that are too old. */
+    public static class Pruner extends RepeatingTask {
+
+        @Override
+        protected DateTime calculateRunTime(DateTime currentTime) {
+            return every(currentTime, DateTimeFieldType.hourOfDay(), 0, 1);
+        }
+
+        @Override
+        protected void doRepeatingTask(DateTime runTime) {
+            Query.
+                    from(Activity.class).
+                    where("date < ?", runTime.minusDays(Settings.getOrDefault(int.class, "cms/db/activityMaximumAge", 30)).toDate()).
+                    deleteAll();
+        }
+    }
+}
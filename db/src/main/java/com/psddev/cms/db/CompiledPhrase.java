@@ -0,0 +1,180 @@
+package com.psddev.cms.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.psddev.dari.db.ComparisonPredicate;
+import com.psddev.dari.db.CompoundPredicate;
+import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.db.Predicate;
+import com.psddev.dari.db.PredicateParser;
+import com.psddev.dari.util.ObjectUtils;
+
+/**
+ * Pattern and predicate of a boost phrase rule, compiled once so that
+ * each search only has to match the pattern and fill in the predicate.
+ *
+ * <p>The predicate is parsed with placeholders for the pattern groups and
+ * prefixed with the type's internal name up front. If it can't be parsed
+ * that way, or if a group doesn't match anything, it's parsed with the
+ * actual values instead.</p>
+ */
+class CompiledPhrase {
+
+    private final String pattern;
+    private final String predicate;
+    private final ObjectType type;
+    private final Pattern compiledPattern;
+    private final Predicate template;
+
+    /**
+     * Returns the given {@code previous} compiled phrase if it was
+     * compiled from the same arguments, or compiles a new one.
+     *
+     * @param previous May be {@code null}.
+     * @return Never {@code null}.
+     */
+    public static CompiledPhrase compile(CompiledPhrase previous, String pattern, String predicate, ObjectType type) {
+        if (previous != null &&
+                ObjectUtils.equals(previous.pattern, pattern) &&
+                ObjectUtils.equals(previous.predicate, predicate) &&
+                ObjectUtils.equals(previous.type, type)) {
+            return previous;
+
+        } else {
+            return new CompiledPhrase(pattern, predicate, type);
+        }
+    }
+
+    private CompiledPhrase(String pattern, String predicate, ObjectType type) {
+        this.pattern = pattern;
+        this.predicate = predicate;
+        this.type = type;
+        this.compiledPattern = Pattern.compile(pattern, Pattern.CANON_EQ | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+
+        int groupCount = compiledPattern.matcher("").groupCount();
+        Object[] placeholders = new Object[groupCount];
+
+        for (int i = 0; i < groupCount; ++ i) {
+            placeholders[i] = new Placeholder(i);
+        }
+
+        Predicate template;
+
+        try {
+            template = addPrefix(type.getInternalName() + "/", PredicateParser.Static.parse(predicate, placeholders));
+
+        } catch (RuntimeException error) {
+            template = null;
+        }
+
+        this.template = template;
+    }
+
+    /**
+     * Returns the boost predicates for all the matches of the pattern in
+     * the given {@code queryTerms}.
+     *
+     * @return Never {@code null}.
+     */
+    public List<Predicate> findPredicates(List<String> queryTerms) {
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        StringBuilder queryTermsString = new StringBuilder();
+
+        for (String term : queryTerms) {
+            queryTermsString.append(term);
+            queryTermsString.append(' ');
+        }
+
+        Matcher matcher = compiledPattern.matcher(queryTermsString.toString());
+
+        while (matcher.find()) {
+            int groupCount = matcher.groupCount();
+            Object[] parameters = new Object[groupCount];
+            boolean complete = true;
+
+            for (int i = 0; i < groupCount; ++ i) {
+                parameters[i] = matcher.group(i + 1);
+
+                if (parameters[i] == null) {
+                    complete = false;
+                }
+            }
+
+            if (template != null && complete) {
+                predicates.add(bind(template, parameters));
+
+            } else {
+                predicates.add(addPrefix(type.getInternalName() + "/", PredicateParser.Static.parse(predicate, parameters)));
+            }
+        }
+
+        return predicates;
+    }
+
+    private Predicate bind(Predicate predicate, Object[] parameters) {
+        if (predicate instanceof CompoundPredicate) {
+            CompoundPredicate compound = (CompoundPredicate) predicate;
+            List<Predicate> children = new ArrayList<Predicate>();
+
+            for (Predicate child : compound.getChildren()) {
+                children.add(bind(child, parameters));
+            }
+
+            return new CompoundPredicate(compound.getOperator(), children);
+
+        } else if (predicate instanceof ComparisonPredicate) {
+            ComparisonPredicate comparison = (ComparisonPredicate) predicate;
+            List<Object> values = new ArrayList<Object>();
+
+            for (Object value : comparison.getValues()) {
+                values.add(value instanceof Placeholder ? parameters[((Placeholder) value).index] : value);
+            }
+
+            return new ComparisonPredicate(
+                    comparison.getOperator(),
+                    comparison.isIgnoreCase(),
+                    comparison.getKey(),
+                    values);
+
+        } else {
+            return predicate;
+        }
+    }
+
+    private static Predicate addPrefix(String prefix, Predicate predicate) {
+        if (predicate instanceof CompoundPredicate) {
+            CompoundPredicate compound = (CompoundPredicate) predicate;
+            List<Predicate> children = new ArrayList<Predicate>();
+
+            for (Predicate child : compound.getChildren()) {
+                children.add(addPrefix(prefix, child));
+            }
+
+            return new CompoundPredicate(compound.getOperator(), children);
+
+        } else if (predicate instanceof ComparisonPredicate) {
+            ComparisonPredicate comparison = (ComparisonPredicate) predicate;
+
+            return new ComparisonPredicate(
+                    comparison.getOperator(),
+                    comparison.isIgnoreCase(),
+                    prefix + comparison.getKey(),
+                    comparison.getValues());
+
+        } else {
+            return predicate;
+        }
+    }
+
+    private static final class Placeholder {
+
+        private final int index;
+
+        public Placeholder(int index) {
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.psddev.cms.db;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.psddev.dari.db.Database;
+import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+
+/**
+ * Shared feed of changes to the configuration records, such as
+ * {@link Site}s and {@link com.psddev.cms.tool.CmsTool}, that are cached
+ * in memory on every node.
+ *
+ * <p>Instead of each cache polling the database on its own, a single
+ * background thread per node checks the last update date and the count
+ * of all the watched types every {@code cms/db/configurationFeedInterval}
+ * milliseconds (1000 by default), and calls the {@link Listener}s of the
+ * types that changed. The count catches the deletes, which don't move the
+ * last update date. Saving or deleting one of the records on this node
+ * should call {@link #notifyChanged}, which calls the listeners of its
+ * type right away, and the check then skips the changes that were made
+ * before that, assuming that the clocks of the nodes are in sync.</p>
+ *
+ * <p>Most caches should use {@link CachedValue}, which subscribes on
+ * first use and discards its value whenever its types change.</p>
+ */
+public final class ConfigurationFeed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationFeed.class);
+
+    private static final long INTERVAL = Settings.getOrDefault(long.class, "cms/db/configurationFeedInterval", 1000L);
+
+    private static final ConcurrentMap<Class<?>, Watch> WATCHES = new ConcurrentHashMap<Class<?>, Watch>();
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+    private static final AtomicLong CHECKS = new AtomicLong();
+    private static volatile Date lastUpdate;
+    private static volatile long lastCount = -1L;
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().
+                    setDaemon(true).
+                    setNameFormat("cms-configuration-feed-%d").
+                    build());
+
+    private static final Runnable CHECK = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                check();
+
+            } catch (RuntimeException error) {
+                LOGGER.warn("Can't check for configuration changes!", error);
+            }
+        }
+    };
+
+    private ConfigurationFeed() {
+    }
+
+    /**
+     * Calls the given {@code listener} whenever any instance of the given
+     * {@code recordClass} changes after this method returns.
+     *
+     * <p>The caller should load its cache after subscribing so that no
+     * change is missed in between.</p>
+     *
+     * @param recordClass Can't be {@code null}.
+     * @param listener Can't be {@code null}.
+     */
+    public static void subscribe(Class<?> recordClass, Listener listener) {
+        Watch watch = WATCHES.get(recordClass);
+
+        if (watch == null) {
+            watch = new Watch(recordClass);
+            Watch existing = WATCHES.putIfAbsent(recordClass, watch);
+
+            if (existing != null) {
+                watch = existing;
+
+            } else {
+                lastUpdate = null;
+                lastCount = -1L;
+            }
+        }
+
+        watch.listeners.add(listener);
+
+        if (STARTED.compareAndSet(false, true)) {
+            EXECUTOR.scheduleWithFixedDelay(CHECK, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Checks for changes right away instead of waiting for the next
+     * scheduled check.
+     */
+    public static void requestCheck() {
+        if (STARTED.get()) {
+            EXECUTOR.execute(CHECK);
+        }
+    }
+
+    /**
+     * Calls the listeners of the given {@code recordClass} right away.
+     * This should be called after saving or deleting an instance of a
+     * watched type so that the caches on this node don't lag behind. The
+     * background check doesn't call the listeners again for the same
+     * change.
+     *
+     * @param recordClass Can't be {@code null}.
+     */
+    public static void notifyChanged(Class<?> recordClass) {
+        Watch watch = WATCHES.get(recordClass);
+
+        if (watch != null) {
+            Date now = new Date();
+
+            watch.notified = now.getTime();
+            watch.callListeners(now);
+        }
+    }
+
+    /**
+     * Returns the refresh metrics for all the watched types, keyed by
+     * their class names.
+     *
+     * @return Never {@code null}.
+     */
+    public static Map<String, Metrics> getMetrics() {
+        Map<String, Metrics> metrics = new TreeMap<String, Metrics>();
+
+        for (Watch watch : WATCHES.values()) {
+            metrics.put(watch.recordClass.getName(), watch.metrics);
+        }
+
+        return metrics;
+    }
+
+    /** Returns the number of times the feed checked for changes. */
+    public static long getCheckCount() {
+        return CHECKS.get();
+    }
+
+    // Checks the last update date and the count of all the watched types,
+    // and only checks each type individually if either changed.
+    private static void check() {
+        CHECKS.incrementAndGet();
+
+        Set<ObjectType> types = new HashSet<ObjectType>();
+
+        for (Class<?> recordClass : WATCHES.keySet()) {
+            types.addAll(Database.Static.getDefault().getEnvironment().getTypesByGroup(recordClass.getName()));
+        }
+
+        if (types.isEmpty()) {
+            return;
+        }
+
+        Query<?> query = Query.fromAll().where("_type = ?", types);
+        Date newLastUpdate = query.lastUpdate();
+        long newCount = query.count();
+
+        if (ObjectUtils.equals(newLastUpdate, lastUpdate) && newCount == lastCount) {
+            return;
+        }
+
+        lastUpdate = newLastUpdate;
+        lastCount = newCount;
+
+        for (Watch watch : WATCHES.values()) {
+            watch.check();
+        }
+    }
+
+    /** Receives the changes to the configuration records. */
+    public interface Listener {
+
+        /**
+         * Called when any instance of the given {@code recordClass}
+         * changed.
+         *
+         * @param recordClass Never {@code null}.
+         * @param lastUpdate Never {@code null}.
+         */
+        void configurationChanged(Class<?> recordClass, Date lastUpdate);
+    }
+
+    /** Refresh metrics for a watched type. */
+    public static final class Metrics {
+
+        private final AtomicLong refreshes = new AtomicLong();
+        private final AtomicLong totalLag = new AtomicLong();
+        private volatile long lastLag;
+        private volatile long maximumLag;
+
+        private void addRefresh(long lag) {
+            refreshes.incrementAndGet();
+            totalLag.addAndGet(lag);
+            lastLag = lag;
+
+            if (lag > maximumLag) {
+                maximumLag = lag;
+            }
+        }
+
+        /** Returns the number of times the listeners were called. */
+        public long getRefreshes() {
+            return refreshes.get();
+        }
+
+        /**
+         * Returns the time between the last change and the listeners being
+         * called, in milliseconds.
+         */
+        public long getLastLag() {
+            return lastLag;
+        }
+
+        /** Returns the longest refresh lag, in milliseconds. */
+        public long getMaximumLag() {
+            return maximumLag;
+        }
+
+        /** Returns the average refresh lag, in milliseconds. */
+        public double getAverageLag() {
+            long r = getRefreshes();
+
+            return r > 0 ? (double) totalLag.get() / r : 0.0;
+        }
+    }
+
+    private static final class Watch {
+
+        private final Class<?> recordClass;
+        private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+        private final Metrics metrics = new Metrics();
+        private volatile Date lastUpdate;
+        private volatile long count;
+        private volatile long notified;
+        private long lastCheck;
+
+        public Watch(Class<?> recordClass) {
+            this.recordClass = recordClass;
+            this.lastUpdate = Query.from(recordClass).lastUpdate();
+            this.count = Query.from(recordClass).count();
+        }
+
+        public void check() {
+            Date newLastUpdate = Query.from(recordClass).lastUpdate();
+            long newCount = Query.from(recordClass).count();
+            boolean updated = newLastUpdate != null && !newLastUpdate.equals(lastUpdate);
+            boolean deleted = newCount < count;
+            long previousCheck = lastCheck;
+
+            lastUpdate = newLastUpdate;
+            count = newCount;
+            lastCheck = System.currentTimeMillis();
+
+            // Skip the changes that notifyChanged already reported.
+            if ((!updated || newLastUpdate.getTime() <= notified) &&
+                    (!deleted || notified >= previousCheck)) {
+                return;
+            }
+
+            Date changed = updated ? newLastUpdate : new Date();
+
+            callListeners(changed);
+            metrics.addRefresh(Math.max(System.currentTimeMillis() - changed.getTime(), 0L));
+        }
+
+        public void callListeners(Date newLastUpdate) {
+            for (Listener listener : listeners) {
+                try {
+                    listener.configurationChanged(recordClass, newLastUpdate);
+
+                } catch (RuntimeException error) {
+                    LOGGER.warn(String.format(
+                            "Can't refresh [%s] after a change to [%s]!",
+                            listener.getClass().getName(),
+                            recordClass.getName()),
+                            error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Value that's produced on first use and discarded whenever any
+     * instance of its record classes changes, as reported by the feed.
+     *
+     * <p>The subscription is also made on first use, so that creating
+     * the value, for example in a static initializer, doesn't query the
+     * database.</p>
+     */
+    public abstract static class CachedValue<T> {
+
+        private final Class<?>[] recordClasses;
+        private final AtomicBoolean subscribed = new AtomicBoolean();
+        private final AtomicLong generation = new AtomicLong();
+        private volatile Holder<T> holder;
+
+        /**
+         * Creates an instance that's discarded whenever any instance of the
+         * given {@code recordClasses} changes.
+         *
+         * @param recordClasses Can't be {@code null}.
+         */
+        protected CachedValue(Class<?>... recordClasses) {
+            this.recordClasses = recordClasses;
+        }
+
+        /**
+         * Produces the value from the database.
+         *
+         * @return May be {@code null}.
+         */
+        protected abstract T produce();
+
+        /**
+         * Returns the current value, producing it if it was discarded.
+         *
+         * @return May be {@code null}.
+         */
+        public T get() {
+            Holder<T> h = holder;
+
+            if (h == null) {
+                synchronized (this) {
+                    h = holder;
+
+                    if (h == null) {
+                        if (subscribed.compareAndSet(false, true)) {
+                            Listener listener = new Listener() {
+
+                                @Override
+                                public void configurationChanged(Class<?> recordClass, Date lastUpdate) {
+                                    invalidate();
+                                }
+                            };
+
+                            for (Class<?> recordClass : recordClasses) {
+                                subscribe(recordClass, listener);
+                            }
+                        }
+
+                        // A change while producing discards the value
+                        // again rather than being lost.
+                        long g = generation.get();
+
+                        h = new Holder<T>(produce());
+
+                        if (g == generation.get()) {
+                            holder = h;
+                        }
+                    }
+                }
+            }
+
+            return h.value;
+        }
+
+        /** Discards the current value so that it's produced on next use. */
+        public void invalidate() {
+            generation.incrementAndGet();
+            holder = null;
+        }
+    }
+
+    private static final class Holder<T> {
+
+        public final T value;
+
+        public Holder(T value) {
+            this.value = value;
+        }
+    }
+}
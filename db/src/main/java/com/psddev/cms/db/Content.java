@@ -223,9 +223,43 @@ public abstract class Content extends Record {
     /** Static utility methods. */
     public static final class Static {
 
+        private static final String METADATA_ONLY_SAVE_EXTRA = "cms.content.metadataOnlySave";
+
         private Static() {
         }
 
+        /**
+         * Saves the given {@code object} without validating it, as a save
+         * that only stores metadata derived from its other fields, so that
+         * the global save hooks that react to content changes, such as the
+         * page and search caches, can skip it.
+         *
+         * @param object Can't be {@code null}.
+         * @see #isMetadataOnlySave
+         */
+        public static void saveMetadataOnly(Object object) {
+            State state = State.getInstance(object);
+
+            state.getExtras().put(METADATA_ONLY_SAVE_EXTRA, Boolean.TRUE);
+
+            try {
+                state.saveUnsafely();
+
+            } finally {
+                state.getExtras().remove(METADATA_ONLY_SAVE_EXTRA);
+            }
+        }
+
+        /**
+         * Returns {@code true} if the given {@code state} is being saved by
+         * {@link #saveMetadataOnly}.
+         *
+         * @param state Can't be {@code null}.
+         */
+        public static boolean isMetadataOnlySave(State state) {
+            return Boolean.TRUE.equals(state.getExtras().get(METADATA_ONLY_SAVE_EXTRA));
+        }
+
         /**
          * Deletes the given {@code object}, and returns a trash object
          * that can be used later to restore it.
@@ -323,7 +357,9 @@ public abstract class Content extends Record {
                     state.beginWrites();
                     state.save();
                     history.save();
+                    Activity.Static.record(object, user);
                     state.commitWrites();
+                    SurrogateKeys.purge(object);
                     return history;
 
                 } finally {
@@ -349,6 +385,8 @@ public abstract class Content extends Record {
                 contentData.setUpdateDate(new Date());
                 contentData.setUpdateUser(user);
                 state.save();
+                Activity.Static.record(object, user);
+                SurrogateKeys.purge(object);
 
             } else {
                 siteData.getConsumers().remove(site);
@@ -382,6 +420,7 @@ public abstract class Content extends Record {
                 database.deleteByQuery(Query.from(Trash.class).where("objectId = ?", objectId));
                 objectState.delete();
                 database.commitWrites();
+                SurrogateKeys.purge(object);
             } finally {
                 database.endWrites();
             }
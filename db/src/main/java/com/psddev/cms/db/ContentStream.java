@@ -2,13 +2,35 @@ package com.psddev.cms.db;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.psddev.dari.db.Database;
 import com.psddev.dari.db.Query;
 import com.psddev.dari.db.Record;
+import com.psddev.dari.db.State;
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
 
 /**
  * @deprecated No replacement. Create your own.
@@ -17,6 +39,27 @@ import com.psddev.dari.util.ObjectUtils;
 @Deprecated
 public abstract class ContentStream extends Record {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentStream.class);
+
+    private static final ExecutorService MIX_EXECUTOR = Executors.newFixedThreadPool(
+            Settings.getOrDefault(int.class, "cms/db/contentStreamMixThreads", 8),
+            new ThreadFactoryBuilder().
+                    setDaemon(true).
+                    setNameFormat("ContentStream.Mix-%d").
+                    build());
+
+    // IDs of the contents rather than the contents themselves, so that
+    // concurrent requests don't share the same mutable instances.
+    private static final Cache<String, List<UUID>> MIX_CACHE = CacheBuilder.
+            newBuilder().
+            expireAfterWrite(Settings.getOrDefault(long.class, "cms/db/contentStreamMixCacheDuration", 5000L), TimeUnit.MILLISECONDS).
+            maximumSize(1000).
+            build();
+
+    // Set while finding the contents of a stream within a mix, so that
+    // nested mixes run inline instead of waiting on the same pool.
+    private static final ThreadLocal<Boolean> IN_MIX = new ThreadLocal<Boolean>();
+
     public abstract List<?> findContents(int offset, int limit);
 
     public static class Mix extends ContentStream {
@@ -31,6 +74,19 @@ public abstract class ContentStream extends Record {
             this.streams = streams;
         }
 
+        /**
+         * Finds the contents of all streams concurrently, each bounded by
+         * the {@code cms/db/contentStreamMixTimeout} deadline, and places
+         * them in their areas. Items that were already placed by an
+         * earlier stream are skipped in favor of the next one.
+         *
+         * <p>The streams are found in the database underneath the
+         * request-bound {@link VaryingDatabase} and
+         * {@link IdentityMapDatabase}, and the variations of the current
+         * profile are applied to the contents afterwards on the calling
+         * thread. A mix nested within another runs its streams inline on
+         * the current thread.</p>
+         */
         public List<?> findContents(int offset, int limit) {
             List<Object> contents = new ArrayList<Object>();
 
@@ -38,19 +94,175 @@ public abstract class ContentStream extends Record {
                 contents.add(null);
             }
 
-            for (AreasStream as : getStreams()) {
-                List<Integer> areas = new ArrayList<Integer>(as.getAreas());
-                int areasSize = areas.size();
-                List<?> streamContents = as.getStream().findContents(0, areas.size());
-                int streamContentsSize = streamContents.size();
+            List<AreasStream> streams = getStreams();
+
+            if (streams == null || streams.isEmpty()) {
+                return contents;
+            }
+
+            // Each stream may lose as many items to duplicates as there
+            // are areas filled before it, so fetch enough to backfill.
+            List<Future<List<?>>> futures = new ArrayList<Future<List<?>>>();
+            Database database = Database.Static.getDefault();
+            Database unbound = VaryingDatabase.findUnboundDatabase(database);
+            Profile profile = VaryingDatabase.findProfile(database);
+            String signature = profile != null ? profile.getSignature() : "";
+            boolean nested = Boolean.TRUE.equals(IN_MIX.get());
+            int fetchExtra = 0;
+
+            for (AreasStream as : streams) {
+                StreamContentsFinder finder = new StreamContentsFinder(unbound, signature, as.getStream(), as.getAreas().size() + fetchExtra);
+
+                if (nested) {
+                    FutureTask<List<?>> task = new FutureTask<List<?>>(finder);
+
+                    task.run();
+                    futures.add(task);
+
+                } else {
+                    futures.add(MIX_EXECUTOR.submit(finder));
+                }
+
+                fetchExtra += as.getAreas().size();
+            }
+
+            long deadline = System.currentTimeMillis() + Settings.getOrDefault(long.class, "cms/db/contentStreamMixTimeout", 2000L);
+            Set<Object> placed = new HashSet<Object>();
+
+            for (int s = 0, size = streams.size(); s < size; ++ s) {
+                List<Integer> areas = new ArrayList<Integer>(streams.get(s).getAreas());
+                List<?> streamContents = getStreamContents(futures.get(s), deadline);
+                Iterator<?> streamContentsIterator = streamContents.iterator();
+
+                if (profile != null) {
+                    for (Object content : streamContents) {
+                        if (content != null) {
+                            Variation.Static.applyAll(content, profile);
+                        }
+                    }
+                }
 
                 Collections.sort(areas);
 
-                for (int i = 0; i < areasSize; ++ i) {
-                    contents.set(areas.get(i), i < streamContentsSize ? streamContents.get(i) : null);
+                for (Integer area : areas) {
+                    Object content = null;
+
+                    while (streamContentsIterator.hasNext()) {
+                        Object next = streamContentsIterator.next();
+
+                        if (next != null && placed.add(next)) {
+                            content = next;
+                            break;
+                        }
+                    }
+
+                    contents.set(area, content);
+                }
+            }
+
+            return contents;
+        }
+
+        private static List<?> getStreamContents(Future<List<?>> future, long deadline) {
+            try {
+                return future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+
+            } catch (ExecutionException error) {
+                LOGGER.warn("Can't find stream contents!", error.getCause());
+
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+
+            } catch (TimeoutException error) {
+                future.cancel(true);
+                LOGGER.warn("Timed out finding stream contents!");
+            }
+
+            return Collections.emptyList();
+        }
+    }
+
+    /** Finds the contents of a stream in the context of a database. */
+    private static class StreamContentsFinder implements Callable<List<?>> {
+
+        private final Database database;
+        private final String signature;
+        private final ContentStream stream;
+        private final int limit;
+
+        public StreamContentsFinder(Database database, String signature, ContentStream stream, int limit) {
+            this.database = database;
+            this.signature = signature;
+            this.stream = stream;
+            this.limit = limit;
+        }
+
+        @Override
+        public List<?> call() throws Exception {
+            // Only share the results of the original database, since the
+            // others may be previewing unpublished changes.
+            boolean cacheable = database == Database.Static.getDefaultOriginal();
+            String key = stream.getId() + "/" + limit + "/" + signature;
+            List<UUID> ids = cacheable ? MIX_CACHE.getIfPresent(key) : null;
+
+            if (ids != null) {
+                return findContentsById(ids);
+            }
+
+            Boolean oldInMix = IN_MIX.get();
+            List<?> contents;
+
+            Database.Static.overrideDefault(database);
+            IN_MIX.set(Boolean.TRUE);
+
+            try {
+                contents = stream.findContents(0, limit);
+
+            } finally {
+                IN_MIX.set(oldInMix);
+                Database.Static.restoreDefault();
+            }
+
+            if (contents == null) {
+                contents = Collections.emptyList();
+            }
+
+            if (cacheable) {
+                ids = new ArrayList<UUID>();
+
+                for (Object content : contents) {
+                    ids.add(content != null ? State.getInstance(content).getId() : null);
+                }
+
+                MIX_CACHE.put(key, ids);
+            }
+
+            return contents;
+        }
+
+        // Reloads the contents in the order of the given IDs.
+        private List<?> findContentsById(List<UUID> ids) {
+            Map<UUID, Object> contentsById = new HashMap<UUID, Object>();
+            List<UUID> queryIds = new ArrayList<UUID>(ids);
+
+            queryIds.removeAll(Collections.singleton(null));
+
+            if (!queryIds.isEmpty()) {
+                for (Object content : Query.
+                        fromAll().
+                        where("_id = ?", queryIds).
+                        using(database).
+                        selectAll()) {
+                    contentsById.put(State.getInstance(content).getId(), content);
                 }
             }
 
+            List<Object> contents = new ArrayList<Object>();
+
+            for (UUID id : ids) {
+                contents.add(id != null ? contentsById.get(id) : null);
+            }
+
             return contents;
         }
     }
@@ -49,4 +49,14 @@ public class ContentType extends Record {
     public void setFields(List<ContentField> fields) {
         this.fields = fields;
     }
+
+    @Override
+    protected void afterSave() {
+        ConfigurationFeed.notifyChanged(ContentType.class);
+    }
+
+    @Override
+    protected void afterDelete() {
+        ConfigurationFeed.notifyChanged(ContentType.class);
+    }
 }
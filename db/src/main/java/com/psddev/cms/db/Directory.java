@@ -158,6 +158,7 @@ public class Directory extends Record {
         public void clearPaths() {
             Directory.ObjectModification dirData = as(Directory.ObjectModification.class);
 
+            dirData.rememberOriginalRawPaths();
             dirData.getRawPaths().clear();
             dirData.getPathTypes().clear();
         }
@@ -340,6 +341,8 @@ public class Directory extends Record {
     /** Modification that adds directory information. */
     public static final class ObjectModification extends Modification<Object> {
 
+        private static final String ORIGINAL_RAW_PATHS_EXTRA = ObjectModification.class.getName() + ".originalRawPaths";
+
         @InternalName(PATHS_MODE_FIELD)
         @ToolUi.Hidden
         private PathsMode pathsMode;
@@ -387,9 +390,39 @@ public class Directory extends Record {
 
         /** Sets the raw paths. */
         public void setRawPaths(List<String> paths) {
+            rememberOriginalRawPaths();
             this.paths = paths;
         }
 
+        /**
+         * Returns the raw paths as they were before they were first
+         * changed through this modification since the last save, so that
+         * the save hooks can tell where the object moved from without
+         * reading it again. Changes made directly to the list returned by
+         * {@link #getRawPaths} aren't tracked.
+         *
+         * @return Never {@code null}.
+         */
+        public List<String> getOriginalRawPaths() {
+            @SuppressWarnings("unchecked")
+            List<String> original = (List<String>) getState().getExtras().get(ORIGINAL_RAW_PATHS_EXTRA);
+
+            return original != null ? original : getRawPaths();
+        }
+
+        private void rememberOriginalRawPaths() {
+            Map<String, Object> extras = getState().getExtras();
+
+            if (!extras.containsKey(ORIGINAL_RAW_PATHS_EXTRA)) {
+                extras.put(ORIGINAL_RAW_PATHS_EXTRA, new ArrayList<String>(getRawPaths()));
+            }
+        }
+
+        @Override
+        protected void afterSave() {
+            getState().getExtras().remove(ORIGINAL_RAW_PATHS_EXTRA);
+        }
+
         /** Returns the path types. */
         public Map<String, PathType> getPathTypes() {
             if (pathTypes == null) {
@@ -526,6 +559,8 @@ public class Directory extends Record {
             List<String> rawPaths = getRawPaths();
             String rawPath = makeRawPath(site, path);
 
+            rememberOriginalRawPaths();
+
             if (!rawPaths.contains(rawPath)) {
                 rawPaths.add(rawPath);
             }
@@ -540,6 +575,7 @@ public class Directory extends Record {
         public void clearSitePaths(Site site) {
             String sitePrefix = site != null ? site.getRawPath() : null;
             Map<String, PathType> types = getPathTypes();
+            rememberOriginalRawPaths();
             for (Iterator<String> i = getRawPaths().iterator(); i.hasNext();) {
                 String rawPath = i.next();
                 if ((sitePrefix == null && !rawPath.contains(":")) ||
@@ -556,6 +592,7 @@ public class Directory extends Record {
          */
         public void removeSitePath(Site site, String path) {
             String rawPath = makeRawPath(site, path);
+            rememberOriginalRawPaths();
             getRawPaths().remove(rawPath);
             getPathTypes().remove(rawPath);
         }
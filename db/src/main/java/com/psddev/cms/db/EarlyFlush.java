@@ -0,0 +1,106 @@
+package com.psddev.cms.db;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.psddev.dari.util.HtmlElement;
+import com.psddev.dari.util.HtmlNode;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+
+/**
+ * Sends the {@code <head>} of a page to the client before its body is
+ * rendered when {@code cms/db/earlyFlushEnabled} is set, so that the
+ * browser can start fetching the stylesheets and scripts while the rest
+ * of the page is still being rendered.
+ *
+ * <p>Once the {@link PageStage} is updated, the stylesheets and scripts
+ * in it are sent as {@code Link} preload headers and the response is
+ * committed. The output is then flushed again right after the layout
+ * renders {@code ${stage.headNodes}}.</p>
+ *
+ * <p>{@link PageFilter} doesn't flush early when the response needs to be
+ * buffered, such as when the page is being cached, when the headers
+ * depend on the rendered objects, during inline editing or preview, or
+ * in debug mode.</p>
+ *
+ * <p>Once the response is committed, its status and headers can't be
+ * changed anymore, so any error while rendering the rest of the page
+ * results in a truncated page with the {@code 200 OK} status instead of
+ * an error page. The head isn't flushed while it's being rendered inside
+ * the body of another tag.</p>
+ */
+class EarlyFlush {
+
+    private static final String STAGE_ATTRIBUTE = EarlyFlush.class.getName() + ".stage";
+
+    private EarlyFlush() {
+    }
+
+    /** Returns {@code true} if flushing early is enabled. */
+    public static boolean isEnabled() {
+        return Settings.get(boolean.class, "cms/db/earlyFlushEnabled");
+    }
+
+    /**
+     * Sends the preload headers for the given {@code stage} and commits
+     * the given {@code response}.
+     *
+     * @param request Can't be {@code null}.
+     * @param response Can't be {@code null}.
+     * @param stage Can't be {@code null}.
+     */
+    public static void begin(HttpServletRequest request, HttpServletResponse response, PageStage stage) throws IOException {
+        if (response.isCommitted()) {
+            return;
+        }
+
+        for (HtmlNode node : stage.getHeadNodes()) {
+            if (!(node instanceof HtmlElement)) {
+                continue;
+            }
+
+            HtmlElement element = (HtmlElement) node;
+            String name = element.getName();
+            Object rel = element.getAttributes().get("rel");
+
+            if ("link".equals(name) && "stylesheet".equals(rel)) {
+                addPreloadHeader(response, element.getAttributes().get("href"), "style");
+
+            } else if ("script".equals(name)) {
+                addPreloadHeader(response, element.getAttributes().get("src"), "script");
+            }
+        }
+
+        request.setAttribute(STAGE_ATTRIBUTE, stage);
+        response.flushBuffer();
+    }
+
+    private static void addPreloadHeader(HttpServletResponse response, Object url, String as) {
+        if (!ObjectUtils.isBlank(url)) {
+            response.addHeader("Link", "<" + url + ">; rel=preload; as=" + as);
+        }
+    }
+
+    /**
+     * Flushes the given {@code writer} and the given {@code response} if
+     * the given {@code value} is the list of the head nodes of the stage
+     * that was flushed early in the given {@code request}.
+     *
+     * @param request Can't be {@code null}.
+     * @param response Can't be {@code null}.
+     * @param writer Can't be {@code null}.
+     */
+    public static void flushHead(HttpServletRequest request, HttpServletResponse response, Writer writer, Object value) throws IOException {
+        PageStage stage = (PageStage) request.getAttribute(STAGE_ATTRIBUTE);
+
+        if (stage != null && value == stage.getHeadNodes()) {
+            request.removeAttribute(STAGE_ATTRIBUTE);
+            writer.flush();
+            response.flushBuffer();
+        }
+    }
+}
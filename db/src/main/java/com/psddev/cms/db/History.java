@@ -33,6 +33,8 @@ public class History extends Record {
 
     private Map<String, Object> objectOriginals;
     private boolean lockIgnored;
+    private Boolean objectDraft;
+    private String objectWorkflowState;
 
     /** Creates a blank instance. */
     protected History() {
@@ -47,6 +49,8 @@ public class History extends Record {
         this.objectType = objectState.getType();
         this.objectId = objectState.getId();
         this.objectOriginals = objectState.getSimpleValues();
+        this.objectDraft = ObjectUtils.to(boolean.class, objectOriginals.get("cms.content.draft"));
+        this.objectWorkflowState = ObjectUtils.to(String.class, objectOriginals.get("cms.workflow.currentState"));
     }
 
     /**
@@ -102,6 +106,20 @@ public class History extends Record {
         this.lockIgnored = lockIgnored;
     }
 
+    /** Returns {@code true} if the object was a draft. */
+    public boolean isObjectDraft() {
+        return objectDraft != null ?
+                objectDraft :
+                ObjectUtils.to(boolean.class, getObjectOriginals().get("cms.content.draft"));
+    }
+
+    /** Returns the name of the object's workflow state. */
+    public String getObjectWorkflowState() {
+        return objectDraft != null ?
+                objectWorkflowState :
+                ObjectUtils.to(String.class, getObjectOriginals().get("cms.workflow.currentState"));
+    }
+
     /** Returns the object. */
     public Object getObject() {
         if (objectType == null) {
@@ -0,0 +1,362 @@
+package com.psddev.cms.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.psddev.dari.db.ComparisonPredicate;
+import com.psddev.dari.db.Database;
+import com.psddev.dari.db.ForwardingDatabase;
+import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.db.Predicate;
+import com.psddev.dari.db.PredicateParser;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.db.State;
+import com.psddev.dari.util.ObjectUtils;
+
+/**
+ * Database wrapper that serves repeated lookups of objects by their IDs
+ * from memory for the lifetime of a single request.
+ *
+ * <p>Only queries whose predicate is {@code _id = ?} without any sorters,
+ * fields or options are served from the map, and only the results of
+ * queries that load full, cacheable objects without any fields or options
+ * are put into it. Objects are evicted whenever they're written through
+ * this database. The returned objects are shared within the request,
+ * including any threads that render parts of it, so they shouldn't be
+ * modified without copying them first.</p>
+ *
+ * <p>{@link PageFilter} only installs it when
+ * {@code cms/db/identityMapEnabled} or
+ * {@code cms/db/parallelSectionsEnabled} is set.</p>
+ */
+public class IdentityMapDatabase extends ForwardingDatabase {
+
+    private final Map<UUID, Object> objects = new ConcurrentHashMap<UUID, Object>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private volatile ConcurrentMap<UUID, AtomicInteger> loadCounts;
+
+    /**
+     * Returns {@code true} if the number of times each object is loaded
+     * from the delegate is being counted.
+     */
+    public boolean isCountingLoads() {
+        return loadCounts != null;
+    }
+
+    /** Sets whether to count the number of times each object is loaded. */
+    public void setCountingLoads(boolean countingLoads) {
+        this.loadCounts = countingLoads ? new ConcurrentHashMap<UUID, AtomicInteger>() : null;
+    }
+
+    /** Returns the number of lookups that were served from memory. */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of times that each object was loaded from the
+     * delegate more than once, if counting loads.
+     *
+     * @return Never {@code null}.
+     */
+    public Map<UUID, Integer> getDuplicateLoads() {
+        Map<UUID, Integer> duplicates = new HashMap<UUID, Integer>();
+        Map<UUID, AtomicInteger> counts = loadCounts;
+
+        if (counts != null) {
+            for (Map.Entry<UUID, AtomicInteger> entry : counts.entrySet()) {
+                int count = entry.getValue().get();
+
+                if (count > 1) {
+                    duplicates.put(entry.getKey(), count - 1);
+                }
+            }
+        }
+
+        return duplicates;
+    }
+
+    /**
+     * Loads all objects with the given {@code ids} that aren't in memory
+     * yet in a single query.
+     *
+     * @param ids May be {@code null}.
+     */
+    public void prefetch(Collection<UUID> ids) {
+        if (ids == null) {
+            return;
+        }
+
+        Set<UUID> missingIds = new LinkedHashSet<UUID>();
+
+        for (UUID id : ids) {
+            if (id != null && !objects.containsKey(id)) {
+                missingIds.add(id);
+            }
+        }
+
+        if (!missingIds.isEmpty()) {
+            readAll(Query.fromAll().where("_id = ?", missingIds));
+        }
+    }
+
+    // Returns true if the given query loads full, cacheable objects
+    // regardless of its predicate and sorters.
+    private boolean isMappable(Query<?> query) {
+        return query.getFields() == null &&
+                !query.isReferenceOnly() &&
+                !query.isResolveToReferenceOnly() &&
+                query.isCache() &&
+                query.getOptions().isEmpty();
+    }
+
+    // Returns the IDs that the given query looks up, or null if the query
+    // can't be served from memory.
+    private List<UUID> findIds(Query<?> query) {
+        Predicate predicate = query.getPredicate();
+
+        if (!(predicate instanceof ComparisonPredicate) ||
+                !query.getSorters().isEmpty() ||
+                !isMappable(query)) {
+            return null;
+        }
+
+        ComparisonPredicate comparison = (ComparisonPredicate) predicate;
+
+        if (!"_id".equals(comparison.getKey()) ||
+                !PredicateParser.EQUALS_ANY_OPERATOR.equals(comparison.getOperator())) {
+            return null;
+        }
+
+        List<UUID> ids = new ArrayList<UUID>();
+
+        for (Object value : comparison.getValues()) {
+            UUID id = ObjectUtils.to(UUID.class, value);
+
+            if (id == null) {
+                return null;
+            }
+
+            ids.add(id);
+        }
+
+        return ids.isEmpty() ? null : ids;
+    }
+
+    // Returns the object with the given ID if it's in memory and matches
+    // the given query.
+    private Object findObject(Query<?> query, UUID id) {
+        Object object = objects.get(id);
+
+        if (object == null) {
+            return null;
+        }
+
+        State state = State.getInstance(object);
+
+        // The object may have been modified since it was loaded.
+        if (!id.equals(state.getId())) {
+            objects.remove(id);
+            return null;
+        }
+
+        if (!query.isResolveInvisible() && !state.isVisible()) {
+            return null;
+        }
+
+        Class<?> objectClass = query.getObjectClass();
+        String group = query.getGroup();
+
+        if (objectClass != null) {
+            return objectClass.isInstance(object) ? object : null;
+
+        } else if (group != null) {
+            ObjectType type = state.getType();
+
+            return type != null && type.getGroups().contains(group) ? object : null;
+
+        } else {
+            return object;
+        }
+    }
+
+    private void putObjects(Query<?> query, Collection<?> items) {
+        if (isMappable(query)) {
+            putAll(items);
+        }
+    }
+
+    /**
+     * Puts all given full, cacheable {@code items} that were loaded
+     * elsewhere into memory.
+     *
+     * @param items Can't be {@code null}.
+     */
+    void putAll(Collection<?> items) {
+        for (Object item : items) {
+            if (item != null) {
+                UUID id = State.getInstance(item).getId();
+
+                if (id != null) {
+                    objects.put(id, item);
+
+                    ConcurrentMap<UUID, AtomicInteger> counts = loadCounts;
+
+                    if (counts != null) {
+                        AtomicInteger count = counts.get(id);
+
+                        if (count == null) {
+                            count = new AtomicInteger();
+                            AtomicInteger existing = counts.putIfAbsent(id, count);
+
+                            if (existing != null) {
+                                count = existing;
+                            }
+                        }
+
+                        count.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    // --- ForwardingDatabase support ---
+
+    @Override
+    public <T> List<T> readAll(Query<T> query) {
+        List<UUID> ids = findIds(query);
+
+        if (ids == null) {
+            List<T> all = super.readAll(query);
+
+            putObjects(query, all);
+            return all;
+        }
+
+        Map<UUID, Object> found = new HashMap<UUID, Object>();
+        Set<UUID> missingIds = new LinkedHashSet<UUID>();
+
+        for (UUID id : ids) {
+            Object object = findObject(query, id);
+
+            if (object != null) {
+                found.put(id, object);
+                hits.incrementAndGet();
+
+            } else {
+                missingIds.add(id);
+            }
+        }
+
+        if (found.isEmpty()) {
+            List<T> all = super.readAll(query);
+
+            putObjects(query, all);
+            return all;
+        }
+
+        if (!missingIds.isEmpty()) {
+            Query<T> missingQuery = query.clone();
+
+            missingQuery.setPredicate(PredicateParser.Static.parse("_id = ?", missingIds));
+
+            List<T> missing = super.readAll(missingQuery);
+
+            putObjects(missingQuery, missing);
+
+            for (T item : missing) {
+                found.put(State.getInstance(item).getId(), item);
+            }
+        }
+
+        List<T> all = new ArrayList<T>();
+
+        for (UUID id : new LinkedHashSet<UUID>(ids)) {
+            @SuppressWarnings("unchecked")
+            T item = (T) found.get(id);
+
+            if (item != null) {
+                all.add(item);
+            }
+        }
+
+        return all;
+    }
+
+    @Override
+    public <T> T readFirst(Query<T> query) {
+        List<UUID> ids = findIds(query);
+
+        if (ids != null && ids.size() == 1) {
+            @SuppressWarnings("unchecked")
+            T object = (T) findObject(query, ids.get(0));
+
+            if (object != null) {
+                hits.incrementAndGet();
+                return object;
+            }
+        }
+
+        T first = super.readFirst(query);
+
+        if (first != null) {
+            putObjects(query, Collections.singletonList(first));
+        }
+
+        return first;
+    }
+
+    @Override
+    public void save(State state) {
+        objects.remove(state.getId());
+        super.save(state);
+    }
+
+    @Override
+    public void saveUnsafely(State state) {
+        objects.remove(state.getId());
+        super.saveUnsafely(state);
+    }
+
+    @Override
+    public void delete(State state) {
+        objects.remove(state.getId());
+        super.delete(state);
+    }
+
+    @Override
+    public void deleteByQuery(Query<?> query) {
+        objects.clear();
+        super.deleteByQuery(query);
+    }
+
+    /** {@link IdentityMapDatabase} utility methods. */
+    public static final class Static {
+
+        private Static() {
+        }
+
+        /**
+         * Returns the identity map that's installed as the default
+         * database in the current thread.
+         *
+         * @return May be {@code null}.
+         */
+        public static IdentityMapDatabase getCurrent() {
+            Database database = Database.Static.getDefault();
+
+            return database instanceof IdentityMapDatabase ? (IdentityMapDatabase) database : null;
+        }
+    }
+}
@@ -2,8 +2,10 @@ package com.psddev.cms.db;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import com.psddev.dari.db.ObjectType;
@@ -163,6 +165,15 @@ public class Page extends Content {
         }
 
         public static Layout fromDefinition(Page page, Map<String, Object> map) {
+            IdentityMapDatabase identityMap = IdentityMapDatabase.Static.getCurrent();
+
+            if (identityMap != null) {
+                Set<UUID> sectionIds = new LinkedHashSet<UUID>();
+
+                findSectionIds(page, map.get("outermostSection"), sectionIds);
+                identityMap.prefetch(sectionIds);
+            }
+
             Layout layout = new Layout();
             Object outermost = parseDefinition(page, layout, map.get("outermostSection"));
             if (outermost instanceof Section) {
@@ -171,6 +182,32 @@ public class Page extends Content {
             return layout;
         }
 
+        // Finds the IDs of all sections in the given definition that
+        // parseDefinition would load, so that they can be loaded at once.
+        private static void findSectionIds(Page page, Object object, Set<UUID> sectionIds) {
+            if (object instanceof List) {
+                for (Object e : (List<Object>) object) {
+                    findSectionIds(page, e, sectionIds);
+                }
+
+            } else if (object instanceof Map) {
+                Map<String, Object> map = (Map<String, Object>) object;
+
+                for (Object value : map.values()) {
+                    findSectionIds(page, value, sectionIds);
+                }
+
+                if (Boolean.TRUE.equals(map.get("isShareable")) ||
+                        page.getId().equals(ObjectUtils.to(UUID.class, map.get("page")))) {
+                    UUID id = ObjectUtils.to(UUID.class, map.get("_id"));
+
+                    if (id != null) {
+                        sectionIds.add(id);
+                    }
+                }
+            }
+        }
+
         public static Object parseDefinition(Page page, Layout layout, Object object) {
 
             if (object instanceof List) {
@@ -211,7 +248,19 @@ public class Page extends Content {
                     } else if (!(section instanceof Section)) {
                         section = type.createObject(null);
                     } else {
-                        State.getInstance(section).setType(type);
+                        // Objects from the identity map are shared within
+                        // the request, so work on a copy.
+                        if (IdentityMapDatabase.Static.getCurrent() != null) {
+                            Object copy = type.createObject(id);
+                            State copyState = State.getInstance(copy);
+
+                            copyState.setValues(State.getInstance(section).getSimpleValues());
+                            copyState.setType(type);
+                            section = copy;
+
+                        } else {
+                            State.getInstance(section).setType(type);
+                        }
                     }
                 }
 
@@ -0,0 +1,654 @@
+package com.psddev.cms.db;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeFieldType;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.psddev.cms.tool.AuthenticationFilter;
+import com.psddev.dari.db.Modification;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.db.Recordable;
+import com.psddev.dari.db.State;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.RepeatingTask;
+import com.psddev.dari.util.Settings;
+
+/**
+ * Opt-in cache of the pages rendered by {@link PageFilter} for anonymous
+ * requests.
+ *
+ * <p>Enable it with {@code cms/db/pageCacheEnabled}. Each page is keyed
+ * by its URL and the values of the request headers listed in
+ * {@code cms/db/pageCacheVaryHeaders}, and depends on the objects that
+ * were used to render it. Requests in an A/B test aren't cached, and
+ * neither are requests while there are any {@link Variation}s, unless
+ * {@code cms/db/variationCacheEnabled} says that they only depend on the
+ * {@linkplain Profile#getSignature profile signature}, which is then
+ * added to the key.</p>
+ *
+ * <p>An entry is evicted as soon as any of those objects is saved on
+ * this node, and isn't cached at all if any of them was saved while the
+ * page was rendering. Changes on other nodes are picked up by the
+ * {@link RemoteUpdateTask}, which checks whether any of those objects
+ * were updated every {@code cms/db/pageCacheCheckInterval} milliseconds.
+ * Every entry expires after {@code cms/db/pageCacheDuration} milliseconds
+ * regardless, since objects that are only read in a JSP, or deleted on
+ * other nodes, aren't tracked.</p>
+ */
+public final class PageCache {
+
+    private static final long CHECK_INTERVAL = Settings.getOrDefault(long.class, "cms/db/pageCacheCheckInterval", 5000L);
+    private static final long SAVE_WINDOW = Settings.getOrDefault(long.class, "cms/db/pageCacheSaveWindow", 60000L);
+    private static final int MAXIMUM_ENTRY_SIZE = Settings.getOrDefault(int.class, "cms/db/pageCacheMaximumEntrySize", 1048576);
+
+    @SuppressWarnings("unchecked")
+    private static final List<String> VARY_HEADERS = Settings.getOrDefault(List.class, "cms/db/pageCacheVaryHeaders", Collections.emptyList());
+
+    private static final ConcurrentMap<UUID, Set<String>> DEPENDENTS = new ConcurrentHashMap<UUID, Set<String>>();
+
+    private static final Cache<String, Entry> ENTRIES = CacheBuilder.
+            newBuilder().
+            expireAfterWrite(Settings.getOrDefault(long.class, "cms/db/pageCacheDuration", 300000L), TimeUnit.MILLISECONDS).
+            maximumWeight(Settings.getOrDefault(long.class, "cms/db/pageCacheMaximumSize", 67108864L)).
+            weigher(new Weigher<String, Entry>() {
+                @Override
+                public int weigh(String key, Entry entry) {
+                    return entry.output.length();
+                }
+            }).
+            removalListener(new RemovalListener<String, Entry>() {
+                @Override
+                public void onRemoval(RemovalNotification<String, Entry> notification) {
+                    String key = notification.getKey();
+                    Entry entry = notification.getValue();
+
+                    // The entry that replaced this one is already linked to
+                    // the same key.
+                    if (key == null ||
+                            entry == null ||
+                            notification.getCause() == RemovalCause.REPLACED) {
+                        return;
+                    }
+
+                    Entry current = ENTRIES.asMap().get(key);
+
+                    for (UUID id : entry.dependencyIds) {
+                        if (current != null && current.dependencyIds.contains(id)) {
+                            continue;
+                        }
+
+                        Set<String> keys = DEPENDENTS.get(id);
+
+                        if (keys != null) {
+                            keys.remove(key);
+
+                            if (keys.isEmpty()) {
+                                DEPENDENTS.remove(id, keys);
+                            }
+                        }
+                    }
+                }
+            }).
+            build();
+
+    // When each object was last saved, in nanoseconds, so that a page
+    // rendered from an object that was saved while it was rendering
+    // isn't cached.
+    private static final Cache<UUID, Long> SAVES = CacheBuilder.
+            newBuilder().
+            expireAfterWrite(SAVE_WINDOW, TimeUnit.MILLISECONDS).
+            maximumSize(Settings.getOrDefault(long.class, "cms/db/pageCacheMaximumSaves", 100000L)).
+            build();
+
+    private static final Cache<String, PathMetrics> METRICS = CacheBuilder.
+            newBuilder().
+            maximumSize(1000).
+            build();
+
+    private PageCache() {
+    }
+
+    /** Returns {@code true} if the page cache is enabled. */
+    public static boolean isEnabled() {
+        return Settings.get(boolean.class, "cms/db/pageCacheEnabled");
+    }
+
+    /**
+     * Creates the key that identifies the page for the given
+     * {@code request}, whether or not the cache is enabled.
+     *
+     * @param request Can't be {@code null}.
+     * @param user May be {@code null}.
+     * @return {@code null} if the page for the given {@code request}
+     * shouldn't be cached.
+     */
+    public static String createKey(HttpServletRequest request, ToolUser user) {
+        if (user != null ||
+                Settings.isDebug() ||
+                !"GET".equalsIgnoreCase(request.getMethod()) ||
+                PageFilter.Static.getPath(request).startsWith("/_preview") ||
+                PageFilter.Static.isInlineEditingAllContents(request)) {
+            return null;
+        }
+
+        // Special parameters such as _context, _embed and _debug change
+        // the rendering in ways that aren't worth caching.
+        for (Enumeration<String> e = request.getParameterNames(); e.hasMoreElements();) {
+            if (e.nextElement().startsWith("_")) {
+                return null;
+            }
+        }
+
+        if (AuthenticationFilter.Static.getCurrentPreview(request) != null ||
+                AbFilter.Static.isTesting(request)) {
+            return null;
+        }
+
+        String profileSignature = null;
+
+        if (Variation.Static.hasVariations()) {
+            if (!Variation.Static.isCacheEnabled()) {
+                return null;
+            }
+
+            profileSignature = PageFilter.Static.getProfile(request).getSignature();
+
+            if (profileSignature == null) {
+                return null;
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+        String queryString = request.getQueryString();
+
+        key.append(request.getRequestURL());
+
+        if (queryString != null) {
+            key.append('?');
+            key.append(queryString);
+        }
+
+        for (String name : VARY_HEADERS) {
+            key.append('\n');
+            key.append(name);
+            key.append(": ");
+            key.append(ObjectUtils.coalesce(request.getHeader(name), ""));
+        }
+
+        if (profileSignature != null) {
+            key.append("\nprofile: ");
+            key.append(profileSignature);
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Writes the page cached under the given {@code key} to the given
+     * {@code response}.
+     *
+     * @param request Can't be {@code null}.
+     * @param response Can't be {@code null}.
+     * @param key Can't be {@code null}.
+     * @return {@code true} if the page was in the cache.
+     */
+    public static boolean serve(HttpServletRequest request, HttpServletResponse response, String key) throws IOException {
+        Entry entry = ENTRIES.getIfPresent(key);
+        PathMetrics metrics = getPathMetrics(request.getServletPath());
+
+        if (entry == null) {
+            metrics.misses.incrementAndGet();
+            return false;
+        }
+
+        metrics.hits.incrementAndGet();
+
+        for (Map.Entry<String, List<String>> header : entry.headers.entrySet()) {
+            String name = header.getKey();
+            boolean first = true;
+
+            for (String value : header.getValue()) {
+                if (first) {
+                    response.setHeader(name, value);
+                    first = false;
+
+                } else {
+                    response.addHeader(name, value);
+                }
+            }
+        }
+
+        response.setContentType(entry.contentType);
+        response.setHeader("Brightspot-Cache", "hit");
+        response.getWriter().write(entry.output);
+        return true;
+    }
+
+    /**
+     * Caches the page captured by the given {@code response} under the
+     * given {@code key}, along with its dependencies.
+     *
+     * <p>The page isn't cached if any of its dependencies was saved after
+     * the given {@code renderStart}, or if rendering took longer than
+     * {@code cms/db/pageCacheSaveWindow} milliseconds, since the saves
+     * aren't remembered for longer.</p>
+     *
+     * @param request Can't be {@code null}.
+     * @param response Can't be {@code null}.
+     * @param key Can't be {@code null}.
+     * @param renderStart When the rendering started, in nanoseconds.
+     */
+    public static void put(HttpServletRequest request, CapturingResponse response, String key, long renderStart) {
+        long renderTime = System.nanoTime() - renderStart;
+
+        getPathMetrics(request.getServletPath()).addRender(renderTime);
+
+        String output = response.getOutput();
+
+        if (output == null ||
+                renderTime >= TimeUnit.MILLISECONDS.toNanos(SAVE_WINDOW)) {
+            return;
+        }
+
+        Set<UUID> dependencyIds = findDependencyIds(request);
+        Entry entry = new Entry(
+                response.getContentType(),
+                response.headers,
+                output,
+                dependencyIds);
+
+        for (UUID id : dependencyIds) {
+            Set<String> keys = DEPENDENTS.get(id);
+
+            if (keys == null) {
+                keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                Set<String> existing = DEPENDENTS.putIfAbsent(id, keys);
+
+                if (existing != null) {
+                    keys = existing;
+                }
+            }
+
+            keys.add(key);
+        }
+
+        ENTRIES.put(key, entry);
+
+        // Checked after linking the entry, so that a save either sees the
+        // link and evicts the entry, or is seen here.
+        for (UUID id : dependencyIds) {
+            Long saved = SAVES.getIfPresent(id);
+
+            if (saved != null && saved - renderStart >= 0L) {
+                ENTRIES.asMap().remove(key, entry);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Finds the IDs of all objects that were used to render the given
+     * {@code request}.
+     *
+     * @param request Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    static Set<UUID> findDependencyIds(HttpServletRequest request) {
+        Set<UUID> ids = new LinkedHashSet<UUID>();
+
+        for (State state : findDependencyStates(request)) {
+            ids.add(state.getId());
+        }
+
+        return ids;
+    }
+
+    /**
+     * Finds the states of all objects with IDs that were used to render
+     * the given {@code request}.
+     *
+     * @param request Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    static List<State> findDependencyStates(HttpServletRequest request) {
+        List<State> states = new ArrayList<State>();
+        List<Object> objects = new ArrayList<Object>();
+
+        objects.add(PageFilter.Static.getMainObject(request));
+        objects.add(PageFilter.Static.getPage(request));
+        objects.addAll(PageFilter.getRenderedObjects(request));
+
+        for (Object object : objects) {
+            if (object instanceof Recordable) {
+                State state = State.getInstance(object);
+
+                if (state.getId() != null) {
+                    states.add(state);
+                }
+            }
+        }
+
+        return states;
+    }
+
+    /**
+     * Evicts all pages that depend on the object with the given
+     * {@code id}.
+     */
+    public static void evict(UUID id) {
+        SAVES.put(id, System.nanoTime());
+
+        Set<String> keys = DEPENDENTS.remove(id);
+
+        if (keys != null) {
+            ENTRIES.invalidateAll(keys);
+        }
+    }
+
+    /** Evicts all pages. */
+    public static void evictAll() {
+        ENTRIES.invalidateAll();
+    }
+
+    /**
+     * Returns the cache metrics for each servlet path, for the most
+     * recently requested paths.
+     *
+     * @return Never {@code null}.
+     */
+    public static Map<String, PathMetrics> getMetrics() {
+        return new HashMap<String, PathMetrics>(METRICS.asMap());
+    }
+
+    private static PathMetrics getPathMetrics(String path) {
+        PathMetrics metrics = METRICS.getIfPresent(path);
+
+        if (metrics == null) {
+            metrics = new PathMetrics();
+            PathMetrics existing = METRICS.asMap().putIfAbsent(path, metrics);
+
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+
+        return metrics;
+    }
+
+    private static final class Entry {
+
+        private final String contentType;
+        private final Map<String, List<String>> headers;
+        private final String output;
+        private final Set<UUID> dependencyIds;
+
+        public Entry(String contentType, Map<String, List<String>> headers, String output, Set<UUID> dependencyIds) {
+            this.contentType = contentType;
+            this.headers = headers;
+            this.output = output;
+            this.dependencyIds = dependencyIds;
+        }
+    }
+
+    /** Cache hit and rendering statistics for a path. */
+    public static final class PathMetrics {
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong renders = new AtomicLong();
+        private final AtomicLong renderNanos = new AtomicLong();
+
+        private void addRender(long nanos) {
+            renders.incrementAndGet();
+            renderNanos.addAndGet(nanos);
+        }
+
+        /** Returns the number of requests served from the cache. */
+        public long getHits() {
+            return hits.get();
+        }
+
+        /** Returns the number of cacheable requests that were rendered. */
+        public long getMisses() {
+            return misses.get();
+        }
+
+        /** Returns the ratio of the hits to all cacheable requests. */
+        public double getHitRatio() {
+            long h = getHits();
+            long total = h + getMisses();
+
+            return total > 0 ? (double) h / total : 0.0;
+        }
+
+        /** Returns the average time spent rendering, in milliseconds. */
+        public double getAverageRenderTime() {
+            long r = renders.get();
+
+            return r > 0 ? renderNanos.get() / 1e6 / r : 0.0;
+        }
+
+        /**
+         * Returns the estimated rendering time saved by the hits, in
+         * milliseconds.
+         */
+        public double getRenderTimeSaved() {
+            return getHits() * getAverageRenderTime();
+        }
+    }
+
+    /**
+     * {@link HttpServletResponse} that captures the output written to the
+     * wrapped response so that it can be cached, along with the headers,
+     * including the ones that were set before it was created.
+     */
+    public static final class CapturingResponse extends HttpServletResponseWrapper {
+
+        private final Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+        private final StringBuilder output = new StringBuilder();
+        private PrintWriter writer;
+        private boolean uncacheable;
+
+        public CapturingResponse(HttpServletResponse response) {
+            super(response);
+
+            for (String name : response.getHeaderNames()) {
+                headers.put(name, new ArrayList<String>(response.getHeaders(name)));
+            }
+        }
+
+        /**
+         * Returns the captured output.
+         *
+         * @return {@code null} if the response can't be cached.
+         */
+        public String getOutput() {
+            if (writer != null) {
+                writer.flush();
+            }
+
+            return uncacheable || getStatus() != SC_OK ? null : output.toString();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            uncacheable = true;
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new CapturingWriter(super.getWriter()));
+            }
+
+            return writer;
+        }
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            uncacheable = true;
+            super.addCookie(cookie);
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            List<String> values = new ArrayList<String>();
+
+            values.add(value);
+            headers.put(name, values);
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            List<String> values = headers.get(name);
+
+            if (values == null) {
+                values = new ArrayList<String>();
+                headers.put(name, values);
+            }
+
+            values.add(value);
+            super.addHeader(name, value);
+        }
+
+        private final class CapturingWriter extends Writer {
+
+            private final Writer delegate;
+
+            public CapturingWriter(Writer delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(char[] buffer, int offset, int length) throws IOException {
+                delegate.write(buffer, offset, length);
+
+                if (!uncacheable) {
+                    if (output.length() + length > MAXIMUM_ENTRY_SIZE) {
+                        uncacheable = true;
+                        output.setLength(0);
+
+                    } else {
+                        output.append(buffer, offset, length);
+                    }
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                delegate.close();
+            }
+        }
+    }
+
+    /**
+     * Evicts the cached pages that depend on the objects updated on the
+     * other nodes every {@code cms/db/pageCacheCheckInterval} milliseconds,
+     * instead of checking the entries as they're served. Only the objects
+     * that the cached pages depend on are checked, in batches of
+     * {@code cms/db/pageCacheCheckBatchSize} IDs.
+     *
+     * <p>When the {@linkplain SurrogateKeys surrogate keys} are enabled,
+     * the changes to the types of the objects on the pages that they
+     * remember are recorded as well.</p>
+     */
+    public static class RemoteUpdateTask extends RepeatingTask {
+
+        private static final int BATCH_SIZE = Settings.getOrDefault(int.class, "cms/db/pageCacheCheckBatchSize", 500);
+
+        private Date lastCheck;
+
+        @Override
+        protected DateTime calculateRunTime(DateTime currentTime) {
+            return every(currentTime, DateTimeFieldType.secondOfDay(), 0, (int) Math.max(1L, CHECK_INTERVAL / 1000L));
+        }
+
+        @Override
+        protected void doRepeatingTask(DateTime runTime) {
+            Date since = lastCheck;
+
+            // Look back an extra interval to allow for clock differences
+            // between the nodes.
+            lastCheck = new Date(runTime.getMillis() - CHECK_INTERVAL);
+
+            if (since == null) {
+                return;
+            }
+
+            List<UUID> ids = new ArrayList<UUID>(DEPENDENTS.keySet());
+
+            for (int i = 0, size = ids.size(); i < size && shouldContinue(); i += BATCH_SIZE) {
+                for (Object item : Query.
+                        fromAll().
+                        where("_id = ?", ids.subList(i, Math.min(i + BATCH_SIZE, size))).
+                        and(Content.UPDATE_DATE_FIELD + " > ?", since).
+                        referenceOnly().
+                        selectAll()) {
+
+                    evict(State.getInstance(item).getId());
+                }
+            }
+
+            if (SurrogateKeys.isEnabled() && shouldContinue()) {
+                SurrogateKeys.checkTypeChanges();
+            }
+        }
+    }
+
+    /** Evicts the cached pages that depend on an object when it's saved. */
+    public static class DependencyModification extends Modification<Object> {
+
+        @Override
+        protected void afterSave() {
+            evictDependents();
+        }
+
+        @Override
+        protected void afterDelete() {
+            evictDependents();
+        }
+
+        private void evictDependents() {
+            if (isEnabled() && !Content.Static.isMetadataOnlySave(getState())) {
+                evict(getId());
+            }
+        }
+    }
+}
@@ -14,6 +14,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import com.psddev.cms.tool.AuthenticationFilter;
 import com.psddev.cms.tool.CmsTool;
 import com.psddev.cms.tool.RemoteWidgetFilter;
+import com.psddev.cms.tool.ToolMetadataCache;
 import com.psddev.cms.tool.ToolPageContext;
 import com.psddev.dari.db.Application;
 import com.psddev.dari.db.ApplicationFilter;
@@ -324,9 +326,23 @@ public class PageFilter extends AbstractFilter {
         varying.setDelegate(Database.Static.getDefault());
         varying.setRequest(request);
         varying.setProfile(profile);
-        Database.Static.overrideDefault(varying);
+
+        IdentityMapDatabase identityMap = null;
+
+        // Parallel sections hand their objects over through the identity map.
+        if (Settings.get(boolean.class, "cms/db/identityMapEnabled") ||
+                ParallelSections.isEnabled()) {
+            identityMap = new IdentityMapDatabase();
+            identityMap.setDelegate(varying);
+            identityMap.setCountingLoads(Settings.isDebug());
+            Database.Static.overrideDefault(identityMap);
+
+        } else {
+            Database.Static.overrideDefault(varying);
+        }
 
         Writer writer = null;
+        SurrogateKeys.BufferingResponse surrogateKeysResponse = null;
 
         try {
             String servletPath = request.getServletPath();
@@ -339,6 +355,11 @@ public class PageFilter extends AbstractFilter {
                 writer.write("Disallow: /\n");
                 return;
 
+            // Serve the sitemap from the pre-generated files.
+            } else if (SiteMapGenerator.isEnabled() &&
+                    SiteMapGenerator.serve(request, response, Static.getSite(request))) {
+                return;
+
             // Render a single section.
             } else if (servletPath.startsWith("/_render")) {
                 UUID sectionId = ObjectUtils.to(UUID.class, request.getParameter("_sectionId"));
@@ -365,6 +386,19 @@ public class PageFilter extends AbstractFilter {
                 return;
             }
 
+            long renderStart = System.nanoTime();
+            String pageKey = PageCache.createKey(request, user);
+            String pageCacheKey = pageKey != null && PageCache.isEnabled() ? pageKey : null;
+            String surrogateKeysPageKey = pageKey != null && SurrogateKeys.isEnabled() ? pageKey : null;
+
+            if (surrogateKeysPageKey != null && SurrogateKeys.writeNotModified(request, response, surrogateKeysPageKey)) {
+                return;
+            }
+
+            if (pageCacheKey != null && PageCache.serve(request, response, pageCacheKey)) {
+                return;
+            }
+
             Object mainObject = Static.getMainObject(request);
             if (redirectIfFixedPath(request, response)) {
                 return;
@@ -501,10 +535,11 @@ public class PageFilter extends AbstractFilter {
             // SEO and <head>.
             Map<String, Object> seo = new HashMap<String, Object>();
             Seo.ObjectModification seoData = mainState.as(Seo.ObjectModification.class);
-            String seoTitle = seoData.findTitle();
-            String seoDescription = seoData.findDescription();
-            String seoRobots = seoData.findRobotsString();
-            Set<String> seoKeywords = seoData.findKeywords();
+            boolean seoLive = Static.isPreview(request) || !mainState.isVisible();
+            String seoTitle = seoLive ? seoData.findTitle() : seoData.getPrecomputedTitle();
+            String seoDescription = seoLive ? seoData.findDescription() : seoData.getPrecomputedDescription();
+            String seoRobots = seoLive ? seoData.findRobotsString() : seoData.getPrecomputedRobotsString();
+            Set<String> seoKeywords = seoLive ? seoData.findKeywords() : seoData.getPrecomputedKeywords();
             String seoKeywordsString = null;
 
             request.setAttribute("seo", seo);
@@ -541,6 +576,20 @@ public class PageFilter extends AbstractFilter {
             stage.setMetaName("keywords", seoKeywordsString);
             stage.update(mainObject);
 
+            PageCache.CapturingResponse pageCacheResponse = null;
+
+            // Hold the output so that the surrogate keys of everything
+            // that's rendered can still be sent before it.
+            if (surrogateKeysPageKey != null) {
+                surrogateKeysResponse = new SurrogateKeys.BufferingResponse(response);
+                response = surrogateKeysResponse;
+            }
+
+            if (pageCacheKey != null) {
+                pageCacheResponse = new PageCache.CapturingResponse(response);
+                response = pageCacheResponse;
+            }
+
             // Try to set the right content type based on the extension.
             String contentType = URLConnection.getFileNameMap().getContentTypeFor(servletPath);
             response.setContentType((ObjectUtils.isBlank(contentType) ? "text/html" : contentType) + ";charset=UTF-8");
@@ -597,6 +646,23 @@ public class PageFilter extends AbstractFilter {
             String typePath = mainType.as(Renderer.TypeModification.class).getPath();
             boolean rendered = false;
 
+            // Send the head early unless the response must be buffered or
+            // there's nothing to render it with.
+            if (EarlyFlush.isEnabled() &&
+                    pageCacheResponse == null &&
+                    surrogateKeysPageKey == null &&
+                    !embed &&
+                    !Settings.isDebug() &&
+                    !Static.isPreview(request) &&
+                    !Static.isInlineEditingAllContents(request) &&
+                    (ObjectUtils.isBlank(contentType) || "text/html".equals(contentType)) &&
+                    (!ObjectUtils.isBlank(layoutPath) ||
+                    (page != null && page.getLayout() != null) ||
+                    !ObjectUtils.isBlank(typePath) ||
+                    mainObject instanceof Renderer)) {
+                EarlyFlush.begin(request, response, stage);
+            }
+
             try {
                 if (contextNotBlank) {
                     ContextTag.Static.pushContext(request, context);
@@ -664,6 +730,14 @@ public class PageFilter extends AbstractFilter {
 
             endPage(request, response, writer, page);
 
+            if (surrogateKeysPageKey != null) {
+                SurrogateKeys.setHeaders(request, response, surrogateKeysPageKey);
+            }
+
+            if (pageCacheResponse != null) {
+                PageCache.put(request, pageCacheResponse, pageCacheKey, renderStart);
+            }
+
             if (Static.isInlineEditingAllContents(request)) {
                 LazyWriterResponse lazyResponse = (LazyWriterResponse) response;
                 Map<String, String> map = new HashMap<String, String>();
@@ -684,9 +758,25 @@ public class PageFilter extends AbstractFilter {
         } finally {
             Database.Static.restoreDefault();
 
+            if (identityMap != null && identityMap.isCountingLoads()) {
+                Map<UUID, Integer> duplicateLoads = identityMap.getDuplicateLoads();
+
+                if (!duplicateLoads.isEmpty()) {
+                    LOGGER.info(String.format(
+                            "Loaded objects more than once while rendering [%s] (served %s lookups from memory): %s",
+                            request.getRequestURL(),
+                            identityMap.getHits(),
+                            duplicateLoads));
+                }
+            }
+
             if (response instanceof LazyWriterResponse) {
                 ((LazyWriterResponse) response).getLazyWriter().writePending();
             }
+
+            if (surrogateKeysResponse != null) {
+                surrogateKeysResponse.release();
+            }
         }
 
         if (Settings.isDebug() ||
@@ -947,8 +1037,19 @@ public class PageFilter extends AbstractFilter {
                 addParentSection(request, container);
                 beginContainer(request, response, writer, container);
 
-                for (Section child : children) {
-                    renderSection(request, response, writer, child);
+                List<Future<List<Object>>> parallel = ParallelSections.submitAll(request, children);
+
+                for (int i = 0, size = children.size(); i < size; ++ i) {
+                    Section child = children.get(i);
+                    Future<List<Object>> future = parallel != null ? parallel.get(i) : null;
+
+                    if (future != null) {
+                        ParallelSections.render(request, response, writer, child, future);
+
+                    } else {
+                        renderSection(request, response, writer, child);
+                    }
+
                     if (isAborted(request)) {
                         return;
                     }
@@ -1230,7 +1331,7 @@ public class PageFilter extends AbstractFilter {
                     fixPath(request, servletPath + "/");
                 }
 
-                site = Query.from(Site.class).where("_id = ?", entry.getValue()).first();
+                site = entry.getValue();
                 setSite(request, site);
                 setPath(request, path);
             }
@@ -1387,7 +1488,7 @@ public class PageFilter extends AbstractFilter {
                         if (mainObject != null) {
 
                             // Except when told not to.
-                            if (Query.from(CmsTool.class).first().isRemoveTrailingSlashes()) {
+                            if (ToolMetadataCache.getCmsTool().isRemoveTrailingSlashes()) {
                                 if (path.length() > 1 && path.endsWith("/")) {
                                     fixPath(request, servletPath.substring(0, servletPath.length() - 1));
                                 }
@@ -1459,7 +1560,7 @@ public class PageFilter extends AbstractFilter {
                     if (mainObject != null) {
                         final String pathInfo = path.substring(checkPath.length());
 
-                        if (Query.from(CmsTool.class).first().isRemoveTrailingSlashes()) {
+                        if (ToolMetadataCache.getCmsTool().isRemoveTrailingSlashes()) {
                             if ("/".equals(pathInfo)) {
                                 fixPath(request, servletPath.substring(0, servletPath.length() - 1));
                             }
@@ -7,13 +7,20 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.psddev.dari.db.Modification;
 import com.psddev.dari.db.ObjectType;
 import com.psddev.dari.db.Record;
@@ -86,11 +93,31 @@ import com.psddev.dari.util.TypeDefinition;
  */
 public class PageStage extends Record {
 
+    // Attributes that the head elements are indexed by, in the order of
+    // preference when finding an element.
+    private static final String[] KEY_ATTRIBUTES = {
+            "href",
+            "src",
+            "name",
+            "property",
+            "http-equiv",
+            "charset",
+            "rel" };
+
+    private static final int STYLE_SHEET_GROUP = 0;
+    private static final int OTHER_GROUP = 1;
+    private static final int SCRIPT_GROUP = 2;
+
     private transient ServletContext servletContext;
 
     private transient HttpServletRequest request;
 
-    private final transient List<HtmlNode> headNodes = new ArrayList<HtmlNode>();
+    private final transient HeadNodeList headNodes = new HeadNodeList();
+
+    private transient Map<String, List<HtmlElement>> headIndex;
+    private transient int headIndexModificationCount;
+    private transient int styleSheetsEnd;
+    private transient int scriptsStart;
 
     public PageStage() {
     }
@@ -121,6 +148,11 @@ public class PageStage extends Record {
     /**
      * Returns the list of all nodes in the {@code <head>} element.
      *
+     * <p>The elements are indexed by name and key attributes, such as
+     * {@code name} or {@code href}, when they're added. Changing the list
+     * directly causes the index to be rebuilt, but changing the key
+     * attributes of an element that's already in it doesn't.</p>
+     *
      * @return Never {@code null}. Mutable.
      */
     public List<HtmlNode> getHeadNodes() {
@@ -138,13 +170,7 @@ public class PageStage extends Record {
     public HtmlElement findHeadElement(String name, Object... attributes) {
         ErrorUtils.errorIfBlank(name, "name");
 
-        for (HtmlNode node : getHeadNodes()) {
-            if (!(node instanceof HtmlElement)) {
-                continue;
-            }
-
-            HtmlElement element = (HtmlElement) node;
-
+        for (HtmlElement element : findHeadElementCandidates(name, attributes)) {
             if (name.equals(element.getName()) &&
                     element.hasAttributes(attributes)) {
                 return element;
@@ -175,99 +201,193 @@ public class PageStage extends Record {
             element.setName(name);
             element.addAttributes(attributes);
 
-            List<HtmlNode> nodes = getHeadNodes();
+            getHeadIndex();
+
+            int group = getHeadGroup(element);
+            int insertIndex;
 
-            if (ObjectUtils.isBlank(nodes)) {
-                nodes.add(element);
+            // JS goes last.
+            if (group == SCRIPT_GROUP) {
+                insertIndex = headNodes.size();
 
+            // CSS goes first.
+            } else if (group == STYLE_SHEET_GROUP) {
+                insertIndex = styleSheetsEnd;
+                ++ styleSheetsEnd;
+                ++ scriptsStart;
+
+            // Everything else in between.
             } else {
+                insertIndex = scriptsStart;
+                ++ scriptsStart;
+            }
 
-                // JS goes last.
-                if ("script".equals(name)) {
-                    nodes.add(element);
+            headNodes.add(insertIndex, element);
+            indexHeadElement(element);
+            headIndexModificationCount = headNodes.getModificationCount();
+        }
 
-                // CSS goes first.
-                } else if ("link".equals(name) &&
-                        "text/css".equals(element.getAttributes().get("type"))) {
-                    int insertIndex = 0;
+        return element;
+    }
 
-                    for (ListIterator<HtmlNode> i = nodes.listIterator(); i.hasNext();) {
-                        HtmlNode node = i.next();
+    /**
+     * Removes all tags with the given {@code name} and {@code attributes}
+     * within the {@code <head>} element.
+     *
+     * @param name If blank, does nothing.
+     * @param attribues May be {@code null}.
+     */
+    public void removeHeadTag(String name, Object... attributes) {
+        if (ObjectUtils.isBlank(name)) {
+            return;
+        }
 
-                        if (!(node instanceof HtmlElement)) {
-                            continue;
-                        }
+        Set<HtmlElement> removes = null;
 
-                        HtmlElement iElement = (HtmlElement) node;
+        for (HtmlElement element : findHeadElementCandidates(name, attributes)) {
+            if (name.equals(element.getName()) &&
+                    element.hasAttributes(attributes)) {
+                if (removes == null) {
+                    removes = Collections.newSetFromMap(new IdentityHashMap<HtmlElement, Boolean>());
+                }
 
-                        if ("link".equals(iElement.getName()) &&
-                                "text/css".equals(iElement.getAttributes().get("type"))) {
-                            continue;
+                removes.add(element);
+            }
+        }
 
-                        } else {
-                            insertIndex = i.previousIndex();
-                            break;
-                        }
-                    }
+        if (removes != null) {
+            for (Iterator<HtmlNode> i = headNodes.iterator(); i.hasNext();) {
+                if (removes.contains(i.next())) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    // Returns the index of the head elements by name and by name and each
+    // key attribute, rebuilding it if the nodes were changed directly.
+    private Map<String, List<HtmlElement>> getHeadIndex() {
+        if (headIndex == null ||
+                headIndexModificationCount != headNodes.getModificationCount()) {
+            boolean styleSheets = true;
 
-                    nodes.add(insertIndex, element);
+            headIndex = new HashMap<String, List<HtmlElement>>();
+            styleSheetsEnd = 0;
+            scriptsStart = -1;
 
-                // Everything else in between.
-                } else {
-                    int insertIndex = 0;
+            for (int i = 0, size = headNodes.size(); i < size; ++ i) {
+                HtmlNode node = headNodes.get(i);
 
-                    for (ListIterator<HtmlNode> i = nodes.listIterator(); i.hasNext();) {
-                        HtmlNode node = i.next();
+                if (!(node instanceof HtmlElement)) {
+                    continue;
+                }
 
-                        if (!(node instanceof HtmlElement)) {
-                            continue;
-                        }
+                HtmlElement element = (HtmlElement) node;
+                int group = getHeadGroup(element);
 
-                        HtmlElement iElement = (HtmlElement) node;
+                indexHeadElement(element);
 
-                        if ("script".equals(iElement.getName())) {
-                            insertIndex = i.previousIndex();
-                            break;
+                if (styleSheets) {
+                    if (group == STYLE_SHEET_GROUP) {
+                        styleSheetsEnd = i + 1;
 
-                        } else {
-                            insertIndex = i.nextIndex();
-                        }
+                    } else {
+                        styleSheets = false;
                     }
+                }
 
-                    nodes.add(insertIndex, element);
+                if (scriptsStart < 0 && group == SCRIPT_GROUP) {
+                    scriptsStart = i;
                 }
             }
+
+            if (scriptsStart < 0) {
+                scriptsStart = headNodes.size();
+            }
+
+            headIndexModificationCount = headNodes.getModificationCount();
         }
 
-        return element;
+        return headIndex;
     }
 
-    /**
-     * Removes all tags with the given {@code name} and {@code attributes}
-     * within the {@code <head>} element.
-     *
-     * @param name If blank, does nothing.
-     * @param attribues May be {@code null}.
-     */
-    public void removeHeadTag(String name, Object... attributes) {
-        if (ObjectUtils.isBlank(name)) {
-            return;
-        }
+    private void indexHeadElement(HtmlElement element) {
+        String name = element.getName();
+        Map<String, String> attributes = element.getAttributes();
 
-        for (Iterator<HtmlNode> i = getHeadNodes().iterator(); i.hasNext();) {
-            HtmlNode node = i.next();
+        addHeadIndexEntry(name, element);
 
-            if (!(node instanceof HtmlElement)) {
-                continue;
+        for (String keyAttribute : KEY_ATTRIBUTES) {
+            String value = attributes.get(keyAttribute);
+
+            if (value != null) {
+                addHeadIndexEntry(createHeadIndexKey(name, keyAttribute, value), element);
             }
+        }
+    }
 
-            HtmlElement element = (HtmlElement) node;
+    // Keeps the elements in each entry in the same group order as the nodes.
+    private void addHeadIndexEntry(String key, HtmlElement element) {
+        List<HtmlElement> elements = headIndex.get(key);
 
-            if (name.equals(element.getName()) &&
-                    element.hasAttributes(attributes)) {
-                i.remove();
+        if (elements == null) {
+            elements = new ArrayList<HtmlElement>();
+            headIndex.put(key, elements);
+        }
+
+        int group = getHeadGroup(element);
+        int insertIndex = elements.size();
+
+        while (insertIndex > 0 && getHeadGroup(elements.get(insertIndex - 1)) > group) {
+            -- insertIndex;
+        }
+
+        elements.add(insertIndex, element);
+    }
+
+    // Finds the elements that may match using the most specific key
+    // attribute in the given attributes.
+    private List<HtmlElement> findHeadElementCandidates(String name, Object... attributes) {
+        Map<String, List<HtmlElement>> index = getHeadIndex();
+        String key = name;
+
+        if (attributes != null) {
+            KEY: for (String keyAttribute : KEY_ATTRIBUTES) {
+                for (int i = 0, length = attributes.length - 1; i < length; i += 2) {
+                    Object value = attributes[i + 1];
+
+                    if (value != null && keyAttribute.equals(attributes[i])) {
+                        key = createHeadIndexKey(name, keyAttribute, value.toString());
+                        break KEY;
+                    }
+                }
             }
         }
+
+        List<HtmlElement> candidates = index.get(key);
+
+        return candidates != null ?
+                candidates :
+                Collections.<HtmlElement>emptyList();
+    }
+
+    private static String createHeadIndexKey(String name, String keyAttribute, String value) {
+        return name + " " + keyAttribute + "=" + value;
+    }
+
+    private static int getHeadGroup(HtmlElement element) {
+        String name = element.getName();
+
+        if ("script".equals(name)) {
+            return SCRIPT_GROUP;
+
+        } else if ("link".equals(name) &&
+                "text/css".equals(element.getAttributes().get("type"))) {
+            return STYLE_SHEET_GROUP;
+
+        } else {
+            return OTHER_GROUP;
+        }
     }
 
     /**
@@ -465,7 +585,7 @@ public class PageStage extends Record {
         State state = State.getInstance(object);
         ObjectType type = state.getType();
         SharedUpdatable sharedUpdatable = type != null ?
-                type.as(TypeData.class).createSharedUpdatable() :
+                type.as(TypeData.class).getSharedUpdatable() :
                 null;
 
         if (sharedUpdatable != null) {
@@ -510,6 +630,17 @@ public class PageStage extends Record {
     @FieldInternalNamePrefix("cms.pageStage.")
     public static class TypeData extends Modification<ObjectType> {
 
+        private static final LoadingCache<Class<? extends SharedUpdatable>, SharedUpdatable> SHARED_UPDATABLES = CacheBuilder.
+                newBuilder().
+                weakKeys().
+                build(new CacheLoader<Class<? extends SharedUpdatable>, SharedUpdatable>() {
+
+                    @Override
+                    public SharedUpdatable load(Class<? extends SharedUpdatable> sharedUpdatableClass) {
+                        return TypeDefinition.getInstance(sharedUpdatableClass).newInstance();
+                    }
+                });
+
         private String updateClassName;
 
         public String getUpdateClassName() {
@@ -533,6 +664,21 @@ public class PageStage extends Record {
                     TypeDefinition.getInstance((Class<? extends SharedUpdatable>) c).newInstance() :
                     null;
         }
+
+        /**
+         * Returns the shared updatable object appropriate for this type,
+         * which is created once per class and reused afterwards.
+         *
+         * @return May be {@code null}.
+         */
+        @SuppressWarnings("unchecked")
+        public SharedUpdatable getSharedUpdatable() {
+            Class<?> c = ObjectUtils.getClassByName(getUpdateClassName());
+
+            return c != null && SharedUpdatable.class.isAssignableFrom(c) ?
+                    SHARED_UPDATABLES.getUnchecked((Class<? extends SharedUpdatable>) c) :
+                    null;
+        }
     }
 
     /**
@@ -555,6 +701,9 @@ public class PageStage extends Record {
      * {@link PageFilter} will call the appropriate methods if the main
      * content is annotated with {@link UpdateClass} that points to a class
      * that implements this interface.
+     *
+     * <p>A single instance is shared by all updates to the same type, so
+     * the implementation shouldn't keep any state between the calls.</p>
      */
     public static interface SharedUpdatable {
 
@@ -577,4 +726,15 @@ public class PageStage extends Record {
          */
         public void updateStageAfter(Object object, PageStage stage);
     }
+
+    // Exposes the modification count so that the index can tell when the
+    // nodes were changed directly.
+    private static class HeadNodeList extends ArrayList<HtmlNode> {
+
+        private static final long serialVersionUID = 1L;
+
+        public int getModificationCount() {
+            return modCount;
+        }
+    }
 }
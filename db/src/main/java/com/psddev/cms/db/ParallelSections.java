@@ -0,0 +1,217 @@
+package com.psddev.cms.db;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.psddev.dari.db.Database;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.db.State;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+
+/**
+ * Loads the objects referenced by the
+ * {@linkplain Section#isIndependent independent} children of a container
+ * section concurrently when {@code cms/db/parallelSectionsEnabled} is set.
+ *
+ * <p>Only the loading of the objects that the sections reference directly
+ * runs in parallel, on a pool of {@code cms/db/parallelSectionThreads}
+ * threads. The sections themselves, including any queries that their
+ * renderers make, still run in order on the request thread, because the
+ * servlet API, including the JSP includes that render them, isn't
+ * thread-safe. The pool threads only query the database underneath the
+ * request-bound {@link IdentityMapDatabase} and {@link VaryingDatabase},
+ * so they never touch the request. The loaded objects are put into the
+ * identity map of the request, with the variations applied, so
+ * {@link PageFilter} always installs one while this is enabled.</p>
+ *
+ * <p>Once the page has spent {@code cms/db/parallelSectionBudget}
+ * milliseconds, any section whose objects are still loading is rendered
+ * without waiting for them, loading them on the request thread as
+ * usual.</p>
+ */
+@SuppressWarnings("deprecation")
+class ParallelSections {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelSections.class);
+
+    private static final String ATTRIBUTE_PREFIX = ParallelSections.class.getName() + ".";
+    private static final String DEADLINE_ATTRIBUTE = ATTRIBUTE_PREFIX + "deadline";
+
+    private static final long BUDGET = Settings.getOrDefault(long.class, "cms/db/parallelSectionBudget", 1000L);
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Settings.getOrDefault(int.class, "cms/db/parallelSectionThreads", 8),
+            new ThreadFactoryBuilder().
+                    setDaemon(true).
+                    setNameFormat("cms-parallel-section-%d").
+                    build());
+
+    private ParallelSections() {
+    }
+
+    /** Returns {@code true} if the parallel sections are enabled. */
+    public static boolean isEnabled() {
+        return Settings.get(boolean.class, "cms/db/parallelSectionsEnabled");
+    }
+
+    /**
+     * Starts loading the objects referenced by the independent sections
+     * among the given {@code sections}.
+     *
+     * @return {@code null} if none of the sections should be loaded
+     * concurrently. Otherwise, a list in the same order as the given
+     * {@code sections}, with {@code null}s for the sections that should
+     * be rendered normally.
+     */
+    public static List<Future<List<Object>>> submitAll(HttpServletRequest request, List<Section> sections) {
+        if (!isEnabled() ||
+                IdentityMapDatabase.Static.getCurrent() == null ||
+                PageFilter.Static.isInlineEditingAllContents(request)) {
+            return null;
+        }
+
+        Database database = VaryingDatabase.findUnboundDatabase(Database.Static.getDefault());
+        List<Future<List<Object>>> futures = null;
+
+        for (int i = 0, size = sections.size(); i < size; ++ i) {
+            Section section = sections.get(i);
+
+            if (section == null || !section.isIndependent()) {
+                continue;
+            }
+
+            Set<UUID> ids = new LinkedHashSet<UUID>();
+
+            findReferenceIds(State.getInstance(section).getSimpleValues(), ids);
+
+            if (ids.isEmpty()) {
+                continue;
+            }
+
+            if (futures == null) {
+                futures = new ArrayList<Future<List<Object>>>(Collections.<Future<List<Object>>>nCopies(size, null));
+
+                if (request.getAttribute(DEADLINE_ATTRIBUTE) == null) {
+                    request.setAttribute(DEADLINE_ATTRIBUTE, System.currentTimeMillis() + BUDGET);
+                }
+            }
+
+            futures.set(i, EXECUTOR.submit(new Task(database, ids)));
+        }
+
+        return futures;
+    }
+
+    /**
+     * Renders the given {@code section} once the objects that it references
+     * are loaded by the given {@code future}, waiting for them within the
+     * remaining budget of the page, or right away if they don't load in
+     * time.
+     */
+    public static void render(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            Writer writer,
+            Section section,
+            Future<List<Object>> future)
+            throws IOException, ServletException {
+
+        Long deadline = (Long) request.getAttribute(DEADLINE_ATTRIBUTE);
+        long remaining = deadline != null ? deadline - System.currentTimeMillis() : 0L;
+        List<Object> objects;
+
+        try {
+            objects = future.get(Math.max(remaining, 0L), TimeUnit.MILLISECONDS);
+
+        } catch (TimeoutException error) {
+            future.cancel(true);
+            LOGGER.debug("Section [{}] didn't load within the budget", section.getId());
+            objects = null;
+
+        } catch (InterruptedException error) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            objects = null;
+
+        } catch (ExecutionException error) {
+            LOGGER.warn(String.format("Can't load the objects for section [%s]!", section.getId()), error.getCause());
+            objects = null;
+        }
+
+        IdentityMapDatabase identityMap = IdentityMapDatabase.Static.getCurrent();
+
+        if (identityMap != null && objects != null) {
+            Profile profile = VaryingDatabase.findProfile(identityMap);
+
+            if (profile != null) {
+                for (Object object : objects) {
+                    Variation.Static.applyAll(object, profile);
+                }
+            }
+
+            identityMap.putAll(objects);
+        }
+
+        PageFilter.renderSection(request, response, writer, section);
+    }
+
+    // Finds the IDs of all references in the given simple value.
+    private static void findReferenceIds(Object value, Set<UUID> ids) {
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            UUID id = ObjectUtils.to(UUID.class, map.get("_ref"));
+
+            if (id != null) {
+                ids.add(id);
+
+            } else {
+                findReferenceIds(map.values(), ids);
+            }
+
+        } else if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                findReferenceIds(item, ids);
+            }
+        }
+    }
+
+    private static final class Task implements Callable<List<Object>> {
+
+        private final Database database;
+        private final Set<UUID> ids;
+
+        public Task(Database database, Set<UUID> ids) {
+            this.database = database;
+            this.ids = ids;
+        }
+
+        @Override
+        public List<Object> call() {
+            return Query.fromAll().where("_id = ?", ids).using(database).selectAll();
+        }
+    }
+}
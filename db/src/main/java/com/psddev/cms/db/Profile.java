@@ -1,11 +1,15 @@
 package com.psddev.cms.db;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.psddev.dari.db.Record;
+import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PullThroughCache;
+import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.StringUtils;
 
 /**
@@ -69,6 +73,81 @@ public class Profile extends Record {
         this.deviceWidth = deviceWidth;
     }
 
+    /**
+     * Returns the string that's the same for all profiles that the
+     * variations treat the same, used as part of the key when
+     * {@linkplain Variation.Static#isCacheEnabled caching the varied
+     * objects}. By default, combines the results of all the
+     * {@code isUserAgent*} checks that the device rules use, and the
+     * bucket of the device width between the
+     * {@code cms/db/profileWidthBreakpoints} (480, 768, 1024 and 1280 by
+     * default), so that the many distinct user agent strings of the same
+     * class of device share the same signature.
+     *
+     * @return If {@code null}, the varied objects aren't cached.
+     */
+    public String getSignature() {
+        StringBuilder signature = new StringBuilder();
+
+        for (boolean check : new boolean[] {
+                isUserAgentGecko(),
+                isUserAgentTrident(),
+                isUserAgentPresto(),
+                isUserAgentWebKit(),
+                isUserAgentChrome(),
+                isUserAgentFirefox(),
+                isUserAgentMsieMobile(),
+                isUserAgentSafari(),
+                isUserAgentIpad(),
+                isUserAgentIphone(),
+                isUserAgentAndroid(),
+                isUserAgentMac(),
+                isUserAgentWindows() }) {
+
+            signature.append(check ? '1' : '0');
+        }
+
+        signature.append('/');
+
+        Integer width = getDeviceWidth();
+
+        if (width != null) {
+            int bucket = 0;
+
+            for (int breakpoint : WIDTH_BREAKPOINTS) {
+                if (width >= breakpoint) {
+                    ++ bucket;
+                }
+            }
+
+            signature.append(bucket);
+        }
+
+        return signature.toString();
+    }
+
+    private static final int[] WIDTH_BREAKPOINTS = parseBreakpoints(Settings.getOrDefault(String.class, "cms/db/profileWidthBreakpoints", "480,768,1024,1280"));
+
+    private static int[] parseBreakpoints(String breakpoints) {
+        List<Integer> parsed = new ArrayList<Integer>();
+
+        for (String breakpoint : breakpoints.split(",")) {
+            Integer value = ObjectUtils.to(Integer.class, breakpoint.trim());
+
+            if (value != null) {
+                parsed.add(value);
+            }
+        }
+
+        int[] array = new int[parsed.size()];
+
+        for (int i = 0, size = parsed.size(); i < size; ++ i) {
+            array[i] = parsed.get(i);
+        }
+
+        return array;
+    }
+
     /**
      * Returns {@code true} if the user agent string includes the given
      * regular expression {@code pattern}.
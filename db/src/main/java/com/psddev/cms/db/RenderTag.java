@@ -11,6 +11,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.JspWriter;
 import javax.servlet.jsp.tagext.BodyContent;
 import javax.servlet.jsp.tagext.BodyTagSupport;
 import javax.servlet.jsp.tagext.DynamicAttributes;
@@ -195,6 +196,14 @@ public class RenderTag extends BodyTagSupport implements DynamicAttributes, TryC
                     writeArea(request, area, value);
                 }
 
+                // Flushing a body content would only write it to the
+                // enclosing tag, so wait for the head to reach the page.
+                JspWriter out = pageContext.getOut();
+
+                if (areas == null && !(out instanceof BodyContent)) {
+                    EarlyFlush.flushHead(request, (HttpServletResponse) pageContext.getResponse(), out, value);
+                }
+
                 setBodyContent(null);
                 return SKIP_BODY;
             }
@@ -0,0 +1,258 @@
+package com.psddev.cms.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.db.State;
+import com.psddev.dari.util.ErrorUtils;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.PaginatedResult;
+
+/**
+ * Index of all revisions of an object, for listing them without
+ * working with each {@link History} in full.
+ *
+ * <p>Drafts are loaded once in a single query, and histories are
+ * returned in pages of lightweight {@link Header}s whose workflow states
+ * are resolved against one workflow lookup. The full history should be
+ * loaded by its ID only once it's selected.</p>
+ */
+public class RevisionIndex {
+
+    private final UUID objectId;
+    private final ObjectType objectType;
+
+    private List<Draft> scheduledDrafts;
+    private List<Draft> drafts;
+    private Workflow workflow;
+    private boolean workflowResolved;
+
+    /**
+     * Creates an instance for the given {@code object}.
+     *
+     * @param object Can't be {@code null}.
+     */
+    public RevisionIndex(Object object) {
+        ErrorUtils.errorIfNull(object, "object");
+
+        State state = State.getInstance(object);
+        this.objectId = state.getId();
+        this.objectType = state.getType();
+    }
+
+    /**
+     * Returns all scheduled drafts, sorted by their trigger dates.
+     *
+     * @return Never {@code null}.
+     */
+    public List<Draft> getScheduledDrafts() {
+        findDrafts();
+        return scheduledDrafts;
+    }
+
+    /**
+     * Returns all unscheduled drafts, sorted by their update dates.
+     *
+     * @return Never {@code null}.
+     */
+    public List<Draft> getDrafts() {
+        findDrafts();
+        return drafts;
+    }
+
+    private void findDrafts() {
+        if (drafts != null) {
+            return;
+        }
+
+        List<Draft> newScheduledDrafts = new ArrayList<Draft>();
+        List<Draft> newDrafts = new ArrayList<Draft>();
+
+        for (Draft d : Query.
+                from(Draft.class).
+                where("objectId = ?", objectId).
+                selectAll()) {
+            if (d.getSchedule() != null) {
+                newScheduledDrafts.add(d);
+
+            } else {
+                newDrafts.add(d);
+            }
+        }
+
+        Collections.sort(newScheduledDrafts, new Comparator<Draft>() {
+            @Override
+            public int compare(Draft x, Draft y) {
+                return ObjectUtils.compare(x.getSchedule().getTriggerDate(), y.getSchedule().getTriggerDate(), true);
+            }
+        });
+
+        Collections.sort(newDrafts, new Comparator<Draft>() {
+            @Override
+            public int compare(Draft x, Draft y) {
+                return ObjectUtils.compare(
+                        x.as(Content.ObjectModification.class).getUpdateDate(),
+                        y.as(Content.ObjectModification.class).getUpdateDate(),
+                        true);
+            }
+        });
+
+        scheduledDrafts = newScheduledDrafts;
+        drafts = newDrafts;
+    }
+
+    /**
+     * Finds the named histories, sorted by their names, within the given
+     * {@code offset} and {@code limit}.
+     *
+     * @return Never {@code null}.
+     */
+    public PaginatedResult<Header> findNamedHistories(long offset, int limit) {
+        return toHeaders(Query.
+                from(History.class).
+                where("name != missing and objectId = ?", objectId).
+                sortAscending("name").
+                select(offset, limit));
+    }
+
+    /**
+     * Finds the unnamed histories, most recent first, within the given
+     * {@code offset} and {@code limit}.
+     *
+     * @return Never {@code null}.
+     */
+    public PaginatedResult<Header> findHistories(long offset, int limit) {
+        return toHeaders(Query.
+                from(History.class).
+                where("name = missing and objectId = ?", objectId).
+                sortDescending("updateDate").
+                select(offset, limit));
+    }
+
+    private PaginatedResult<Header> toHeaders(PaginatedResult<History> result) {
+        List<Header> headers = new ArrayList<Header>();
+
+        for (History history : result.getItems()) {
+            headers.add(new Header(history, findWorkflowStateDisplayName(history.getObjectWorkflowState())));
+        }
+
+        return new PaginatedResult<Header>(result.getOffset(), result.getLimit(), result.getCount(), headers);
+    }
+
+    // Resolves the workflow state name against the workflow of the object
+    // type, which is looked up at most once.
+    private String findWorkflowStateDisplayName(String workflowState) {
+        if (workflowState == null) {
+            return null;
+        }
+
+        if (!workflowResolved) {
+            workflow = objectType != null ?
+                    Query.from(Workflow.class).where("contentTypes = ?", objectType).first() :
+                    null;
+            workflowResolved = true;
+        }
+
+        if (workflow != null) {
+            for (WorkflowState s : workflow.getStates()) {
+                if (workflowState.equals(s.getName())) {
+                    return s.getDisplayName();
+                }
+            }
+        }
+
+        return workflowState;
+    }
+
+    /** Lightweight description of a {@link History}. */
+    public static final class Header {
+
+        private final UUID id;
+        private final UUID objectId;
+        private final String name;
+        private final Date updateDate;
+        private final ToolUser updateUser;
+        private final boolean draft;
+        private final String workflowState;
+        private final boolean lockIgnored;
+
+        private Header(History history, String workflowState) {
+            this.id = history.getId();
+            this.objectId = history.getObjectId();
+            this.name = history.getName();
+            this.updateDate = history.getUpdateDate();
+            this.updateUser = history.getUpdateUser();
+            this.draft = history.isObjectDraft();
+            this.workflowState = workflowState;
+            this.lockIgnored = history.isLockIgnored();
+        }
+
+        /** Returns the history ID. */
+        public UUID getId() {
+            return id;
+        }
+
+        /** Returns the ID of the object that the history is of. */
+        public UUID getObjectId() {
+            return objectId;
+        }
+
+        /** Returns the history name. */
+        public String getName() {
+            return name;
+        }
+
+        /** Returns the date when the object was updated. */
+        public Date getUpdateDate() {
+            return updateDate;
+        }
+
+        /** Returns the user that updated the object. */
+        public ToolUser getUpdateUser() {
+            return updateUser;
+        }
+
+        /** Returns {@code true} if the object was a draft. */
+        public boolean isDraft() {
+            return draft;
+        }
+
+        /** Returns the display name of the object's workflow state. */
+        public String getWorkflowState() {
+            return workflowState;
+        }
+
+        public boolean isLockIgnored() {
+            return lockIgnored;
+        }
+
+        /** Loads the full history. */
+        public History findHistory() {
+            return Query.findById(History.class, id);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+
+            } else if (other instanceof Header) {
+                return id.equals(((Header) other).id);
+
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package com.psddev.cms.db;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,12 +30,15 @@ public class Schedule extends Record {
     @Indexed
     private Date triggerDate;
 
+    @Indexed
     @ToolUi.Hidden
     private Site triggerSite;
 
     @ToolUi.Hidden
     private ToolUser triggerUser;
 
+    private transient Long draftCount;
+
     public String getName() {
         return name;
     }
@@ -161,10 +170,12 @@ public class Schedule extends Record {
             label.append(name);
         }
 
-        long draftCount = Query.
-                from(Draft.class).
-                where("schedule = ?", this).
-                count();
+        long draftCount = this.draftCount != null ?
+                this.draftCount :
+                Query.
+                        from(Draft.class).
+                        where("schedule = ?", this).
+                        count();
 
         if (draftCount > 1) {
             label.append(" (");
@@ -174,4 +185,51 @@ public class Schedule extends Record {
 
         return label.toString();
     }
+
+    /** {@link Schedule} utility methods. */
+    public static final class Static {
+
+        private Static() {
+        }
+
+        /**
+         * Finds all drafts in the given {@code schedules} in a single
+         * query, and remembers the number of drafts in each schedule so
+         * that {@link Schedule#getLabel} doesn't have to count them again.
+         *
+         * @param schedules May be {@code null}.
+         * @return Never {@code null}. Keyed by the schedule IDs, with an
+         * entry for each of the given {@code schedules}.
+         */
+        public static Map<UUID, List<Draft>> findDraftsBySchedule(Collection<Schedule> schedules) {
+            Map<UUID, List<Draft>> draftsBySchedule = new HashMap<UUID, List<Draft>>();
+
+            if (schedules == null || schedules.isEmpty()) {
+                return draftsBySchedule;
+            }
+
+            for (Schedule schedule : schedules) {
+                draftsBySchedule.put(schedule.getId(), new ArrayList<Draft>());
+            }
+
+            for (Draft draft : Query.
+                    from(Draft.class).
+                    where("schedule = ?", schedules).
+                    selectAll()) {
+
+                Schedule schedule = draft.getSchedule();
+                List<Draft> drafts = schedule != null ? draftsBySchedule.get(schedule.getId()) : null;
+
+                if (drafts != null) {
+                    drafts.add(draft);
+                }
+            }
+
+            for (Schedule schedule : schedules) {
+                schedule.draftCount = (long) draftsBySchedule.get(schedule.getId()).size();
+            }
+
+            return draftsBySchedule;
+        }
+    }
 }
@@ -2,6 +2,7 @@ package com.psddev.cms.db;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -9,17 +10,12 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.codec.language.Metaphone;
 
-import com.psddev.dari.db.ComparisonPredicate;
-import com.psddev.dari.db.CompoundPredicate;
 import com.psddev.dari.db.ObjectField;
 import com.psddev.dari.db.ObjectType;
 import com.psddev.dari.db.Predicate;
-import com.psddev.dari.db.PredicateParser;
 import com.psddev.dari.db.Query;
 import com.psddev.dari.db.Record;
 import com.psddev.dari.db.Recordable;
@@ -41,6 +37,8 @@ public class Search extends Record {
     private Set<ObjectType> types;
     private List<Rule> rules = new ArrayList<Rule>(Arrays.asList(new StopWords()));
 
+    private transient volatile DisplayTypes displayTypes;
+
     public String getDisplayName() {
         return displayName;
     }
@@ -271,15 +269,42 @@ public class Search extends Record {
             query.or("_any matchesAll ?", queryTerms);
         }
 
-        Set<ObjectType> allTypes = new HashSet<ObjectType>();
-        for (ObjectType type : getTypes()) {
-            allTypes.addAll(type.as(ToolUi.class).findDisplayTypes());
-        }
+        DisplayTypes allTypes = DisplayTypes.of(displayTypes, getTypes());
+
+        displayTypes = allTypes;
 
-        query.and("_type = ?", allTypes);
+        query.and("_type = ?", allTypes.displayTypes);
         return query;
     }
 
+    // Display types of a set of types, resolved once and reused until the
+    // set changes.
+    private static final class DisplayTypes {
+
+        public final Set<ObjectType> types;
+        public final List<ObjectType> displayTypes;
+
+        public static DisplayTypes of(DisplayTypes previous, Collection<ObjectType> types) {
+            if (previous != null && previous.types.equals(new HashSet<ObjectType>(types))) {
+                return previous;
+
+            } else {
+                return new DisplayTypes(types);
+            }
+        }
+
+        private DisplayTypes(Collection<ObjectType> types) {
+            Set<ObjectType> displayTypes = new LinkedHashSet<ObjectType>();
+
+            for (ObjectType type : types) {
+                displayTypes.addAll(type.as(ToolUi.class).findDisplayTypes());
+            }
+
+            this.types = new HashSet<ObjectType>(types);
+            this.displayTypes = Collections.unmodifiableList(new ArrayList<ObjectType>(displayTypes));
+        }
+    }
+
     @Deprecated
     @Embedded
     public abstract static class Rule extends Record {
@@ -354,6 +379,8 @@ public class Search extends Record {
 
         private ObjectType type;
 
+        private transient volatile DisplayTypes displayTypes;
+
         public ObjectType getType() {
             return type;
         }
@@ -365,7 +392,10 @@ public class Search extends Record {
         @Deprecated
         @Override
         public void apply(Search search, SearchQuery query, List<String> queryTerms) {
-            query.sortRelevant(getBoost(), "_type = ?", type.as(ToolUi.class).findDisplayTypes());
+            DisplayTypes types = DisplayTypes.of(displayTypes, Collections.singleton(type));
+
+            displayTypes = types;
+            query.sortRelevant(getBoost(), "_type = ?", types.displayTypes);
         }
     }
 
@@ -449,6 +479,8 @@ public class Search extends Record {
         public ObjectType type;
         public String predicate;
 
+        private transient volatile CompiledPhrase compiled;
+
         public String getPattern() {
             return pattern;
         }
@@ -476,51 +508,14 @@ public class Search extends Record {
         @Deprecated
         @Override
         public void apply(Search search, SearchQuery query, List<String> queryTerms) {
-            StringBuilder queryTermsString = new StringBuilder();
-
-            for (String term : queryTerms) {
-                queryTermsString.append(term);
-                queryTermsString.append(' ');
-            }
-
-            Pattern pattern = Pattern.compile(getPattern(), Pattern.CANON_EQ | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
-            Matcher matcher = pattern.matcher(queryTermsString.toString());
+            CompiledPhrase phrase = CompiledPhrase.compile(compiled, getPattern(), getPredicate(), getType());
 
-            while (matcher.find()) {
-                int groupCount = matcher.groupCount();
-                Object[] parameters = new Object[groupCount];
+            compiled = phrase;
 
-                for (int i = 0; i < groupCount; ++ i) {
-                    parameters[i] = matcher.group(i + 1);
-                }
-
-                Predicate predicate = PredicateParser.Static.parse(getPredicate(), parameters);
-                predicate = addPrefix(getType().getInternalName() + "/", predicate);
+            for (Predicate predicate : phrase.findPredicates(queryTerms)) {
                 query.sortRelevant(getBoost(), predicate);
             }
         }
-
-        private Predicate addPrefix(String prefix, Predicate predicate) {
-            if (predicate instanceof CompoundPredicate) {
-                CompoundPredicate compound = (CompoundPredicate) predicate;
-                List<Predicate> children = new ArrayList<Predicate>();
-                for (Predicate child : compound.getChildren()) {
-                    children.add(addPrefix(prefix, child));
-                }
-                return new CompoundPredicate(compound.getOperator(), children);
-
-            } else if (predicate instanceof ComparisonPredicate) {
-                ComparisonPredicate comparison = (ComparisonPredicate) predicate;
-                return new ComparisonPredicate(
-                        comparison.getOperator(),
-                        comparison.isIgnoreCase(),
-                        prefix + comparison.getKey(),
-                        comparison.getValues());
-
-            } else {
-                return predicate;
-            }
-        }
     }
 
     public static class TypeKeywords extends BoostRule {
@@ -528,6 +523,8 @@ public class Search extends Record {
         private ObjectType type;
         private Set<String> keywords;
 
+        private transient volatile DisplayTypes displayTypes;
+
         public ObjectType getType() {
             return type;
         }
@@ -550,7 +547,11 @@ public class Search extends Record {
         @Deprecated
         @Override
         public void apply(Search search, SearchQuery query, List<String> queryTerms) {
-            List<ObjectType> types = getType().as(ToolUi.class).findDisplayTypes();
+            DisplayTypes typeDisplayTypes = DisplayTypes.of(displayTypes, Collections.singleton(getType()));
+
+            displayTypes = typeDisplayTypes;
+
+            List<ObjectType> types = typeDisplayTypes.displayTypes;
 
             for (Iterator<String> i = queryTerms.iterator(); i.hasNext();) {
                 String word = i.next();
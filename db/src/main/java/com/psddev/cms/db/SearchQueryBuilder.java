@@ -1,35 +1,57 @@
 package com.psddev.cms.db;
 
-import com.psddev.dari.db.ComparisonPredicate;
-import com.psddev.dari.db.CompoundPredicate;
+import com.google.common.base.Supplier;
 import com.psddev.dari.db.ObjectField;
 import com.psddev.dari.db.ObjectType;
 import com.psddev.dari.db.Predicate;
-import com.psddev.dari.db.PredicateParser;
 import com.psddev.dari.db.Query;
 import com.psddev.dari.db.Record;
 import com.psddev.dari.db.Recordable;
 import com.psddev.dari.util.CollectionUtils;
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.PaginatedResult;
 import com.psddev.dari.util.StringUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Builds search queries from a set of types and a list of {@link Rule}s.
+ *
+ * <p>The types and the rules are compiled into a search plan on first
+ * use, so that each search only has to normalize its terms and assemble
+ * the query. The plan is rebuilt when the types or the rules are changed
+ * through this builder, and when this builder or any rule is saved on
+ * any node according to the {@link ConfigurationFeed}. A rule that's
+ * changed in place without being saved requires a call to
+ * {@link #invalidatePlan}.</p>
+ */
 public class SearchQueryBuilder extends Record {
 
+    // Replaced whenever any builder or rule is saved, so that the plans
+    // compiled before can be told apart without rehashing the rules.
+    private static final ConfigurationFeed.CachedValue<Object> SAVE_STAMP = new ConfigurationFeed.CachedValue<Object>(SearchQueryBuilder.class, Rule.class) {
+
+        @Override
+        protected Object produce() {
+            return new Object();
+        }
+    };
+
     private Set<ObjectType> types;
     private List<Rule> rules = new ArrayList<Rule>();
 
+    private transient volatile Plan plan;
+
     public Set<ObjectType> getTypes() {
         if (types == null) {
             setTypes(new HashSet<ObjectType>());
@@ -39,6 +61,7 @@ public class SearchQueryBuilder extends Record {
 
     public void setTypes(Set<ObjectType> types) {
         this.types = types;
+        invalidatePlan();
     }
 
     public List<Rule> getRules() {
@@ -50,11 +73,13 @@ public class SearchQueryBuilder extends Record {
 
     public void setRules(List<Rule> rules) {
         this.rules = rules;
+        invalidatePlan();
     }
 
     public SearchQueryBuilder addRule(Rule rule) {
         if (rule != null) {
             getRules().add(rule);
+            invalidatePlan();
         }
         return this;
     }
@@ -62,6 +87,7 @@ public class SearchQueryBuilder extends Record {
     public SearchQueryBuilder addRules(List<Rule> rules) {
         if (!ObjectUtils.isBlank(rules)) {
             getRules().addAll(rules);
+            invalidatePlan();
         }
         return this;
     }
@@ -69,6 +95,7 @@ public class SearchQueryBuilder extends Record {
     public SearchQueryBuilder removeRule(Rule rule) {
         if (!ObjectUtils.isBlank(rules)) {
             rules.remove(rule);
+            invalidatePlan();
         }
         return this;
     }
@@ -78,6 +105,7 @@ public class SearchQueryBuilder extends Record {
             for (ObjectType type : types) {
                 getTypes().add(type);
             }
+            invalidatePlan();
         }
         return this;
     }
@@ -87,6 +115,7 @@ public class SearchQueryBuilder extends Record {
             for (Class<?> c : classes) {
                 getTypes().add(ObjectType.getInstance(c));
             }
+            invalidatePlan();
         }
         return this;
     }
@@ -143,6 +172,7 @@ public class SearchQueryBuilder extends Record {
                 addRule(rule);
             }
             Collections.addAll(rule.getStopWords(), stopWords);
+            invalidatePlan();
         }
 
         return this;
@@ -164,6 +194,7 @@ public class SearchQueryBuilder extends Record {
                 addRule(rule);
             }
             rule.addSynonymGroup(synonymGroup);
+            invalidatePlan();
         }
         return this;
     }
@@ -217,7 +248,30 @@ public class SearchQueryBuilder extends Record {
         return normalized;
     }
 
+    /**
+     * Discards the compiled search plan so that it's rebuilt from the
+     * current types and rules on next use.
+     */
+    public void invalidatePlan() {
+        plan = null;
+    }
+
+    // Returns the current search plan, compiling it if it was invalidated
+    // or any builder or rule was saved since it was last compiled.
+    private Plan getPlan() {
+        Plan p = plan;
+        Object stamp = SAVE_STAMP.get();
+
+        if (p == null || p.stamp != stamp) {
+            p = new Plan(getTypes(), getRules(), stamp);
+            plan = p;
+        }
+
+        return p;
+    }
+
     public Query toQuery(Site site, Object... terms) {
+        Plan plan = getPlan();
         List<String> queryTerms = normalizeTerms(terms);
         Query query = Query.from(Object.class);
 
@@ -225,7 +279,7 @@ public class SearchQueryBuilder extends Record {
             query.and(site.itemsPredicate());
         }
 
-        for (Rule rule : getRules()) {
+        for (Rule rule : plan.rules) {
             rule.apply(this, query, queryTerms);
         }
 
@@ -233,22 +287,134 @@ public class SearchQueryBuilder extends Record {
             query.and("_any matchesAny ?", queryTerms);
         }
 
-        Set<ObjectType> allTypes = new HashSet<ObjectType>();
-        for (ObjectType type : getTypes()) {
-            allTypes.addAll(type.as(ToolUi.class).findDisplayTypes());
-        }
-        query.and("_type = ?", allTypes);
+        query.and("_type = ?", plan.displayTypes);
 
         return query;
     }
 
+    /**
+     * Returns a page of the results for the given {@code terms}, served
+     * from the {@link SearchResultCache} if it's enabled and the same page
+     * was requested recently with the same types and rules.
+     *
+     * @param site May be {@code null}.
+     * @return Never {@code null}.
+     */
+    public PaginatedResult<Object> select(final Site site, long offset, int limit, final Object... terms) {
+        Plan plan = getPlan();
+        StringBuilder key = new StringBuilder();
+
+        key.append(plan.version);
+        key.append('/');
+        key.append(site != null ? site.getId() : "");
+        key.append('/');
+        key.append(offset);
+        key.append('/');
+        key.append(limit);
+
+        for (String term : normalizeTerms(terms)) {
+            key.append('/');
+            key.append(term.toLowerCase());
+        }
+
+        return SearchResultCache.select(key.toString(), plan.displayTypes, new Supplier<Query<?>>() {
+
+            @Override
+            public Query<?> get() {
+                return toQuery(site, terms);
+            }
+        }, offset, limit);
+    }
+
     @Deprecated
     public Query toQuery(Object... terms) {
         return toQuery(null, terms);
     }
 
+    @Override
+    protected void afterSave() {
+        invalidatePlan();
+        ConfigurationFeed.notifyChanged(SearchQueryBuilder.class);
+    }
+
+    @Override
+    protected void afterDelete() {
+        ConfigurationFeed.notifyChanged(SearchQueryBuilder.class);
+    }
+
+    // Derives the plan version from the contents of the given types and
+    // rules, so that builders with the same types and rules share the
+    // cached results.
+    private static String createVersion(Set<ObjectType> types, List<Rule> rules) {
+        List<String> typeIds = new ArrayList<String>();
+        StringBuilder version = new StringBuilder();
+
+        for (ObjectType type : types) {
+            typeIds.add(type.getId().toString());
+        }
+
+        Collections.sort(typeIds);
+        version.append(typeIds);
+
+        for (Rule rule : rules) {
+            version.append(rule.getClass().getName());
+            version.append(ObjectUtils.toJson(rule.getState().getSimpleValues()));
+        }
+
+        return StringUtils.hex(StringUtils.md5(version.toString()));
+    }
+
+    // Immutable snapshot of the types and the rules, with the display
+    // types resolved and each rule compiled.
+    private static final class Plan {
+
+        public final Set<ObjectType> types;
+        public final List<Rule> rules;
+        public final Set<ObjectType> displayTypes;
+        public final String version;
+        public final Object stamp;
+
+        public Plan(Set<ObjectType> types, List<Rule> rules, Object stamp) {
+            this.stamp = stamp;
+            this.types = Collections.unmodifiableSet(new HashSet<ObjectType>(types));
+            this.rules = Collections.unmodifiableList(new ArrayList<Rule>(rules));
+            this.version = createVersion(this.types, this.rules);
+
+            Set<ObjectType> displayTypes = new HashSet<ObjectType>();
+
+            for (ObjectType type : this.types) {
+                displayTypes.addAll(type.as(ToolUi.class).findDisplayTypes());
+            }
+
+            this.displayTypes = Collections.unmodifiableSet(displayTypes);
+
+            for (Rule rule : this.rules) {
+                rule.compile();
+            }
+        }
+    }
+
     public abstract static class Rule extends Record {
 
+        /**
+         * Precomputes anything that {@link #apply} needs from the fields
+         * of this rule. Called when a search plan is compiled and after
+         * this rule is saved.
+         */
+        protected void compile() {
+        }
+
+        @Override
+        protected void afterSave() {
+            compile();
+            ConfigurationFeed.notifyChanged(Rule.class);
+        }
+
+        @Override
+        protected void afterDelete() {
+            ConfigurationFeed.notifyChanged(Rule.class);
+        }
+
         public abstract void apply(SearchQueryBuilder queryBuilder, Query query, List<String> queryTerms);
     }
 
@@ -340,6 +506,8 @@ public class SearchQueryBuilder extends Record {
         @ToolUi.Note("Similar words that should be used in the search query to enrich the experience")
         private Set<Synonym> synonyms = new HashSet<Synonym>();
 
+        private transient volatile Map<String, Set<String>> synonymsByWord;
+
         public Synonyms() {
         }
 
@@ -360,6 +528,7 @@ public class SearchQueryBuilder extends Record {
 
         public void setSynonyms(Set<Synonym> synonyms) {
             this.synonyms = synonyms;
+            this.synonymsByWord = null;
         }
 
         public void addSynonymGroup(Set<String> synonymGroup) {
@@ -371,25 +540,61 @@ public class SearchQueryBuilder extends Record {
                     this.synonyms = new HashSet<Synonym>();
                 }
                 this.synonyms.add(synonym);
+                this.synonymsByWord = null;
             }
         }
 
+        // Indexes all words in each synonym group by their lower-cased
+        // forms.
+        @Override
+        protected void compile() {
+            Map<String, Set<String>> index = new HashMap<String, Set<String>>();
+
+            for (Synonym s : getSynonyms()) {
+                Set<String> words = s.getWords();
+
+                if (words == null) {
+                    continue;
+                }
+
+                for (String word : words) {
+                    String key = word.toLowerCase();
+                    Set<String> synonymWords = index.get(key);
+
+                    if (synonymWords == null) {
+                        synonymWords = new LinkedHashSet<String>();
+                        index.put(key, synonymWords);
+                    }
+
+                    synonymWords.addAll(words);
+                }
+            }
+
+            synonymsByWord = index;
+        }
+
         public void apply(SearchQueryBuilder queryBuilder, Query query, List<String> queryTerms) {
             if (ObjectUtils.isBlank(queryTerms)) {
                 return;
             }
 
+            Map<String, Set<String>> index = synonymsByWord;
+
+            if (index == null) {
+                compile();
+                index = synonymsByWord;
+            }
+
             Set<String> newTerms = new HashSet<String>();
             for (String qt : queryTerms) {
                 newTerms.add(qt.toLowerCase());
             }
 
-            for (Synonym s : getSynonyms()) {
-                for (String term : s.getWords()) {
-                    if (newTerms.contains(term.toLowerCase())) {
-                        newTerms.addAll(s.getWords());
-                        break;
-                    }
+            for (String term : new ArrayList<String>(newTerms)) {
+                Set<String> synonymWords = index.get(term);
+
+                if (synonymWords != null) {
+                    newTerms.addAll(synonymWords);
                 }
             }
             queryTerms.clear();
@@ -419,10 +624,35 @@ public class SearchQueryBuilder extends Record {
 
     public abstract static class Spotlight<T extends Recordable> extends Rule {
 
+        private static final ConfigurationFeed.CachedValue<Map<String, List<Spotlight>>> SPOTLIGHTS_BY_TERM = new ConfigurationFeed.CachedValue<Map<String, List<Spotlight>>>(Spotlight.class) {
+
+            @Override
+            protected Map<String, List<Spotlight>> produce() {
+                Map<String, List<Spotlight>> index = new HashMap<String, List<Spotlight>>();
+
+                for (Spotlight spotlight : Query.from(Spotlight.class).selectAll()) {
+                    for (String term : toLowerCase(spotlight.getSpotLightTerms())) {
+                        List<Spotlight> spotlights = index.get(term);
+
+                        if (spotlights == null) {
+                            spotlights = new ArrayList<Spotlight>();
+                            index.put(term, spotlights);
+                        }
+
+                        spotlights.add(spotlight);
+                    }
+                }
+
+                return index;
+            }
+        };
+
         @Indexed
         @CollectionMinimum(1)
         private Set<String> spotLightTerms;
 
+        private transient volatile Set<String> compiledTerms;
+
         public abstract T getSpotlightContent();
 
         public String getLabel() {
@@ -435,23 +665,79 @@ public class SearchQueryBuilder extends Record {
 
         public void setSpotLightTerms(Set<String> spotLightTerms) {
             this.spotLightTerms = spotLightTerms;
+            this.compiledTerms = null;
+        }
+
+        @Override
+        protected void compile() {
+            compiledTerms = toLowerCase(spotLightTerms);
+        }
+
+        @Override
+        protected void afterSave() {
+            super.afterSave();
+            ConfigurationFeed.notifyChanged(Spotlight.class);
+        }
+
+        @Override
+        protected void afterDelete() {
+            super.afterDelete();
+            ConfigurationFeed.notifyChanged(Spotlight.class);
         }
 
         public void apply(SearchQueryBuilder queryBuilder, Query query, List<String> queryTerms) {
             if (!ObjectUtils.isBlank(queryTerms)) {
+                Set<String> terms = compiledTerms;
+
+                if (terms == null) {
+                    compile();
+                    terms = compiledTerms;
+                }
+
                 for (String queryTerm : queryTerms) {
-                    for (String spotLightTerm : spotLightTerms) {
-                        if (spotLightTerm.equalsIgnoreCase(queryTerm)) {
-                            query.and("id != ?", getSpotlightContent());
-                            break;
-                        }
+                    if (queryTerm != null && terms.contains(queryTerm.toLowerCase())) {
+                        query.and("id != ?", getSpotlightContent());
+                    }
+                }
+            }
+        }
+
+        private static Set<String> toLowerCase(Set<String> terms) {
+            Set<String> lowerCased = new HashSet<String>();
+
+            if (terms != null) {
+                for (String term : terms) {
+                    if (term != null) {
+                        lowerCased.add(term.toLowerCase());
                     }
                 }
             }
+
+            return lowerCased;
         }
 
+        /**
+         * Returns the spotlights with any of the given {@code queryTerms}.
+         *
+         * <p>All spotlights are indexed by their lower-cased terms on
+         * first use, and the index is discarded when any of them change
+         * according to the {@link ConfigurationFeed}.</p>
+         */
         public static List<Spotlight> getMatchingSpotlights(String... queryTerms) {
-            return Query.from(Spotlight.class).where("spotLightTerms = ?", queryTerms).selectAll();
+            Map<String, List<Spotlight>> index = SPOTLIGHTS_BY_TERM.get();
+            Set<Spotlight> matching = new LinkedHashSet<Spotlight>();
+
+            if (queryTerms != null) {
+                for (String queryTerm : queryTerms) {
+                    List<Spotlight> spotlights = queryTerm != null ? index.get(queryTerm.toLowerCase()) : null;
+
+                    if (spotlights != null) {
+                        matching.addAll(spotlights);
+                    }
+                }
+            }
+
+            return new ArrayList<Spotlight>(matching);
         }
 
     }
@@ -580,6 +866,8 @@ public class SearchQueryBuilder extends Record {
         public ObjectType type;
         public String predicate;
 
+        private transient volatile CompiledPhrase compiled;
+
         public BoostPhrase() {
         }
 
@@ -619,49 +907,18 @@ public class SearchQueryBuilder extends Record {
         }
 
         @Override
-        public void apply(SearchQueryBuilder queryBuilder, Query query, List<String> queryTerms) {
-            StringBuilder queryTermsString = new StringBuilder();
-
-            for (String term : queryTerms) {
-                queryTermsString.append(term);
-                queryTermsString.append(' ');
-            }
-
-            Pattern pattern = Pattern.compile(getPattern(), Pattern.CANON_EQ | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
-            Matcher matcher = pattern.matcher(queryTermsString.toString());
-
-            while (matcher.find()) {
-                int groupCount = matcher.groupCount();
-                Object[] parameters = new Object[groupCount];
-
-                for (int i = 0; i < groupCount; ++i) {
-                    parameters[i] = matcher.group(i + 1);
-                }
-
-                Predicate predicate = PredicateParser.Static.parse(getPredicate(), parameters);
-                predicate = addPrefix(getType().getInternalName() + "/", predicate);
-                query.sortRelevant(getBoost(), predicate);
-            }
+        protected void compile() {
+            compiled = CompiledPhrase.compile(compiled, getPattern(), getPredicate(), getType());
         }
 
-        private Predicate addPrefix(String prefix, Predicate predicate) {
-            if (predicate instanceof CompoundPredicate) {
-                CompoundPredicate compound = (CompoundPredicate) predicate;
-                List<Predicate> children = new ArrayList<Predicate>();
-                for (Predicate child : compound.getChildren()) {
-                    children.add(addPrefix(prefix, child));
-                }
-                return new CompoundPredicate(compound.getOperator(), children);
+        @Override
+        public void apply(SearchQueryBuilder queryBuilder, Query query, List<String> queryTerms) {
+            CompiledPhrase phrase = CompiledPhrase.compile(compiled, getPattern(), getPredicate(), getType());
 
-            } else if (predicate instanceof ComparisonPredicate) {
-                ComparisonPredicate comparison = (ComparisonPredicate) predicate;
-                return new ComparisonPredicate(comparison.getOperator(),
-                                              comparison.isIgnoreCase(),
-                                              prefix + comparison.getKey(),
-                                              comparison.getValues());
+            compiled = phrase;
 
-            } else {
-                return predicate;
+            for (Predicate predicate : phrase.findPredicates(queryTerms)) {
+                query.sortRelevant(getBoost(), predicate);
             }
         }
     }
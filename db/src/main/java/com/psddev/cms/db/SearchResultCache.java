@@ -0,0 +1,368 @@
+package com.psddev.cms.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Supplier;
+import com.psddev.dari.db.Modification;
+import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.db.State;
+import com.psddev.dari.util.PaginatedResult;
+import com.psddev.dari.util.Settings;
+
+/**
+ * Cache of search result pages produced by
+ * {@link SearchQueryBuilder#select}. It's off unless the
+ * {@code cms/db/searchCacheEnabled} setting is {@code true}, and the
+ * queries returned from {@link SearchQueryBuilder#toQuery(Site, Object...)}
+ * are never cached.
+ *
+ * <p>Only the IDs and the total count of each page are cached, and the
+ * objects are loaded by their IDs on every hit. The recent request counts
+ * of all keys are kept in a small frequency sketch that's halved
+ * periodically so that old popularity fades. Once the cache holds
+ * {@code cms/db/searchCacheMaximumSize} pages, a new page is only admitted
+ * if its key was requested more often recently than the least recently
+ * used page that it would replace, so one-off searches don't push out the
+ * popular ones.</p>
+ *
+ * <p>All pages are evicted whenever an object of any of the searched
+ * types is saved or deleted on this node, and each page expires after
+ * {@code cms/db/searchCacheDuration} milliseconds (60000 by default) to
+ * bound the staleness from changes on other nodes.</p>
+ */
+public final class SearchResultCache {
+
+    private static final long MAXIMUM_SIZE = Settings.getOrDefault(long.class, "cms/db/searchCacheMaximumSize", 1000L);
+    private static final long DURATION = Settings.getOrDefault(long.class, "cms/db/searchCacheDuration", 60000L);
+
+    // In access order, so that the eldest entry is the least recently
+    // used. Guarded by itself.
+    private static final Map<String, Page> PAGES = new LinkedHashMap<String, Page>(16, 0.75f, true);
+
+    private static final FrequencySketch FREQUENCIES = new FrequencySketch(MAXIMUM_SIZE);
+    private static final Set<UUID> SEARCHED_TYPE_IDS = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+    private static final Metrics METRICS = new Metrics();
+
+    private SearchResultCache() {
+    }
+
+    /** Returns {@code true} if the search result cache is enabled. */
+    public static boolean isEnabled() {
+        return Settings.get(boolean.class, "cms/db/searchCacheEnabled");
+    }
+
+    /**
+     * Returns the page of results identified by the given {@code key},
+     * running the query from the given {@code query} supplier if it's not
+     * cached.
+     *
+     * @param key Can't be {@code null}.
+     * @param types Types that the query searches. Can't be {@code null}.
+     * @param query Only called if the page isn't cached. Can't be
+     * {@code null}.
+     * @return Never {@code null}.
+     */
+    public static PaginatedResult<Object> select(
+            String key,
+            Collection<ObjectType> types,
+            Supplier<? extends Query<?>> query,
+            long offset,
+            int limit) {
+
+        if (!isEnabled()) {
+            return selectFromBackend(query.get(), offset, limit);
+        }
+
+        int frequency = FREQUENCIES.increment(key);
+        Page page = getPage(key);
+
+        if (page != null) {
+            METRICS.hits.incrementAndGet();
+            return page.resolve(offset, limit);
+        }
+
+        METRICS.misses.incrementAndGet();
+
+        PaginatedResult<Object> result = selectFromBackend(query.get(), offset, limit);
+
+        for (ObjectType type : types) {
+            SEARCHED_TYPE_IDS.add(type.getId());
+        }
+
+        putPage(key, new Page(result), frequency);
+
+        return result;
+    }
+
+    private static Page getPage(String key) {
+        synchronized (PAGES) {
+            Page page = PAGES.get(key);
+
+            if (page != null && page.isExpired()) {
+                PAGES.remove(key);
+                return null;
+            }
+
+            return page;
+        }
+    }
+
+    // Admits the given page while there's room, and afterwards only if
+    // its key is more popular than the least recently used page, which
+    // is then evicted.
+    private static void putPage(String key, Page page, int frequency) {
+        synchronized (PAGES) {
+            if (PAGES.size() >= MAXIMUM_SIZE && !PAGES.containsKey(key)) {
+                Iterator<Map.Entry<String, Page>> i = PAGES.entrySet().iterator();
+
+                if (i.hasNext()) {
+                    Map.Entry<String, Page> victim = i.next();
+
+                    if (!victim.getValue().isExpired() &&
+                            FREQUENCIES.estimate(victim.getKey()) >= frequency) {
+                        return;
+                    }
+
+                    i.remove();
+                }
+            }
+
+            PAGES.put(key, page);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PaginatedResult<Object> selectFromBackend(Query<?> query, long offset, int limit) {
+        long start = System.nanoTime();
+
+        try {
+            return (PaginatedResult<Object>) query.select(offset, limit);
+
+        } finally {
+            METRICS.backendQueries.incrementAndGet();
+            METRICS.backendNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /** Evicts all cached pages. */
+    public static void evictAll() {
+        synchronized (PAGES) {
+            PAGES.clear();
+        }
+    }
+
+    /**
+     * Returns the metrics for this cache.
+     *
+     * @return Never {@code null}.
+     */
+    public static Metrics getMetrics() {
+        return METRICS;
+    }
+
+    /** Hit rate and backend latency of the search result cache. */
+    public static final class Metrics {
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong backendQueries = new AtomicLong();
+        private final AtomicLong backendNanos = new AtomicLong();
+
+        /** Returns the number of searches served from the cache. */
+        public long getHits() {
+            return hits.get();
+        }
+
+        /** Returns the number of searches that went to the backend. */
+        public long getMisses() {
+            return misses.get();
+        }
+
+        /** Returns the ratio of the hits to all searches. */
+        public double getHitRatio() {
+            long h = getHits();
+            long total = h + getMisses();
+
+            return total > 0 ? (double) h / total : 0.0;
+        }
+
+        /** Returns the average backend latency, in milliseconds. */
+        public double getAverageBackendTime() {
+            long q = backendQueries.get();
+
+            return q > 0 ? backendNanos.get() / 1e6 / q : 0.0;
+        }
+
+        /**
+         * Returns the estimated backend time saved by the hits, in
+         * milliseconds.
+         */
+        public double getBackendTimeSaved() {
+            return getHits() * getAverageBackendTime();
+        }
+    }
+
+    // IDs and the total count of a page of results.
+    private static final class Page {
+
+        private final long count;
+        private final List<UUID> ids;
+        private final long expiration;
+
+        public Page(PaginatedResult<Object> result) {
+            List<UUID> ids = new ArrayList<UUID>();
+
+            for (Object item : result.getItems()) {
+                if (item != null) {
+                    ids.add(State.getInstance(item).getId());
+                }
+            }
+
+            this.count = result.getCount();
+            this.ids = ids;
+            this.expiration = System.currentTimeMillis() + DURATION;
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() > expiration;
+        }
+
+        public PaginatedResult<Object> resolve(long offset, int limit) {
+            List<Object> items = new ArrayList<Object>();
+
+            if (!ids.isEmpty()) {
+                Map<UUID, Object> itemsById = new HashMap<UUID, Object>();
+
+                for (Object item : Query.fromAll().where("_id = ?", ids).selectAll()) {
+                    itemsById.put(State.getInstance(item).getId(), item);
+                }
+
+                for (UUID id : ids) {
+                    Object item = itemsById.get(id);
+
+                    if (item != null) {
+                        items.add(item);
+                    }
+                }
+            }
+
+            return new PaginatedResult<Object>(offset, limit, count, items);
+        }
+    }
+
+    // Count-min sketch of the recent request counts of the keys, with all
+    // counts halved after a number of requests proportional to the cache
+    // size.
+    private static final class FrequencySketch {
+
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = { 0x97cb3127, 0xc3a5c85c, 0x85ebca6b, 0x27d4eb2f };
+
+        private final int[][] counts;
+        private final int mask;
+        private final long resetSize;
+        private long size;
+
+        public FrequencySketch(long maximumSize) {
+            int width = Integer.highestOneBit((int) Math.max(16L, Math.min(maximumSize * 4L, 1L << 24)) - 1) << 1;
+
+            this.counts = new int[DEPTH][width];
+            this.mask = width - 1;
+            this.resetSize = Math.max(maximumSize * 10L, 100L);
+        }
+
+        // Increments the count of the given key and returns its estimated
+        // count.
+        public synchronized int increment(String key) {
+            int hash = key.hashCode();
+            int minimum = Integer.MAX_VALUE;
+
+            for (int i = 0; i < DEPTH; ++ i) {
+                int index = index(hash, i);
+                int count = counts[i][index];
+
+                if (count < Integer.MAX_VALUE) {
+                    ++ count;
+                    counts[i][index] = count;
+                }
+
+                if (count < minimum) {
+                    minimum = count;
+                }
+            }
+
+            ++ size;
+
+            if (size >= resetSize) {
+                for (int[] row : counts) {
+                    for (int j = 0, length = row.length; j < length; ++ j) {
+                        row[j] >>>= 1;
+                    }
+                }
+
+                size = 0;
+            }
+
+            return minimum;
+        }
+
+        // Returns the estimated count of the given key.
+        public synchronized int estimate(String key) {
+            int hash = key.hashCode();
+            int minimum = Integer.MAX_VALUE;
+
+            for (int i = 0; i < DEPTH; ++ i) {
+                int count = counts[i][index(hash, i)];
+
+                if (count < minimum) {
+                    minimum = count;
+                }
+            }
+
+            return minimum;
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+
+    /**
+     * Evicts all cached pages when an object of any of the searched types
+     * is saved or deleted.
+     */
+    public static class SearchedTypeModification extends Modification<Object> {
+
+        @Override
+        protected void afterSave() {
+            evictIfSearched();
+        }
+
+        @Override
+        protected void afterDelete() {
+            evictIfSearched();
+        }
+
+        private void evictIfSearched() {
+            if (!SEARCHED_TYPE_IDS.isEmpty() &&
+                    !Content.Static.isMetadataOnlySave(getState()) &&
+                    SEARCHED_TYPE_IDS.contains(getState().getTypeId())) {
+                evictAll();
+            }
+        }
+    }
+}
@@ -24,6 +24,9 @@ public abstract class Section extends Content {
 
     private long cacheDuration;
 
+    @ToolUi.Note("Load the referenced content concurrently with the other sections in the same container if parallel sections are enabled.")
+    private boolean independent;
+
     /** Returns the display name. */
     public String getDisplayName() {
         return displayName;
@@ -65,6 +68,20 @@ public abstract class Section extends Content {
         this.cacheDuration = cacheDuration;
     }
 
+    /**
+     * Returns {@code true} if this section doesn't depend on the output
+     * of the other sections in the same container, so that the content it
+     * references can be loaded concurrently with them.
+     */
+    public boolean isIndependent() {
+        return independent;
+    }
+
+    /** Sets whether this section's content can be loaded concurrently. */
+    public void setIndependent(boolean independent) {
+        this.independent = independent;
+    }
+
     public Map<String, Object> toDefinition() {
         Map<String, Object> definition = getState().getSimpleValues();
         definition.put("_type", getClass().getName());
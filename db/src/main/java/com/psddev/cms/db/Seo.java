@@ -14,13 +14,21 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeFieldType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.google.common.base.Joiner;
 import com.psddev.dari.db.Modification;
 import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.db.Query;
 import com.psddev.dari.db.Recordable;
 import com.psddev.dari.db.ReferentialText;
 import com.psddev.dari.db.State;
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.RepeatingTask;
+import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.StringUtils;
 
 /**
@@ -28,6 +36,8 @@ import com.psddev.dari.util.StringUtils;
  */
 public final class Seo {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(Seo.class);
+
     /**
      * Finds the most appropriate page title for the given {@code object}.
      *
@@ -153,6 +163,22 @@ public final class Seo {
         @ToolUi.Tab("SEO")
         private Set<RobotsValue> robots;
 
+        @Indexed
+        @ToolUi.Hidden
+        private Boolean precomputed;
+
+        @ToolUi.Hidden
+        private String precomputedTitle;
+
+        @ToolUi.Hidden
+        private String precomputedDescription;
+
+        @ToolUi.Hidden
+        private String precomputedRobots;
+
+        @ToolUi.Hidden
+        private List<String> precomputedKeywords;
+
         public String getTitle() {
             return title;
         }
@@ -281,13 +307,9 @@ public final class Seo {
             return null;
         }
 
-        /**
-         * Finds the most appropriate page keywords.
-         *
-         * @return May be {@code null}. The set is ordered, and its
-         * {@link #toString} will return a comma-delimited string.
-         */
-        public Set<String> findKeywords() {
+        // Creates an ordered set whose toString returns a comma-delimited
+        // string.
+        private static Set<String> createKeywordsSet() {
             @SuppressWarnings("serial")
             Set<String> keywords = new LinkedHashSet<String>() {
                 @Override
@@ -296,6 +318,18 @@ public final class Seo {
                 }
             };
 
+            return keywords;
+        }
+
+        /**
+         * Finds the most appropriate page keywords.
+         *
+         * @return May be {@code null}. The set is ordered, and its
+         * {@link #toString} will return a comma-delimited string.
+         */
+        public Set<String> findKeywords() {
+            Set<String> keywords = createKeywordsSet();
+
             keywords.addAll(getKeywords());
 
             State state = getState();
@@ -349,6 +383,166 @@ public final class Seo {
 
             return string.toString();
         }
+
+        /**
+         * Returns {@code true} if the SEO values were computed when this
+         * object was last saved.
+         */
+        public boolean isPrecomputed() {
+            return Boolean.TRUE.equals(precomputed);
+        }
+
+        /**
+         * Computes all the SEO values and stores them so that they can be
+         * read without walking the description and keywords fields again.
+         */
+        public void precompute() {
+            Set<String> keywords = findKeywords();
+
+            precomputed = Boolean.TRUE;
+            precomputedTitle = findTitle();
+            precomputedDescription = findDescription();
+            precomputedRobots = findRobotsString();
+            precomputedKeywords = keywords != null ? new ArrayList<String>(keywords) : null;
+        }
+
+        /**
+         * Returns the title stored by {@link #precompute}, or finds it if
+         * it wasn't.
+         */
+        public String getPrecomputedTitle() {
+            return isPrecomputed() ? precomputedTitle : findTitle();
+        }
+
+        /**
+         * Returns the description stored by {@link #precompute}, or finds
+         * it if it wasn't.
+         *
+         * @return May be {@code null}.
+         */
+        public String getPrecomputedDescription() {
+            return isPrecomputed() ? precomputedDescription : findDescription();
+        }
+
+        /**
+         * Returns the robots string stored by {@link #precompute}, or
+         * finds it if it wasn't.
+         *
+         * @return May be {@code null}.
+         */
+        public String getPrecomputedRobotsString() {
+            return isPrecomputed() ? precomputedRobots : findRobotsString();
+        }
+
+        /**
+         * Returns the keywords stored by {@link #precompute}, or finds them
+         * if they weren't.
+         *
+         * @return May be {@code null}. The set is ordered, and its
+         * {@link #toString} will return a comma-delimited string.
+         */
+        public Set<String> getPrecomputedKeywords() {
+            if (!isPrecomputed()) {
+                return findKeywords();
+
+            } else if (precomputedKeywords == null || precomputedKeywords.isEmpty()) {
+                return null;
+
+            } else {
+                Set<String> keywords = createKeywordsSet();
+
+                keywords.addAll(precomputedKeywords);
+                return keywords;
+            }
+        }
+
+        // Only the objects with paths can be the main object of a page.
+        private boolean isPrecomputable() {
+            return !(getOriginalObject() instanceof Draft) &&
+                    !ObjectUtils.isBlank(getState().get(Directory.PATHS_FIELD));
+        }
+
+        @Override
+        protected void beforeSave() {
+            if (isPrecomputable()) {
+                precompute();
+            }
+        }
+    }
+
+    /**
+     * Stores the SEO values of the objects with paths that were saved
+     * before they were precomputed, when
+     * {@code cms/db/seoPrecomputeBackfillEnabled} is set. Should only be
+     * enabled on one server.
+     *
+     * <p>Only the objects that aren't flagged as precomputed in the index
+     * are read, and only the precomputed fields are written, atomically,
+     * so that the concurrent edits aren't overwritten. The values are saved
+     * with {@link Content.Static#saveMetadataOnly}, so the global save
+     * hooks skip them. Stops once a complete pass finds nothing left to
+     * store.</p>
+     */
+    public static class PrecomputeBackfillTask extends RepeatingTask {
+
+        private volatile boolean done;
+
+        @Override
+        protected DateTime calculateRunTime(DateTime currentTime) {
+            return every(currentTime, DateTimeFieldType.hourOfDay(), 0, 1);
+        }
+
+        @Override
+        protected void doRepeatingTask(DateTime runTime) {
+            if (done || !Settings.get(boolean.class, "cms/db/seoPrecomputeBackfillEnabled")) {
+                return;
+            }
+
+            long count = 0;
+
+            for (Object item : Query.
+                    fromAll().
+                    and(Directory.Static.hasPathPredicate()).
+                    and("cms.seo.precomputed = missing").
+                    noCache().
+                    iterable(200)) {
+
+                if (!shouldContinue()) {
+                    return;
+                }
+
+                State state = State.getInstance(item);
+                ObjectModification seoData = state.as(ObjectModification.class);
+
+                if (seoData.isPrecomputed() || item instanceof Draft) {
+                    continue;
+                }
+
+                seoData.precompute();
+                state.putAtomically("cms.seo.precomputed", Boolean.TRUE);
+                state.putAtomically("cms.seo.precomputedTitle", seoData.precomputedTitle);
+                state.putAtomically("cms.seo.precomputedDescription", seoData.precomputedDescription);
+                state.putAtomically("cms.seo.precomputedRobots", seoData.precomputedRobots);
+                state.putAtomically("cms.seo.precomputedKeywords", seoData.precomputedKeywords);
+
+                try {
+                    Content.Static.saveMetadataOnly(item);
+                    ++ count;
+
+                } catch (RuntimeException error) {
+                    LOGGER.warn(String.format("Can't store the SEO values of [%s]!", state.getId()), error);
+                }
+            }
+
+            // Items that were flagged during the pass may have shifted the
+            // rest, so only stop once a pass finds nothing left.
+            if (count == 0) {
+                done = true;
+
+            } else {
+                LOGGER.info("Stored the SEO values of {} objects", count);
+            }
+        }
     }
 
     /**
@@ -1,14 +1,7 @@
 package com.psddev.cms.db;
 
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -25,8 +18,6 @@ import com.psddev.dari.db.Query;
 import com.psddev.dari.db.Record;
 import com.psddev.dari.db.State;
 import com.psddev.dari.util.ObjectUtils;
-import com.psddev.dari.util.PeriodicValue;
-import com.psddev.dari.util.PullThroughValue;
 import com.psddev.dari.util.StorageItem;
 
 /** Group of pages that's regarded as one entity. */
@@ -224,99 +215,64 @@ public class Site extends Record {
         }
     }
 
+    @Override
+    protected void afterSave() {
+        ConfigurationFeed.notifyChanged(Site.class);
+    }
+
+    @Override
+    protected void afterDelete() {
+        ConfigurationFeed.notifyChanged(Site.class);
+    }
+
     /** Static utility methods. */
     public static final class Static {
 
-        private static final Comparator<Map.Entry<String, ?>> LONGEST_KEY_FIRST = new Comparator<Map.Entry<String, ?>>() {
-            @Override
-            public int compare(Map.Entry<String, ?> x, Map.Entry<String, ?> y) {
-                int xLength = x.getKey().length();
-                int yLength = y.getKey().length();
-                return xLength > yLength ? -1 : xLength < yLength ? 1 : 0;
-            }
-        };
-
-        private static final PullThroughValue<PeriodicValue<List<Site>>>
-                INSTANCES = new PullThroughValue<PeriodicValue<List<Site>>>() {
+        private static final ConfigurationFeed.CachedValue<List<Site>> INSTANCES = new ConfigurationFeed.CachedValue<List<Site>>(Site.class) {
 
             @Override
-            protected PeriodicValue<List<Site>> produce() {
-                return new PeriodicValue<List<Site>>() {
-
-                    @Override
-                    protected List<Site> update() {
-
-                        Query<Site> query = Query.from(Site.class).sortAscending("name");
-                        Date cacheUpdate = getUpdateDate();
-                        Date databaseUpdate = query.lastUpdate();
-                        if (databaseUpdate == null || (cacheUpdate != null && !databaseUpdate.after(cacheUpdate))) {
-                            List<Site> sites = get();
-                            return sites != null ? sites : Collections.<Site>emptyList();
-                        }
-
-                        LOGGER.info("Loading sites");
-                        return query.selectAll();
-                    }
-                };
+            protected List<Site> produce() {
+                LOGGER.info("Loading sites");
+                return Collections.unmodifiableList(Query.from(Site.class).sortAscending("name").selectAll());
             }
         };
 
+        private static volatile SiteRoutingTable routingTable;
+
         private Static() {
         }
 
+        // Returns the cached list of all sites, loading it if it was
+        // discarded by a change in the configuration feed.
+        private static List<Site> getInstances() {
+            return INSTANCES.get();
+        }
+
         /** Returns a cached list of all sites. */
         public static List<Site> findAll() {
-            return new ArrayList<Site>(INSTANCES.get().get());
+            return new ArrayList<Site>(getInstances());
         }
 
-        /** Finds a cached site associated with the given {@code url}. */
+        /**
+         * Finds a cached site associated with the given {@code url}.
+         *
+         * <p>The lookup uses a routing table that's only rebuilt when the
+         * cached list of sites is refreshed.</p>
+         */
         public static Map.Entry<String, Site> findByUrl(String url) {
             if (url == null) {
                 return null;
             }
 
-            URI requestUri;
-            try {
-                requestUri = new URI(url);
-            } catch (URISyntaxException ex) {
-                try {
-                    URL urlObject = new URL(url);
-                    requestUri = new URI(urlObject.getProtocol(), urlObject.getAuthority(), urlObject.getHost(), urlObject.getPort(), urlObject.getPath(), urlObject.getQuery(), urlObject.getRef());
-                } catch (MalformedURLException error2) {
-                    return null;
-                } catch (URISyntaxException error2) {
-                    return null;
-                }
-            }
+            List<Site> sites = getInstances();
+            SiteRoutingTable table = routingTable;
 
-            Map<String, Site> checkUrlsMap = new HashMap<String, Site>();
-            for (Site site : INSTANCES.get().get()) {
-                for (String siteUrl : site.getUrls()) {
-                    try {
-                        String checkUrl = requestUri.resolve(siteUrl).toString();
-                        if (!checkUrl.endsWith("/")) {
-                            checkUrl += "/";
-                        }
-                        checkUrlsMap.put(checkUrl, site);
-                    } catch (IllegalArgumentException e) {
-                        // the url is malformed, just skip it
-                    }
-                }
+            if (table == null || table.getSites() != sites) {
+                table = new SiteRoutingTable(sites);
+                routingTable = table;
             }
 
-            List<Map.Entry<String, Site>> checkUrls = new ArrayList<Map.Entry<String, Site>>(checkUrlsMap.entrySet());
-            Collections.sort(checkUrls, LONGEST_KEY_FIRST);
-
-            if (!url.endsWith("/")) {
-                url += "/";
-            }
-            for (Map.Entry<String, Site> entry : checkUrls) {
-                if (url.startsWith(entry.getKey())) {
-                    return entry;
-                }
-            }
-
-            return null;
+            return table.find(url);
         }
 
         /**
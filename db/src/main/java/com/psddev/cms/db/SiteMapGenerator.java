@@ -0,0 +1,685 @@
+package com.psddev.cms.db;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.psddev.cms.tool.CmsTool;
+import com.psddev.dari.db.Application;
+import com.psddev.dari.db.Modification;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.db.State;
+import com.psddev.dari.util.JspUtils;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.StringUtils;
+
+/**
+ * Streaming XML sitemap generator that walks the
+ * {@value Directory#PATHS_FIELD} index of each site.
+ *
+ * <p>When {@code cms/db/sitemapEnabled} is set, {@link PageFilter} serves
+ * {@code /sitemap.xml} as a sitemap index and {@code /sitemap-N.xml.gz}
+ * as gzipped shards of up to {@value #URLS_PER_SHARD} URLs each, straight
+ * from the files in {@code cms/db/sitemapDirectory}. The files are
+ * written by a single background thread that reads the objects in the
+ * index order of their raw paths, {@code cms/db/sitemapFetchSize} at a
+ * time (200 by default), so no more than that many objects are ever in
+ * memory.</p>
+ *
+ * <p>Each shard covers a range of raw paths. Saving or deleting an object
+ * with paths on this node only marks the shards covering its current and
+ * previous paths, and the marked shards are rewritten every
+ * {@code cms/db/sitemapUpdateInterval} milliseconds (60000 by default).
+ * Everything is rebuilt every {@code cms/db/sitemapRebuildInterval}
+ * milliseconds (a day by default) to pick up the changes from other nodes
+ * and the objects whose paths were all removed.</p>
+ *
+ * <p>By default, every node generates its own copy of the files, in
+ * {@code java.io.tmpdir} unless {@code cms/db/sitemapDirectory} is set,
+ * and responds with {@code 503 Service Unavailable} until it's done. To
+ * share the output instead, point {@code cms/db/sitemapDirectory} to a
+ * shared directory and set {@code cms/db/sitemapGenerating} to
+ * {@code false} on all nodes but one, so that they only serve the files
+ * that are already there.</p>
+ *
+ * <p>The base URL in the files is the primary URL of the site, or the
+ * default site URL, or if neither is set, the URL of the request that
+ * first asked for the sitemap on this node.</p>
+ */
+public final class SiteMapGenerator {
+
+    /** Maximum number of URLs in each shard. */
+    public static final int URLS_PER_SHARD = 50000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SiteMapGenerator.class);
+
+    private static final int FETCH_SIZE = Settings.getOrDefault(int.class, "cms/db/sitemapFetchSize", 200);
+    private static final long UPDATE_INTERVAL = Settings.getOrDefault(long.class, "cms/db/sitemapUpdateInterval", 60000L);
+    private static final long REBUILD_INTERVAL = Settings.getOrDefault(long.class, "cms/db/sitemapRebuildInterval", 86400000L);
+    private static final boolean GENERATING = Settings.getOrDefault(boolean.class, "cms/db/sitemapGenerating", true);
+
+    private static final String INDEX_PATH = "/sitemap.xml";
+    private static final Pattern SHARD_PATH_PATTERN = Pattern.compile("^/sitemap-(\\d+)\\.xml\\.gz$");
+    private static final String GLOBAL_KEY = "global";
+    private static final String OLD_PATHS_EXTRA = SiteMapGenerator.class.getName() + ".oldPaths";
+
+    private static final ConcurrentMap<String, SiteMap> SITE_MAPS = new ConcurrentHashMap<String, SiteMap>();
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().
+                    setDaemon(true).
+                    setNameFormat("cms-sitemap-generator-%d").
+                    build());
+
+    private static final Runnable UPDATE = new Runnable() {
+
+        @Override
+        public void run() {
+            for (SiteMap siteMap : SITE_MAPS.values()) {
+                try {
+                    siteMap.update();
+
+                } catch (IOException | RuntimeException error) {
+                    LOGGER.warn(String.format("Can't update the sitemap for [%s]!", siteMap.key), error);
+                }
+            }
+        }
+    };
+
+    private SiteMapGenerator() {
+    }
+
+    /** Returns {@code true} if the sitemap should be served. */
+    public static boolean isEnabled() {
+        return Settings.get(boolean.class, "cms/db/sitemapEnabled");
+    }
+
+    /**
+     * Writes the sitemap index or shard for the given {@code site} if the
+     * given {@code request} asks for one.
+     *
+     * <p>If the sitemap hasn't been generated yet, starts generating it
+     * and responds with {@code 503 Service Unavailable}, unless this node
+     * only serves the files generated by another one.</p>
+     *
+     * @param site May be {@code null}.
+     * @return {@code true} if the response was written.
+     */
+    public static boolean serve(HttpServletRequest request, HttpServletResponse response, Site site) throws IOException {
+        String servletPath = request.getServletPath();
+        Matcher shardMatcher = SHARD_PATH_PATTERN.matcher(servletPath);
+        boolean index = servletPath.equals(INDEX_PATH);
+
+        if (!index && !shardMatcher.matches()) {
+            return false;
+        }
+
+        String key = site != null ? site.getId().toString() : GLOBAL_KEY;
+        SiteMap siteMap = SITE_MAPS.get(key);
+
+        if (siteMap == null) {
+            siteMap = new SiteMap(key, site, StringUtils.removeEnd(JspUtils.getAbsoluteUrl(request, "/"), "/"));
+
+            if (GENERATING) {
+                SiteMap existing = SITE_MAPS.putIfAbsent(key, siteMap);
+
+                if (existing != null) {
+                    siteMap = existing;
+                }
+            }
+        }
+
+        List<Shard> shards = null;
+
+        if (GENERATING) {
+            if (STARTED.compareAndSet(false, true)) {
+                EXECUTOR.scheduleWithFixedDelay(UPDATE, UPDATE_INTERVAL, UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+
+            shards = siteMap.shards;
+
+            if (shards == null) {
+                if (siteMap.scheduled.compareAndSet(false, true)) {
+                    EXECUTOR.execute(UPDATE);
+                }
+
+                response.setHeader("Retry-After", "60");
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return true;
+            }
+
+        } else if (!siteMap.getIndexFile().exists()) {
+            response.setHeader("Retry-After", "60");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return true;
+        }
+
+        File file;
+
+        if (index) {
+            response.setContentType("application/xml");
+            file = siteMap.getIndexFile();
+
+        } else {
+            int shardIndex = ObjectUtils.to(int.class, shardMatcher.group(1)) - 1;
+
+            if (shardIndex < 0 ||
+                    (shards != null ? shardIndex >= shards.size() : !siteMap.getShardFile(shardIndex).exists())) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return true;
+            }
+
+            response.setContentType("application/x-gzip");
+            file = siteMap.getShardFile(shardIndex);
+        }
+
+        // Take the length from the open file so that it matches what's
+        // sent even if the file is replaced in between.
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            response.setHeader("Content-Length", String.valueOf(size));
+
+            OutputStream output = response.getOutputStream();
+            WritableByteChannel outputChannel = Channels.newChannel(output);
+
+            for (long position = 0L; position < size;) {
+                position += channel.transferTo(position, size - position, outputChannel);
+            }
+
+            output.flush();
+
+        } catch (NoSuchFileException error) {
+            response.setHeader("Retry-After", "60");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+
+        return true;
+    }
+
+    // Returns the smallest raw path in the given paths that belongs to the
+    // site with the given raw path prefix, or to no site if null.
+    private static String findKey(Object paths, String prefix) {
+        String key = null;
+
+        if (paths instanceof Collection) {
+            for (Object item : (Collection<?>) paths) {
+                if (item == null) {
+                    continue;
+                }
+
+                String rawPath = item.toString();
+
+                if ((prefix != null ? rawPath.startsWith(prefix) : !rawPath.contains(":")) &&
+                        (key == null || rawPath.compareTo(key) < 0)) {
+                    key = rawPath;
+                }
+            }
+        }
+
+        return key;
+    }
+
+    private static String formatDate(Date date) {
+        return new DateTime(date, DateTimeZone.UTC).toString();
+    }
+
+    // Range of raw paths written to a shard file.
+    private static final class Shard {
+
+        private final String start;
+        private final Date lastModified;
+
+        public Shard(String start, Date lastModified) {
+            this.start = start;
+            this.lastModified = lastModified;
+        }
+    }
+
+    // Sitemap files of a single site.
+    private static final class SiteMap {
+
+        private final String key;
+        private final UUID siteId;
+        private final String requestUrl;
+        private final File directory;
+        private final Set<Integer> dirty = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        // Only replaced by the generator thread.
+        private volatile Site site;
+        private volatile List<Shard> shards;
+        private volatile long lastRebuild;
+
+        public SiteMap(String key, Site site, String requestUrl) {
+            this.key = key;
+            this.siteId = site != null ? site.getId() : null;
+            this.site = site;
+            this.requestUrl = requestUrl;
+            this.directory = new File(
+                    Settings.getOrDefault(String.class, "cms/db/sitemapDirectory", new File(System.getProperty("java.io.tmpdir"), "cms-sitemaps").getPath()),
+                    key);
+        }
+
+        public File getIndexFile() {
+            return new File(directory, "sitemap.xml");
+        }
+
+        public File getShardFile(int index) {
+            return new File(directory, "sitemap-" + (index + 1) + ".xml.gz");
+        }
+
+        private String getPrefix() {
+            Site s = site;
+
+            return s != null ? s.getRawPath() : null;
+        }
+
+        private String getBaseUrl() {
+            Site s = site;
+            String url = s != null ?
+                    s.getPrimaryUrl() :
+                    Application.Static.getInstance(CmsTool.class).getDefaultSiteUrl();
+
+            return ObjectUtils.isBlank(url) ? requestUrl : StringUtils.removeEnd(url, "/");
+        }
+
+        // Marks the shard that covers the given raw path key.
+        public void markDirty(String key) {
+            List<Shard> s = shards;
+
+            if (s == null) {
+                return;
+            }
+
+            int index = 0;
+
+            for (int i = 1, size = s.size(); i < size; ++ i) {
+                if (s.get(i).start.compareTo(key) <= 0) {
+                    index = i;
+
+                } else {
+                    break;
+                }
+            }
+
+            dirty.add(index);
+        }
+
+        public synchronized void update() throws IOException {
+            if (siteId != null) {
+                Site newSite = Query.from(Site.class).where("_id = ?", siteId).noCache().first();
+
+                if (newSite != null) {
+                    site = newSite;
+                }
+            }
+
+            List<Shard> oldShards = shards;
+
+            if (oldShards == null ||
+                    System.currentTimeMillis() - lastRebuild > REBUILD_INTERVAL) {
+                rebuild();
+                return;
+            }
+
+            if (dirty.isEmpty()) {
+                return;
+            }
+
+            List<Shard> newShards = new ArrayList<Shard>(oldShards);
+
+            for (Integer index : new ArrayList<Integer>(dirty)) {
+                dirty.remove(index);
+
+                if (index >= newShards.size()) {
+                    continue;
+                }
+
+                String start = newShards.get(index).start;
+                String end = index + 1 < newShards.size() ? newShards.get(index + 1).start : null;
+                Date lastModified = writeShard(index, start, end);
+
+                // Too big now so redistribute everything.
+                if (lastModified == null) {
+                    rebuild();
+                    return;
+                }
+
+                newShards.set(index, new Shard(start, lastModified));
+            }
+
+            writeIndex(newShards);
+            shards = newShards;
+        }
+
+        // Rewrites all the shards in one pass over the paths index.
+        private void rebuild() throws IOException {
+            directory.mkdirs();
+            dirty.clear();
+
+            String prefix = getPrefix();
+            String baseUrl = getBaseUrl();
+            List<Shard> newShards = new ArrayList<Shard>();
+            ShardWriter writer = null;
+
+            try {
+                for (Object item : createQuery(null, null).iterable(FETCH_SIZE)) {
+                    State state = State.getInstance(item);
+                    String itemKey = findKey(state.get(Directory.PATHS_FIELD), prefix);
+
+                    if (itemKey == null || !state.isVisible()) {
+                        continue;
+                    }
+
+                    List<Directory.Path> permalinks = findPermalinks(state);
+
+                    if (writer == null || writer.count + permalinks.size() > URLS_PER_SHARD) {
+                        if (writer != null) {
+                            newShards.add(new Shard(writer.start, writer.close()));
+                        }
+
+                        writer = new ShardWriter(newShards.isEmpty() ? null : itemKey, getShardFile(newShards.size()), baseUrl);
+                    }
+
+                    writer.write(state, permalinks);
+                }
+
+                if (writer == null) {
+                    writer = new ShardWriter(null, getShardFile(0), baseUrl);
+                }
+
+                newShards.add(new Shard(writer.start, writer.close()));
+                writer = null;
+
+            } finally {
+                if (writer != null) {
+                    writer.abort();
+                }
+            }
+
+            writeIndex(newShards);
+
+            for (int i = newShards.size(); getShardFile(i).delete(); ++ i) {
+            }
+
+            shards = newShards;
+            lastRebuild = System.currentTimeMillis();
+        }
+
+        // Rewrites the shard that covers the raw paths from the given start
+        // to end, and returns its last modified date, or null if there are
+        // too many URLs in it now.
+        private Date writeShard(int index, String start, String end) throws IOException {
+            String prefix = getPrefix();
+            ShardWriter writer = new ShardWriter(start, getShardFile(index), getBaseUrl());
+
+            try {
+                for (Object item : createQuery(start, end).iterable(FETCH_SIZE)) {
+                    State state = State.getInstance(item);
+                    String itemKey = findKey(state.get(Directory.PATHS_FIELD), prefix);
+
+                    if (itemKey == null ||
+                            !state.isVisible() ||
+                            (start != null && itemKey.compareTo(start) < 0) ||
+                            (end != null && itemKey.compareTo(end) >= 0)) {
+                        continue;
+                    }
+
+                    List<Directory.Path> permalinks = findPermalinks(state);
+
+                    if (writer.count + permalinks.size() > URLS_PER_SHARD) {
+                        return null;
+                    }
+
+                    writer.write(state, permalinks);
+                }
+
+                Date lastModified = writer.close();
+
+                writer = null;
+                return lastModified;
+
+            } finally {
+                if (writer != null) {
+                    writer.abort();
+                }
+            }
+        }
+
+        private List<Directory.Path> findPermalinks(State state) {
+            List<Directory.Path> permalinks = new ArrayList<Directory.Path>();
+
+            for (Directory.Path path : state.as(Directory.ObjectModification.class).getSitePaths(site)) {
+                if (path.getType() == Directory.PathType.PERMALINK) {
+                    permalinks.add(path);
+                }
+            }
+
+            return permalinks;
+        }
+
+        private Query<Object> createQuery(String start, String end) {
+            String prefix = getPrefix();
+            Query<Object> query = Query.fromAll();
+
+            if (prefix != null) {
+                query.and(Directory.PATHS_FIELD + " startsWith ?", prefix);
+
+            } else {
+                query.and(Directory.Static.hasPathPredicate());
+            }
+
+            if (start != null) {
+                query.and(Directory.PATHS_FIELD + " >= ?", start);
+            }
+
+            if (end != null) {
+                query.and(Directory.PATHS_FIELD + " < ?", end);
+            }
+
+            return query.
+                    sortAscending(Directory.PATHS_FIELD).
+                    noCache();
+        }
+
+        private void writeIndex(List<Shard> newShards) throws IOException {
+            File file = getIndexFile();
+            File temporary = new File(directory, file.getName() + ".tmp");
+            String baseUrl = getBaseUrl();
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8));
+
+            try {
+                writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+                writer.write("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+
+                for (int i = 0, size = newShards.size(); i < size; ++ i) {
+                    Date lastModified = newShards.get(i).lastModified;
+
+                    writer.write("<sitemap><loc>");
+                    writer.write(StringUtils.escapeHtml(baseUrl + "/" + getShardFile(i).getName()));
+                    writer.write("</loc>");
+
+                    if (lastModified != null) {
+                        writer.write("<lastmod>");
+                        writer.write(formatDate(lastModified));
+                        writer.write("</lastmod>");
+                    }
+
+                    writer.write("</sitemap>\n");
+                }
+
+                writer.write("</sitemapindex>\n");
+
+            } finally {
+                writer.close();
+            }
+
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // Writes the URLs of a shard to a temporary file that replaces the
+        // shard file on close.
+        private final class ShardWriter {
+
+            private final String start;
+            private final File file;
+            private final File temporary;
+            private final String baseUrl;
+            private final Writer writer;
+            private int count;
+            private Date lastModified;
+
+            public ShardWriter(String start, File file, String baseUrl) throws IOException {
+                this.start = start;
+                this.file = file;
+                this.temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+                this.baseUrl = baseUrl;
+                this.writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(temporary)), StandardCharsets.UTF_8));
+
+                writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+                writer.write("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+            }
+
+            public void write(State state, List<Directory.Path> permalinks) throws IOException {
+                Date updateDate = state.as(Content.ObjectModification.class).getUpdateDate();
+
+                for (Directory.Path path : permalinks) {
+                    writer.write("<url><loc>");
+                    writer.write(StringUtils.escapeHtml(baseUrl + path.getPath()));
+                    writer.write("</loc>");
+
+                    if (updateDate != null) {
+                        writer.write("<lastmod>");
+                        writer.write(formatDate(updateDate));
+                        writer.write("</lastmod>");
+                    }
+
+                    writer.write("</url>\n");
+                    ++ count;
+                }
+
+                if (updateDate != null && (lastModified == null || updateDate.after(lastModified))) {
+                    lastModified = updateDate;
+                }
+            }
+
+            public Date close() throws IOException {
+                writer.write("</urlset>\n");
+                writer.close();
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return lastModified != null ? lastModified : new Date();
+            }
+
+            public void abort() {
+                try {
+                    writer.close();
+
+                } catch (IOException error) {
+                    // Nothing else to do with the temporary file.
+                }
+
+                temporary.delete();
+            }
+        }
+    }
+
+    /**
+     * Marks the sitemap shards that cover an object, before and after it's
+     * saved or deleted, as needing to be rewritten.
+     */
+    public static class UpdateModification extends Modification<Object> {
+
+        @Override
+        protected void beforeSave() {
+            State state = getState();
+
+            if (SITE_MAPS.isEmpty() ||
+                    state.isNew() ||
+                    Content.Static.isMetadataOnlySave(state)) {
+                return;
+            }
+
+            // Remember the paths before they were changed so that the
+            // shards that they moved out of are rewritten too.
+            List<String> oldPaths = state.as(Directory.ObjectModification.class).getOriginalRawPaths();
+
+            if (!oldPaths.equals(state.get(Directory.PATHS_FIELD))) {
+                state.getExtras().put(OLD_PATHS_EXTRA, new ArrayList<String>(oldPaths));
+            }
+        }
+
+        @Override
+        protected void afterSave() {
+            if (Content.Static.isMetadataOnlySave(getState())) {
+                return;
+            }
+
+            markDirty(getState().getExtras().remove(OLD_PATHS_EXTRA));
+            markDirty(getState().get(Directory.PATHS_FIELD));
+        }
+
+        @Override
+        protected void afterDelete() {
+            markDirty(getState().get(Directory.PATHS_FIELD));
+        }
+
+        private boolean hasPaths(Object paths) {
+            return paths instanceof Collection && !((Collection<?>) paths).isEmpty();
+        }
+
+        private void markDirty(Object paths) {
+            if (SITE_MAPS.isEmpty() || !hasPaths(paths)) {
+                return;
+            }
+
+            for (SiteMap siteMap : SITE_MAPS.values()) {
+                String key = findKey(paths, siteMap.getPrefix());
+
+                if (key != null) {
+                    siteMap.markDirty(key);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.psddev.cms.db;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.psddev.dari.util.ObjectUtils;
+
+/**
+ * Routing table that finds the site associated with an URL, built once
+ * from a list of sites.
+ *
+ * <p>Absolute site URLs are keyed by their origins
+ * ({@code scheme://authority}), and URLs that are only paths apply to
+ * every origin. Within each, the longest matching path prefix is found
+ * by walking a character trie, so a lookup doesn't resolve or sort any
+ * URLs.</p>
+ */
+class SiteRoutingTable {
+
+    private final List<Site> sites;
+    private final Map<String, PathNode> originRoutes = new HashMap<String, PathNode>();
+    private final PathNode pathRoutes = new PathNode();
+    private final Map<String, Site> otherRoutes = new LinkedHashMap<String, Site>();
+
+    /**
+     * Creates an instance for the given {@code sites}. Later sites take
+     * precedence over earlier ones with the same URL.
+     *
+     * @param sites Can't be {@code null}.
+     */
+    public SiteRoutingTable(List<Site> sites) {
+        this.sites = sites;
+
+        for (Site site : sites) {
+            for (String siteUrl : site.getUrls()) {
+                if (!ObjectUtils.isBlank(siteUrl)) {
+                    addRoute(siteUrl, site);
+                }
+            }
+        }
+    }
+
+    /** Returns the sites that this table was built from. */
+    public List<Site> getSites() {
+        return sites;
+    }
+
+    private void addRoute(String siteUrl, Site site) {
+        if (siteUrl.startsWith("/") && !siteUrl.startsWith("//")) {
+            pathRoutes.put(siteUrl.endsWith("/") ? siteUrl : siteUrl + "/", null, site);
+            return;
+        }
+
+        URI uri;
+
+        try {
+            uri = new URI(siteUrl);
+
+        } catch (URISyntaxException error) {
+            return;
+        }
+
+        String authority = uri.getRawAuthority();
+
+        if (uri.isAbsolute() && authority != null) {
+            String url = uri.toString();
+            String origin = uri.getScheme() + "://" + authority;
+
+            if (!url.endsWith("/")) {
+                url += "/";
+            }
+
+            String path = url.substring(origin.length());
+
+            if (url.startsWith(origin) && path.startsWith("/")) {
+                PathNode routes = originRoutes.get(origin);
+
+                if (routes == null) {
+                    routes = new PathNode();
+                    originRoutes.put(origin, routes);
+                }
+
+                routes.put(path, url, site);
+                return;
+            }
+        }
+
+        // Scheme-relative, document-relative or otherwise unusual URLs
+        // depend on the request URL, so they're resolved on each lookup.
+        otherRoutes.put(siteUrl, site);
+    }
+
+    /**
+     * Finds the site associated with the given {@code url}.
+     *
+     * @param url Can't be {@code null}.
+     * @return May be {@code null}. The key is the matched site URL
+     * resolved against the given {@code url}.
+     */
+    public Map.Entry<String, Site> find(String url) {
+        int schemeAt = url.indexOf("://");
+
+        if (schemeAt < 0) {
+            return null;
+        }
+
+        int pathStart = url.indexOf('/', schemeAt + 3);
+
+        if (pathStart < 0) {
+            pathStart = url.length();
+        }
+
+        PathNode routes = originRoutes.get(url.substring(0, pathStart));
+        PathNode originMatch = routes != null ? routes.findLongest(url, pathStart) : null;
+        PathNode pathMatch = pathRoutes.findLongest(url, pathStart);
+        Map.Entry<String, Site> match;
+
+        if (originMatch != null &&
+                (pathMatch == null || originMatch.depth >= pathMatch.depth)) {
+            match = originMatch.entry;
+
+        } else if (pathMatch != null) {
+            int keyEnd = pathStart + pathMatch.depth;
+
+            match = new AbstractMap.SimpleImmutableEntry<String, Site>(
+                    keyEnd <= url.length() ? url.substring(0, keyEnd) : url + "/",
+                    pathMatch.entry.getValue());
+
+        } else {
+            match = null;
+        }
+
+        if (!otherRoutes.isEmpty()) {
+            Map.Entry<String, Site> otherMatch = findOther(url);
+
+            if (otherMatch != null &&
+                    (match == null || otherMatch.getKey().length() > match.getKey().length())) {
+                match = otherMatch;
+            }
+        }
+
+        return match;
+    }
+
+    // Resolves the URLs that depend on the request URL and finds the
+    // longest one that prefixes it.
+    private Map.Entry<String, Site> findOther(String url) {
+        URI requestUri;
+
+        try {
+            requestUri = new URI(url);
+
+        } catch (URISyntaxException error) {
+            try {
+                URL urlObject = new URL(url);
+                requestUri = new URI(urlObject.getProtocol(), urlObject.getAuthority(), urlObject.getHost(), urlObject.getPort(), urlObject.getPath(), urlObject.getQuery(), urlObject.getRef());
+
+            } catch (MalformedURLException error2) {
+                return null;
+
+            } catch (URISyntaxException error2) {
+                return null;
+            }
+        }
+
+        String checkedUrl = url.endsWith("/") ? url : url + "/";
+        Map.Entry<String, Site> match = null;
+
+        for (Map.Entry<String, Site> entry : otherRoutes.entrySet()) {
+            String checkUrl;
+
+            try {
+                checkUrl = requestUri.resolve(entry.getKey()).toString();
+
+            } catch (IllegalArgumentException error) {
+                // the url is malformed, just skip it
+                continue;
+            }
+
+            if (!checkUrl.endsWith("/")) {
+                checkUrl += "/";
+            }
+
+            if (checkedUrl.startsWith(checkUrl) &&
+                    (match == null || checkUrl.length() >= match.getKey().length())) {
+                match = new AbstractMap.SimpleImmutableEntry<String, Site>(checkUrl, entry.getValue());
+            }
+        }
+
+        return match;
+    }
+
+    /** Character trie node for the path prefixes. */
+    private static final class PathNode {
+
+        private final Map<Character, PathNode> children = new HashMap<Character, PathNode>();
+        private int depth;
+        private Map.Entry<String, Site> entry;
+
+        public void put(String path, String key, Site site) {
+            PathNode node = this;
+
+            for (int i = 0, length = path.length(); i < length; ++ i) {
+                char c = path.charAt(i);
+                PathNode child = node.children.get(c);
+
+                if (child == null) {
+                    child = new PathNode();
+                    child.depth = i + 1;
+                    node.children.put(c, child);
+                }
+
+                node = child;
+            }
+
+            node.entry = new AbstractMap.SimpleImmutableEntry<String, Site>(key, site);
+        }
+
+        // Walks the path of the given url, which is treated as if it ends
+        // with a slash, and returns the deepest node with a site.
+        public PathNode findLongest(String url, int start) {
+            int length = url.length();
+            int end = url.endsWith("/") ? length : length + 1;
+            PathNode node = this;
+            PathNode longest = null;
+
+            for (int i = start; i < end; ++ i) {
+                node = node.children.get(i < length ? url.charAt(i) : '/');
+
+                if (node == null) {
+                    break;
+
+                } else if (node.entry != null) {
+                    longest = node;
+                }
+            }
+
+            return longest;
+        }
+    }
+}
@@ -0,0 +1,536 @@
+package com.psddev.cms.db;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.psddev.dari.db.Modification;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.db.State;
+import com.psddev.dari.util.ClassFinder;
+import com.psddev.dari.util.Lazy;
+import com.psddev.dari.util.Settings;
+import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.TypeDefinition;
+
+/**
+ * Surrogate keys and validators for the pages rendered by
+ * {@link PageFilter}, so that a CDN can cache them until the objects
+ * they're rendered from change.
+ *
+ * <p>Enable them with {@code cms/db/surrogateKeysEnabled}. Each page is
+ * tagged with the {@linkplain #getTypeKey types} and the
+ * {@linkplain #getKey IDs} of the objects used to render it in the
+ * {@code cms/db/surrogateKeyHeader} header ({@code Surrogate-Key} by
+ * default), and with an ETag derived from those IDs and their last
+ * update dates. {@link PageFilter} buffers those pages so that the
+ * headers can be set after rendering.</p>
+ *
+ * <p>The ETag from the last time a page was rendered on this node is
+ * remembered, along with the types of the objects on it, so that a
+ * conditional request can be answered with {@code 304 Not Modified}
+ * before rendering and without querying the database. The ETag is only
+ * used until an instance of any of those types is saved or deleted, so
+ * that new content entering a list on the page is picked up. Changes on
+ * the other nodes are picked up by {@link PageCache.RemoteUpdateTask},
+ * which checks the last update date of each of those types, and the ETag
+ * expires after {@code cms/db/surrogateKeyValidatorDuration} milliseconds
+ * regardless.</p>
+ *
+ * <p>Whenever an object is published, trashed or purged, its key and the
+ * key of its type are passed to all {@link PurgeHook}s, so that the
+ * pages listing other instances of the type are purged as well.</p>
+ */
+public final class SurrogateKeys {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SurrogateKeys.class);
+
+    private static final String HEADER = Settings.getOrDefault(String.class, "cms/db/surrogateKeyHeader", "Surrogate-Key");
+    private static final int MAXIMUM_KEYS = Settings.getOrDefault(int.class, "cms/db/surrogateKeyMaximumCount", 500);
+
+    private static final String RENDER_START_ATTRIBUTE = SurrogateKeys.class.getName() + ".renderStart";
+
+    private static final Cache<String, Validator> VALIDATORS = CacheBuilder.
+            newBuilder().
+            maximumSize(Settings.getOrDefault(long.class, "cms/db/surrogateKeyMaximumPages", 10000L)).
+            expireAfterWrite(Settings.getOrDefault(long.class, "cms/db/surrogateKeyValidatorDuration", 300000L), TimeUnit.MILLISECONDS).
+            build();
+
+    private static final ConcurrentMap<UUID, Long> TYPE_CHANGES = new ConcurrentHashMap<UUID, Long>();
+    private static final ConcurrentMap<UUID, Date> TYPE_LAST_UPDATES = new ConcurrentHashMap<UUID, Date>();
+
+    private static final List<PurgeHook> PURGE_HOOKS = new CopyOnWriteArrayList<PurgeHook>();
+
+    private static final Lazy<List<PurgeHook>> DEFAULT_PURGE_HOOKS = new Lazy<List<PurgeHook>>() {
+
+        @Override
+        protected List<PurgeHook> create() {
+            List<PurgeHook> hooks = new ArrayList<PurgeHook>();
+
+            for (Class<? extends PurgeHook> c : ClassFinder.Static.findClasses(PurgeHook.class)) {
+                if (!c.isInterface() && !Modifier.isAbstract(c.getModifiers())) {
+                    hooks.add(TypeDefinition.getInstance(c).newInstance());
+                }
+            }
+
+            return hooks;
+        }
+    };
+
+    private SurrogateKeys() {
+    }
+
+    /** Returns {@code true} if the surrogate keys are enabled. */
+    public static boolean isEnabled() {
+        return Settings.get(boolean.class, "cms/db/surrogateKeysEnabled");
+    }
+
+    /**
+     * Returns the surrogate key for the object with the given {@code id}.
+     *
+     * @param id Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    public static String getKey(UUID id) {
+        return id.toString();
+    }
+
+    /**
+     * Returns the surrogate key for all instances of the type with the
+     * given {@code typeId}.
+     *
+     * @param typeId Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    public static String getTypeKey(UUID typeId) {
+        return "type-" + typeId;
+    }
+
+    /**
+     * Sets the headers for the page identified by the given {@code pageKey}
+     * based on the objects that were used to render it last time, and
+     * writes {@code 304 Not Modified} if the request's
+     * {@code If-None-Match} header matches and none of the types of those
+     * objects changed since.
+     *
+     * @param request Can't be {@code null}.
+     * @param response Can't be {@code null}.
+     * @param pageKey Can't be {@code null}.
+     * @return {@code true} if the response is complete.
+     */
+    public static boolean writeNotModified(HttpServletRequest request, HttpServletResponse response, String pageKey) {
+        request.setAttribute(RENDER_START_ATTRIBUTE, System.currentTimeMillis());
+
+        Validator validator = VALIDATORS.getIfPresent(pageKey);
+
+        if (validator == null ||
+                !validator.isCurrent() ||
+                !matchesEtag(request.getHeader("If-None-Match"), validator.etag)) {
+            return false;
+        }
+
+        setHeaders(response, validator);
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+    }
+
+    /**
+     * Remembers the objects that were used to render the given
+     * {@code request} for the page identified by the given
+     * {@code pageKey}, and sets the headers based on them if the given
+     * {@code response} isn't committed yet, which it shouldn't be if it's
+     * a {@link BufferingResponse}.
+     *
+     * @param request Can't be {@code null}.
+     * @param response Can't be {@code null}.
+     * @param pageKey Can't be {@code null}.
+     */
+    public static void setHeaders(HttpServletRequest request, HttpServletResponse response, String pageKey) {
+        Set<UUID> ids = new LinkedHashSet<UUID>();
+        Set<UUID> typeIds = new HashSet<UUID>();
+        long lastUpdate = 0L;
+
+        for (State state : PageCache.findDependencyStates(request)) {
+            Date updateDate = state.as(Content.ObjectModification.class).getUpdateDate();
+            UUID typeId = state.getTypeId();
+
+            ids.add(state.getId());
+
+            if (typeId != null) {
+                typeIds.add(typeId);
+            }
+
+            if (updateDate != null && updateDate.getTime() > lastUpdate) {
+                lastUpdate = updateDate.getTime();
+            }
+        }
+
+        Long renderStart = (Long) request.getAttribute(RENDER_START_ATTRIBUTE);
+        Validator validator = new Validator(
+                ids,
+                typeIds,
+                createEtag(ids, lastUpdate),
+                renderStart != null ? renderStart : System.currentTimeMillis());
+
+        VALIDATORS.put(pageKey, validator);
+
+        if (!response.isCommitted()) {
+            setHeaders(response, validator);
+        }
+    }
+
+    /**
+     * Records that an instance of the type with the given {@code typeId}
+     * changed, so that the ETags of the pages showing that type aren't
+     * used anymore.
+     *
+     * @param typeId If {@code null}, does nothing.
+     */
+    public static void recordTypeChange(UUID typeId) {
+        if (typeId != null && VALIDATORS.size() > 0) {
+            TYPE_CHANGES.put(typeId, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Records the changes made on the other nodes to the types of the
+     * objects on the remembered pages, using one last update date query
+     * per type.
+     */
+    static void checkTypeChanges() {
+        Set<UUID> typeIds = new HashSet<UUID>();
+
+        for (Validator validator : VALIDATORS.asMap().values()) {
+            typeIds.addAll(validator.typeIds);
+        }
+
+        TYPE_LAST_UPDATES.keySet().retainAll(typeIds);
+
+        for (UUID typeId : typeIds) {
+            Date lastUpdate = Query.fromAll().where("_type = ?", typeId).lastUpdate();
+
+            if (lastUpdate == null) {
+                continue;
+            }
+
+            Date oldLastUpdate = TYPE_LAST_UPDATES.put(typeId, lastUpdate);
+
+            if (oldLastUpdate != null && !oldLastUpdate.equals(lastUpdate)) {
+                recordTypeChange(typeId);
+            }
+        }
+    }
+
+    private static void setHeaders(HttpServletResponse response, Validator validator) {
+        String keys = createKeys(validator.ids, validator.typeIds);
+
+        if (!keys.isEmpty()) {
+            response.setHeader(HEADER, keys);
+        }
+
+        response.setHeader("ETag", validator.etag);
+    }
+
+    // Creates the surrogate key header value from the keys of the given
+    // types, followed by the keys of as many of the given IDs as the
+    // limit allows.
+    static String createKeys(Set<UUID> ids, Set<UUID> typeIds) {
+        StringBuilder keys = new StringBuilder();
+        int count = 0;
+
+        for (UUID typeId : typeIds) {
+            keys.append(getTypeKey(typeId));
+            keys.append(' ');
+        }
+
+        for (UUID id : ids) {
+            if (count >= MAXIMUM_KEYS) {
+                break;
+            }
+
+            keys.append(getKey(id));
+            keys.append(' ');
+            ++ count;
+        }
+
+        if (keys.length() > 0) {
+            keys.setLength(keys.length() - 1);
+        }
+
+        return keys.toString();
+    }
+
+    // Derives a strong ETag from the IDs and the last update date of the
+    // given objects.
+    static String createEtag(Set<UUID> ids, long lastUpdate) {
+        List<UUID> sortedIds = new ArrayList<UUID>(ids);
+        StringBuilder etag = new StringBuilder();
+
+        Collections.sort(sortedIds);
+
+        for (UUID id : sortedIds) {
+            etag.append(id);
+            etag.append(',');
+        }
+
+        etag.append(lastUpdate);
+
+        return "\"" + StringUtils.hex(StringUtils.md5(etag.toString())) + "\"";
+    }
+
+    static boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+
+            if (candidate.equals(etag) || candidate.equals("*")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Adds the given {@code hook} so that it receives the keys to purge
+     * in addition to the {@link PurgeHook} implementations found on the
+     * classpath.
+     *
+     * @param hook Can't be {@code null}.
+     */
+    public static void addPurgeHook(PurgeHook hook) {
+        PURGE_HOOKS.add(hook);
+    }
+
+    /**
+     * Removes the given {@code hook} that was previously added.
+     *
+     * @param hook May be {@code null}.
+     */
+    public static void removePurgeHook(PurgeHook hook) {
+        PURGE_HOOKS.remove(hook);
+    }
+
+    /**
+     * Passes the key for the given {@code object} and the key for its type
+     * to all purge hooks. Errors in the hooks are logged and don't
+     * propagate.
+     *
+     * @param object Can't be {@code null}.
+     */
+    public static void purge(Object object) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        State state = State.getInstance(object);
+
+        purge(state.getId(), state.getTypeId());
+    }
+
+    // Passes the keys for the object with the given ID and type to all
+    // purge hooks.
+    static void purge(UUID id, UUID typeId) {
+        Set<String> keys = new LinkedHashSet<String>();
+
+        keys.add(getKey(id));
+
+        if (typeId != null) {
+            keys.add(getTypeKey(typeId));
+        }
+
+        keys = Collections.unmodifiableSet(keys);
+        List<PurgeHook> hooks = new ArrayList<PurgeHook>(DEFAULT_PURGE_HOOKS.get());
+
+        hooks.addAll(PURGE_HOOKS);
+
+        for (PurgeHook hook : hooks) {
+            try {
+                hook.purge(keys);
+
+            } catch (RuntimeException error) {
+                LOGGER.warn(String.format("Can't purge %s using [%s]!", keys, hook.getClass().getName()), error);
+            }
+        }
+    }
+
+    // ETag of a page along with the objects and types it was rendered
+    // from.
+    private static final class Validator {
+
+        private final Set<UUID> ids;
+        private final Set<UUID> typeIds;
+        private final String etag;
+        private final long renderStart;
+
+        public Validator(Set<UUID> ids, Set<UUID> typeIds, String etag, long renderStart) {
+            this.ids = ids;
+            this.typeIds = typeIds;
+            this.etag = etag;
+            this.renderStart = renderStart;
+        }
+
+        public boolean isCurrent() {
+            for (UUID typeId : typeIds) {
+                Long changed = TYPE_CHANGES.get(typeId);
+
+                if (changed != null && changed >= renderStart) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * {@link HttpServletResponse} that holds the output written to it
+     * until it's {@linkplain #release released}, so that the headers can
+     * still be set after the page is rendered.
+     */
+    public static final class BufferingResponse extends HttpServletResponseWrapper {
+
+        private final StringBuilder buffer = new StringBuilder();
+        private PrintWriter writer;
+        private boolean released;
+
+        public BufferingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        /**
+         * Writes the held output to the wrapped response, and passes any
+         * further output straight through.
+         */
+        public void release() throws IOException {
+            if (released) {
+                return;
+            }
+
+            released = true;
+
+            if (buffer.length() > 0) {
+                super.getWriter().write(buffer.toString());
+                buffer.setLength(0);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            release();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new BufferingWriter());
+            }
+
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (released) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            buffer.setLength(0);
+            super.resetBuffer();
+        }
+
+        @Override
+        public void reset() {
+            buffer.setLength(0);
+            super.reset();
+        }
+
+        private final class BufferingWriter extends Writer {
+
+            @Override
+            public void write(char[] chars, int offset, int length) throws IOException {
+                if (released) {
+                    BufferingResponse.super.getWriter().write(chars, offset, length);
+
+                } else {
+                    buffer.append(chars, offset, length);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (released) {
+                    BufferingResponse.super.getWriter().flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                release();
+                BufferingResponse.super.getWriter().close();
+            }
+        }
+    }
+
+    /** Records the types of the objects saved or deleted on this node. */
+    public static class TypeChangeModification extends Modification<Object> {
+
+        @Override
+        protected void afterSave() {
+            if (!Content.Static.isMetadataOnlySave(getState())) {
+                recordTypeChange(getState().getTypeId());
+            }
+        }
+
+        @Override
+        protected void afterDelete() {
+            recordTypeChange(getState().getTypeId());
+        }
+    }
+
+    /** Receives the surrogate keys of the objects that changed. */
+    public interface PurgeHook {
+
+        /**
+         * Purges the cached pages tagged with any of the given
+         * {@code keys}.
+         *
+         * @param keys Never {@code null}.
+         */
+        void purge(Set<String> keys);
+    }
+}
@@ -14,7 +14,6 @@ import javax.script.ScriptException;
 import com.psddev.dari.db.Database;
 import com.psddev.dari.db.Modification;
 import com.psddev.dari.db.ObjectType;
-import com.psddev.dari.db.Query;
 import com.psddev.dari.db.State;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.StringUtils;
@@ -242,13 +241,7 @@ public class Template extends Page {
          * Returns a cached list of all templates in the given {@code site}.
          */
         public static List<Template> findAll(Site site) {
-            List<Template> templates = new ArrayList<Template>();
-            for (Template template : Query.from(Template.class).sortAscending("name").selectAll()) {
-                if (Site.Static.isObjectAccessible(site, template)) {
-                    templates.add(template);
-                }
-            }
-            return templates;
+            return new ArrayList<Template>(TemplateIndex.getInstance().getTemplates(site));
         }
 
         /**
@@ -266,15 +259,7 @@ public class Template extends Page {
                 return template;
             }
 
-            ObjectType objectType = objectState.getType();
-            List<Template> usable = new ArrayList<Template>();
-
-            for (Template t : Query.from(Template.class).sortAscending("name").selectAll()) {
-                if (Site.Static.isObjectAccessible(site, t) &&
-                        t.getContentTypes().contains(objectType)) {
-                    usable.add(t);
-                }
-            }
+            List<Template> usable = TemplateIndex.getInstance().getTemplates(site, objectState.getType());
 
             return usable.size() == 1 ? usable.get(0) : null;
         }
@@ -292,14 +277,11 @@ public class Template extends Page {
                 State state = State.getInstance(object);
                 Site owner = state.as(Site.ObjectModification.class).getOwner();
                 ObjectType type = state.getType();
+                TemplateIndex index = TemplateIndex.getInstance();
 
-                for (Template template : Query.from(Template.class).sortAscending("name").selectAll()) {
-                    if (template.getContentTypes().contains(type) &&
-                            (owner == null ||
-                            Site.Static.isObjectAccessible(owner, template))) {
-                        templates.add(template);
-                    }
-                }
+                templates.addAll(owner != null ?
+                        index.getTemplates(owner, type) :
+                        index.getTemplates(type));
             }
 
             return templates;
@@ -333,6 +315,16 @@ public class Template extends Page {
         }
     }
 
+    @Override
+    protected void afterSave() {
+        ConfigurationFeed.notifyChanged(Template.class);
+    }
+
+    @Override
+    protected void afterDelete() {
+        ConfigurationFeed.notifyChanged(Template.class);
+    }
+
     /** @deprecated Use {@link ObjectModification} or {@link Static} instead. */
     @Deprecated
     public static final class Global {
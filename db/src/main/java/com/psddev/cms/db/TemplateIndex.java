@@ -0,0 +1,136 @@
+package com.psddev.cms.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.db.Query;
+
+/**
+ * Index of all templates by site and content type.
+ *
+ * <p>All templates are loaded once, and the lists for each site and
+ * content type are built on first use. The index is discarded when a
+ * {@link Template} or {@link Site} changes according to the
+ * {@link ConfigurationFeed}.</p>
+ */
+@SuppressWarnings("deprecation")
+class TemplateIndex {
+
+    private static final ConfigurationFeed.CachedValue<TemplateIndex> INSTANCE = new ConfigurationFeed.CachedValue<TemplateIndex>(Template.class, Site.class) {
+
+        @Override
+        protected TemplateIndex produce() {
+            return new TemplateIndex();
+        }
+    };
+
+    private final List<Template> templates;
+    private final ConcurrentMap<String, List<Template>> templatesBySite = new ConcurrentHashMap<String, List<Template>>();
+    private final ConcurrentMap<String, List<Template>> templatesBySiteAndType = new ConcurrentHashMap<String, List<Template>>();
+
+    /**
+     * Returns the current index, rebuilding it if any templates or sites
+     * have changed.
+     *
+     * @return Never {@code null}.
+     */
+    public static TemplateIndex getInstance() {
+        return INSTANCE.get();
+    }
+
+    /** Discards the current index so that it's rebuilt on next use. */
+    public static void invalidate() {
+        INSTANCE.invalidate();
+    }
+
+    private TemplateIndex() {
+        this.templates = Collections.unmodifiableList(Query.from(Template.class).sortAscending("name").selectAll());
+    }
+
+    /**
+     * Returns all templates, sorted by their names.
+     *
+     * @return Never {@code null}. Unmodifiable.
+     */
+    public List<Template> getTemplates() {
+        return templates;
+    }
+
+    /**
+     * Returns all templates that are accessible by the given {@code site},
+     * sorted by their names.
+     *
+     * @param site If {@code null}, only the templates without an owner
+     * are returned.
+     * @return Never {@code null}. Unmodifiable.
+     */
+    public List<Template> getTemplates(Site site) {
+        String key = site != null ? site.getId().toString() : "";
+        List<Template> siteTemplates = templatesBySite.get(key);
+
+        if (siteTemplates == null) {
+            siteTemplates = new ArrayList<Template>();
+
+            for (Template template : templates) {
+                if (Site.Static.isObjectAccessible(site, template)) {
+                    siteTemplates.add(template);
+                }
+            }
+
+            siteTemplates = Collections.unmodifiableList(siteTemplates);
+            templatesBySite.putIfAbsent(key, siteTemplates);
+        }
+
+        return siteTemplates;
+    }
+
+    /**
+     * Returns all templates that can be used with the given {@code type},
+     * sorted by their names.
+     *
+     * @return Never {@code null}. Unmodifiable.
+     */
+    public List<Template> getTemplates(ObjectType type) {
+        return findTemplates("*", templates, type);
+    }
+
+    /**
+     * Returns all templates that are accessible by the given {@code site}
+     * and can be used with the given {@code type}, sorted by their names.
+     *
+     * @param site If {@code null}, only the templates without an owner
+     * are returned.
+     * @return Never {@code null}. Unmodifiable.
+     */
+    public List<Template> getTemplates(Site site, ObjectType type) {
+        return findTemplates(site != null ? site.getId().toString() : "", getTemplates(site), type);
+    }
+
+    private List<Template> findTemplates(String siteKey, List<Template> siteTemplates, ObjectType type) {
+        if (type == null) {
+            return Collections.emptyList();
+        }
+
+        String key = siteKey + "/" + type.getId();
+        List<Template> typeTemplates = templatesBySiteAndType.get(key);
+
+        if (typeTemplates == null) {
+            typeTemplates = new ArrayList<Template>();
+
+            for (Template template : siteTemplates) {
+                if (template.getContentTypes().contains(type)) {
+                    typeTemplates.add(template);
+                }
+            }
+
+            typeTemplates = Collections.unmodifiableList(typeTemplates);
+            templatesBySiteAndType.putIfAbsent(key, typeTemplates);
+        }
+
+        return typeTemplates;
+    }
+}
@@ -1,5 +1,7 @@
 package com.psddev.cms.db;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.psddev.dari.db.CompoundPredicate;
 import com.psddev.dari.db.DatabaseEnvironment;
 import com.psddev.dari.db.ObjectField;
@@ -9,21 +11,32 @@ import com.psddev.dari.db.Predicate;
 import com.psddev.dari.db.PredicateParser;
 import com.psddev.dari.db.Query;
 import com.psddev.dari.db.Record;
-import com.psddev.dari.db.Sorter;
 import com.psddev.dari.db.State;
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public class ToolSearch extends Record {
 
     public static final String FIELD_PREFIX = "q.";
     public static final String OPERATOR_PREFIX = "qo.";
 
+    private static final int WINDOW_BLOCK_SIZE = Settings.getOrDefault(int.class, "cms/tool/searchWindowBlockSize", 50);
+    private static final int WINDOW_MAXIMUM_BLOCKS = 10;
+
+    private static final Cache<UUID, Window> WINDOWS = CacheBuilder.
+            newBuilder().
+            maximumSize(1000).
+            expireAfterAccess(30, TimeUnit.MINUTES).
+            build();
+
     private ObjectType queryType;
     private String sortFieldName;
 
@@ -164,27 +177,244 @@ public class ToolSearch extends Record {
         return query;
     }
 
+    /**
+     * Returns a query for the items before the given {@code state}, sorted
+     * so that the nearest one is first.
+     */
     public Query<?> toPreviousQuery(State state) {
-        String sortFieldName = getSortFieldName();
-        Query<?> query = toQuery().and(sortFieldName + " <= ? and _id != ?", state.get(sortFieldName), state.getId());
-
-        for (ListIterator<Sorter> i = query.getSorters().listIterator(); i.hasNext();) {
-            Sorter sorter = i.next();
-            if (Sorter.ASCENDING_OPERATOR.equals(sorter.getOperator())) {
-                List<Object> options = sorter.getOptions();
-                if (options != null &&
-                        options.size() > 0 &&
-                        sortFieldName.equals(options.get(0))) {
-                    i.set(new Sorter(Sorter.DESCENDING_OPERATOR, options));
-                }
+        return toAdjacentQuery(state.get(getSortField().getInternalName()), state.getId(), false);
+    }
+
+    /**
+     * Returns a query for the items after the given {@code state}, sorted
+     * so that the nearest one is first.
+     */
+    public Query<?> toNextQuery(State state) {
+        return toAdjacentQuery(state.get(getSortField().getInternalName()), state.getId(), true);
+    }
+
+    // Uses the sort value and the ID as the keyset so that the items with
+    // the same sort value are neither skipped nor repeated. The items
+    // without a sort value never match the comparisons, so they're treated
+    // as coming after all the others, in the order of their IDs.
+    private Query<?> toAdjacentQuery(Object value, UUID id, boolean forward) {
+        ObjectField sortField = getSortField();
+        String name = sortField.getInternalName();
+        Query<?> query = toQuery();
+
+        query.getSorters().clear();
+
+        if (value == null) {
+            query.and(name + " = missing and _id" + (forward ? " > ?" : " < ?"), id);
+
+            if (forward) {
+                query.sortAscending("_id");
+
+            } else {
+                query.sortDescending("_id");
             }
+
+            return query;
+        }
+
+        boolean ascending = forward != ObjectField.DATE_TYPE.equals(sortField.getInternalItemType());
+        String operator = ascending ? " > ?" : " < ?";
+
+        query.and(name + operator + " or (" + name + " = ? and _id" + operator + ")", value, value, id);
+
+        if (ascending) {
+            query.sortAscending(name).sortAscending("_id");
+
+        } else {
+            query.sortDescending(name).sortDescending("_id");
         }
 
         return query;
     }
 
-    public Query<?> toNextQuery(State state) {
-        String sortFieldName = getSortFieldName();
-        return toQuery().and(sortFieldName + " >= ? and _id != ?", state.get(sortFieldName), state.getId());
+    // Returns a query for the first items without a sort value, or for the
+    // last items with one, nearest to the boundary between them first.
+    private Query<?> toBoundaryQuery(boolean missing) {
+        ObjectField sortField = getSortField();
+        String name = sortField.getInternalName();
+        Query<?> query = toQuery();
+
+        query.getSorters().clear();
+
+        if (missing) {
+            query.and(name + " = missing").sortAscending("_id");
+
+        } else if (ObjectField.DATE_TYPE.equals(sortField.getInternalItemType())) {
+            query.and(name + " != missing").sortAscending(name).sortAscending("_id");
+
+        } else {
+            query.and(name + " != missing").sortDescending(name).sortDescending("_id");
+        }
+
+        return query;
+    }
+
+    /**
+     * Returns the ID of the item right before the given {@code state} in
+     * the results of this search.
+     *
+     * <p>The IDs around the given {@code state} are fetched in blocks and
+     * kept in memory, so stepping through the results only queries again
+     * when reaching either end of the fetched blocks.</p>
+     *
+     * @return {@code null} if there isn't one.
+     */
+    public UUID findPreviousId(State state) {
+        return findAdjacentId(state, false);
+    }
+
+    /**
+     * Returns the ID of the item right after the given {@code state} in
+     * the results of this search.
+     *
+     * @return {@code null} if there isn't one.
+     * @see #findPreviousId
+     */
+    public UUID findNextId(State state) {
+        return findAdjacentId(state, true);
+    }
+
+    private UUID findAdjacentId(State state, boolean forward) {
+        String queryKey = toQuery().toString();
+        UUID id = state.getId();
+        Window window = WINDOWS.getIfPresent(getId());
+
+        if (window == null ||
+                !window.queryKey.equals(queryKey) ||
+                !window.contains(id)) {
+            window = new Window(queryKey);
+
+            window.fill(this, state);
+            WINDOWS.put(getId(), window);
+        }
+
+        synchronized (window) {
+            int index = window.ids.indexOf(id);
+
+            if (forward) {
+                if (index + 1 >= window.ids.size() && !window.end) {
+                    window.extend(this, true);
+                    index = window.ids.indexOf(id);
+                }
+
+                return index > -1 && index + 1 < window.ids.size() ? window.ids.get(index + 1) : null;
+
+            } else {
+                if (index == 0 && !window.start) {
+                    window.extend(this, false);
+                    index = window.ids.indexOf(id);
+                }
+
+                return index > 0 ? window.ids.get(index - 1) : null;
+            }
+        }
+    }
+
+    // Fetches a block of the IDs and the sort values after or before the
+    // given keyset, crossing between the items with sort values and the
+    // ones without if necessary.
+    private List<Object[]> fetchAdjacent(Object value, UUID id, boolean forward) {
+        List<Object[]> block = new ArrayList<Object[]>();
+
+        fetchInto(block, toAdjacentQuery(value, id, forward));
+
+        if (block.size() < WINDOW_BLOCK_SIZE && (value == null) != forward) {
+            fetchInto(block, toBoundaryQuery(forward));
+        }
+
+        return block;
+    }
+
+    private void fetchInto(List<Object[]> block, Query<?> query) {
+        String name = getSortField().getInternalName();
+
+        for (Object item : query.select(0, WINDOW_BLOCK_SIZE - block.size()).getItems()) {
+            State itemState = State.getInstance(item);
+
+            block.add(new Object[] { itemState.getId(), itemState.get(name) });
+        }
+    }
+
+    // IDs and sort values of the results around the current item.
+    private static final class Window {
+
+        private final String queryKey;
+        private final List<UUID> ids = new ArrayList<UUID>();
+        private final List<Object> values = new ArrayList<Object>();
+        private boolean start;
+        private boolean end;
+
+        public Window(String queryKey) {
+            this.queryKey = queryKey;
+        }
+
+        public synchronized boolean contains(UUID id) {
+            return ids.contains(id);
+        }
+
+        public synchronized void fill(ToolSearch search, State state) {
+            Object value = state.get(search.getSortField().getInternalName());
+            List<Object[]> before = search.fetchAdjacent(value, state.getId(), false);
+            List<Object[]> after = search.fetchAdjacent(value, state.getId(), true);
+
+            Collections.reverse(before);
+            add(before, false);
+            ids.add(state.getId());
+            values.add(value);
+            add(after, true);
+
+            start = before.size() < WINDOW_BLOCK_SIZE;
+            end = after.size() < WINDOW_BLOCK_SIZE;
+        }
+
+        public synchronized void extend(ToolSearch search, boolean forward) {
+            int edge = forward ? ids.size() - 1 : 0;
+            List<Object[]> block = search.fetchAdjacent(values.get(edge), ids.get(edge), forward);
+            boolean reached = block.size() < WINDOW_BLOCK_SIZE;
+
+            if (forward) {
+                add(block, true);
+                end = reached;
+
+            } else {
+                Collections.reverse(block);
+                add(block, false);
+                start = reached;
+            }
+
+            // Drop the blocks farthest away to bound the memory use.
+            int excess = ids.size() - WINDOW_BLOCK_SIZE * WINDOW_MAXIMUM_BLOCKS;
+
+            if (excess > 0) {
+                if (forward) {
+                    ids.subList(0, excess).clear();
+                    values.subList(0, excess).clear();
+                    start = false;
+
+                } else {
+                    ids.subList(ids.size() - excess, ids.size()).clear();
+                    values.subList(values.size() - excess, values.size()).clear();
+                    end = false;
+                }
+            }
+        }
+
+        private void add(List<Object[]> block, boolean append) {
+            List<UUID> blockIds = new ArrayList<UUID>();
+            List<Object> blockValues = new ArrayList<Object>();
+
+            for (Object[] entry : block) {
+                blockIds.add((UUID) entry[0]);
+                blockValues.add(entry[1]);
+            }
+
+            ids.addAll(append ? ids.size() : 0, blockIds);
+            values.addAll(append ? values.size() : 0, blockValues);
+        }
     }
 }
@@ -22,9 +22,9 @@ import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.http.HttpServletRequest;
 
 import com.google.common.io.BaseEncoding;
-import com.psddev.cms.tool.CmsTool;
 import com.psddev.cms.tool.Dashboard;
 import com.psddev.cms.tool.SearchResultSelection;
+import com.psddev.cms.tool.ToolMetadataCache;
 import com.psddev.dari.db.Query;
 import com.psddev.dari.db.Record;
 import com.psddev.dari.db.State;
@@ -522,7 +522,7 @@ public class ToolUser extends Record implements ToolEntity {
      * @return The tool user that holds the lock. Never {@code null}.
      */
     public ToolUser lockContent(UUID id) {
-        if (Query.from(CmsTool.class).first().isDisableContentLocking()) {
+        if (ToolMetadataCache.getCmsTool().isDisableContentLocking()) {
             return this;
         }
 
@@ -8,10 +8,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.psddev.dari.db.Database;
 import com.psddev.dari.db.Modification;
 import com.psddev.dari.db.ObjectType;
@@ -19,8 +23,8 @@ import com.psddev.dari.db.Query;
 import com.psddev.dari.db.Record;
 import com.psddev.dari.db.State;
 import com.psddev.dari.util.ErrorUtils;
-import com.psddev.dari.util.PeriodicValue;
-import com.psddev.dari.util.PullThroughValue;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
 
 /**
  * Changes objects based on rules.
@@ -106,6 +110,16 @@ public class Variation extends Record {
         this.operation = operation;
     }
 
+    @Override
+    protected void afterSave() {
+        ConfigurationFeed.notifyChanged(Variation.class);
+    }
+
+    @Override
+    protected void afterDelete() {
+        ConfigurationFeed.notifyChanged(Variation.class);
+    }
+
     /**
      * @deprecated No replacement.
      */
@@ -148,31 +162,70 @@ public class Variation extends Record {
         private Static() {
         }
 
-        private static final PullThroughValue<PeriodicValue<List<Variation>>>
-                ALL = new PullThroughValue<PeriodicValue<List<Variation>>>() {
+        private static final Cache<String, Varied> VARIED = CacheBuilder.
+                newBuilder().
+                maximumSize(Settings.getOrDefault(long.class, "cms/db/variationCacheMaximumSize", 10000L)).
+                build();
+
+        // Objects varied with an older snapshot are ignored, so they're
+        // only cleared to free the memory.
+        private static final ConfigurationFeed.CachedValue<Snapshot> SNAPSHOT = new ConfigurationFeed.CachedValue<Snapshot>(Variation.class) {
 
             @Override
-            protected PeriodicValue<List<Variation>> produce() {
-                return new PeriodicValue<List<Variation>>() {
-
-                    @Override
-                    protected List<Variation> update() {
-                        Query<Variation> query = Query.from(Variation.class).sortAscending("position").using(Database.Static.getDefaultOriginal());
-                        Date cacheUpdate = getUpdateDate();
-                        Date databaseUpdate = query.lastUpdate();
-
-                        if (databaseUpdate == null || (cacheUpdate != null && !databaseUpdate.after(cacheUpdate))) {
-                            List<Variation> variations = get();
-                            return variations != null ? variations : Collections.<Variation>emptyList();
-                        }
-
-                        LOGGER.info("Loading variations");
-                        return query.selectAll();
-                    }
-                };
+            protected Snapshot produce() {
+                LOGGER.info("Loading variations");
+                VARIED.invalidateAll();
+
+                return new Snapshot(Query.
+                        from(Variation.class).
+                        sortAscending("position").
+                        using(Database.Static.getDefaultOriginal()).
+                        selectAll());
             }
         };
 
+        // Returns the cached variations, loading them if they were
+        // discarded by a change in the configuration feed.
+        private static Snapshot getSnapshot() {
+            return SNAPSHOT.get();
+        }
+
+        /** Returns {@code true} if there are any variations. */
+        public static boolean hasVariations() {
+            return !getSnapshot().all.isEmpty();
+        }
+
+        /**
+         * Returns {@code true} if the objects varied for a
+         * {@linkplain Profile#getSignature profile signature} should be
+         * cached and shared with the other profiles with the same
+         * signature.
+         *
+         * <p>This is only safe if none of the rules depend on anything
+         * other than what's in the signature, so it must be turned on
+         * explicitly with {@code cms/db/variationCacheEnabled}.</p>
+         */
+        public static boolean isCacheEnabled() {
+            return Settings.get(boolean.class, "cms/db/variationCacheEnabled");
+        }
+
+        // Returns the key for the given object varied for the given profile,
+        // or null if it shouldn't be cached.
+        private static String createCacheKey(State state, Profile profile) {
+            if (!isCacheEnabled()) {
+                return null;
+            }
+
+            Date updateDate = state.as(Content.ObjectModification.class).getUpdateDate();
+            String signature = profile.getSignature();
+
+            if (updateDate == null || signature == null) {
+                return null;
+            }
+
+            return state.getId() + "/" + updateDate.getTime() + "/" + signature;
+        }
+
         /**
          * Applies all variations to the given {@code object} using the
          * given {@code profile}.
@@ -184,9 +237,28 @@ public class Variation extends Record {
             ErrorUtils.errorIfNull(object, "object");
             ErrorUtils.errorIfNull(profile, "profile");
 
+            State state = State.getInstance(object);
             List<Variation> applied = getApplied(object);
+            Snapshot snapshot = getSnapshot();
+            String cacheKey = applied.isEmpty() ? createCacheKey(state, profile) : null;
+
+            if (cacheKey != null) {
+                Varied varied = VARIED.getIfPresent(cacheKey);
+
+                if (varied != null && varied.snapshot == snapshot) {
+                    if (varied.valuesJson != null) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> values = (Map<String, Object>) ObjectUtils.fromJson(varied.valuesJson);
 
-            for (Variation variation : ALL.get().get()) {
+                        state.setValues(values);
+                    }
+
+                    applied.addAll(varied.applied);
+                    return;
+                }
+            }
+
+            for (Variation variation : snapshot.all) {
                 try {
                     if (!applied.contains(variation) &&
                             variation.getRule().evaluate(variation, profile, object)) {
@@ -198,10 +270,17 @@ public class Variation extends Record {
                     LOGGER.warn(String.format(
                             "Can't apply variation [%s] to [%s]!",
                             variation.getId(),
-                            State.getInstance(object).getId()),
+                            state.getId()),
                             error);
                 }
             }
+
+            if (cacheKey != null) {
+                VARIED.put(cacheKey, new Varied(
+                        snapshot,
+                        applied.isEmpty() ? null : ObjectUtils.toJson(state.getSimpleValues()),
+                        new ArrayList<Variation>(applied)));
+            }
         }
 
         /**
@@ -233,19 +312,72 @@ public class Variation extends Record {
          * @return Never {@code null}.
          */
         public static List<Variation> getApplicable(ObjectType type) {
-            List<Variation> applicable = new ArrayList<Variation>();
+            return new ArrayList<Variation>(getSnapshot().getApplicable(type));
+        }
+    }
+
+    // All variations along with the index of the ones applicable to each
+    // type, built lazily and discarded together.
+    private static final class Snapshot {
+
+        private final List<Variation> all;
+        private final ConcurrentMap<ObjectType, List<Variation>> applicableByType = new ConcurrentHashMap<ObjectType, List<Variation>>();
+        private final List<Variation> untyped;
+
+        public Snapshot(List<Variation> all) {
+            List<Variation> untyped = new ArrayList<Variation>();
+
+            for (Variation variation : all) {
+                if (variation.getContentTypes().isEmpty()) {
+                    untyped.add(variation);
+                }
+            }
+
+            this.all = Collections.unmodifiableList(all);
+            this.untyped = Collections.unmodifiableList(untyped);
+        }
+
+        public List<Variation> getApplicable(ObjectType type) {
+            if (type == null) {
+                return untyped;
+            }
+
+            List<Variation> applicable = applicableByType.get(type);
 
-            for (Variation variation : ALL.get().get()) {
-                Set<ObjectType> types = variation.getContentTypes();
-                if (types.isEmpty() || types.contains(type)) {
-                    applicable.add(variation);
+            if (applicable == null) {
+                applicable = new ArrayList<Variation>();
+
+                for (Variation variation : all) {
+                    Set<ObjectType> types = variation.getContentTypes();
+
+                    if (types.isEmpty() || types.contains(type)) {
+                        applicable.add(variation);
+                    }
                 }
+
+                applicable = Collections.unmodifiableList(applicable);
+                applicableByType.put(type, applicable);
             }
 
             return applicable;
         }
     }
 
+    // Values of an object after applying the variations in a snapshot, or
+    // null if none applied.
+    private static final class Varied {
+
+        private final Snapshot snapshot;
+        private final String valuesJson;
+        private final List<Variation> applied;
+
+        public Varied(Snapshot snapshot, String valuesJson, List<Variation> applied) {
+            this.snapshot = snapshot;
+            this.valuesJson = valuesJson;
+            this.applied = applied;
+        }
+    }
+
     // --- Deprecated ---
 
     /** @deprecated Use {@link Static#applyAll} instead. */
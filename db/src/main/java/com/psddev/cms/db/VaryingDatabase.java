@@ -8,6 +8,7 @@ import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 
 import com.psddev.cms.tool.AuthenticationFilter;
+import com.psddev.dari.db.Database;
 import com.psddev.dari.db.ForwardingDatabase;
 import com.psddev.dari.db.Query;
 import com.psddev.dari.util.PaginatedResult;
@@ -50,6 +51,30 @@ public class VaryingDatabase extends ForwardingDatabase {
         this.profile = profile;
     }
 
+    // Returns the database underneath the request-bound varying and
+    // identity map wrappers, so that it can be used off the request thread.
+    static Database findUnboundDatabase(Database database) {
+        while (database instanceof IdentityMapDatabase ||
+                database instanceof VaryingDatabase) {
+            database = ((ForwardingDatabase) database).getDelegate();
+        }
+
+        return database;
+    }
+
+    // Returns the profile of the varying wrapper within the given database.
+    static Profile findProfile(Database database) {
+        while (database instanceof ForwardingDatabase) {
+            if (database instanceof VaryingDatabase) {
+                return ((VaryingDatabase) database).getProfile();
+            }
+
+            database = ((ForwardingDatabase) database).getDelegate();
+        }
+
+        return null;
+    }
+
     // --- ForwardingDatabase support ---
 
     @Override
@@ -1,6 +1,9 @@
 package com.psddev.cms.db;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -183,39 +186,57 @@ public class WorkStream extends Record {
     /**
      * Returns the next item that the given {@code user} can work on.
      *
+     * <p>Candidate items are leased from a prefetched {@link WorkStreamQueue},
+     * and only the user's current item is written when it changes.</p>
+     *
      * @param user Can't be {@code null}.
      */
     public Object next(ToolUser user) {
         ErrorUtils.errorIfNull(user, "user");
 
         String userId = user.getId().toString();
+        List<UUID> skipped = skippedItems != null ? skippedItems.get(userId) : null;
         State next = currentItems != null ?
                 State.getInstance(Query.from(Object.class).where("_id = ?", currentItems.get(userId)).first()) :
                 null;
 
         if (next != null &&
                 (next.as(Data.class).isComplete(this) ||
-                (skippedItems != null && skippedItems.get(userId) != null && skippedItems.get(userId).contains(next.getId())))) {
+                (skipped != null && skipped.contains(next.getId())))) {
             next = null;
         }
 
         if (next == null) {
-            Query<?> query = getQuery().clone().
-                    not("cms.workstream.completeIds ^= ?", getId().toString() + ",");
+            WorkStreamQueue queue = WorkStreamQueue.getInstance(this);
+            Set<UUID> skippedIds = skipped != null ? new HashSet<UUID>(skipped) : Collections.<UUID>emptySet();
+            Collection<UUID> leasedIds = currentItems != null ? currentItems.values() : Collections.<UUID>emptySet();
 
-            if (currentItems != null) {
-                query.and("_id != ?", currentItems.values());
-            }
+            for (UUID nextId; (nextId = queue.lease(this, user.getId(), skippedIds, leasedIds)) != null;) {
+                next = State.getInstance(Query.from(Object.class).where("_id = ?", nextId).first());
 
-            if (skippedItems != null) {
-                query.and("_id != ?", skippedItems.get(userId));
-            }
+                if (next != null && !next.as(Data.class).isComplete(this)) {
+                    break;
+                }
 
-            next = State.getInstance(query.first());
+                next = null;
+            }
 
             if (next != null) {
-                getState().putAtomically("currentItems/" + userId, next.getId());
-                save();
+                State stored = findStoredState();
+
+                if (stored != null) {
+                    stored.putAtomically("currentItems/" + userId, next.getId());
+                    stored.save();
+                }
+
+                if (currentItems == null) {
+                    currentItems = new HashMap<String, UUID>();
+                }
+
+                currentItems.put(userId, next.getId());
+
+            } else {
+                queue.release(user.getId());
             }
         }
 
@@ -230,8 +251,28 @@ public class WorkStream extends Record {
     public void skip(ToolUser user, Object item) {
         ErrorUtils.errorIfNull(user, "user");
 
-        getState().addAtomically("skippedItems/" + user.getId().toString(), State.getInstance(item).getId());
-        save();
+        String userId = user.getId().toString();
+        UUID itemId = State.getInstance(item).getId();
+        State stored = findStoredState();
+
+        if (stored != null) {
+            stored.addAtomically("skippedItems/" + userId, itemId);
+            stored.save();
+        }
+
+        if (skippedItems == null) {
+            skippedItems = new HashMap<String, List<UUID>>();
+        }
+
+        List<UUID> skipped = skippedItems.get(userId);
+
+        if (skipped == null) {
+            skipped = new ArrayList<UUID>();
+            skippedItems.put(userId, skipped);
+        }
+
+        skipped.add(itemId);
+        WorkStreamQueue.getInstance(this).release(user.getId());
     }
 
     /**
@@ -243,10 +284,35 @@ public class WorkStream extends Record {
         ErrorUtils.errorIfNull(user, "user");
 
         String userId = user.getId().toString();
+        State stored = findStoredState();
+
+        if (stored != null) {
+            stored.putAtomically("currentItems/" + userId, null);
+            stored.putAtomically("skippedItems/" + userId, null);
+            stored.save();
+        }
+
+        if (currentItems != null) {
+            currentItems.remove(userId);
+        }
+
+        if (skippedItems != null) {
+            skippedItems.remove(userId);
+        }
+        WorkStreamQueue.getInstance(this).release(user.getId());
+    }
 
-        getState().putAtomically("currentItems/" + userId, null);
-        getState().putAtomically("skippedItems/" + userId, null);
-        save();
+    // Returns a fresh copy of this work stream to apply the atomic
+    // operations to, so that saving them doesn't overwrite the rest of it.
+    private State findStoredState() {
+        WorkStream stored = Query.
+                from(WorkStream.class).
+                where("_id = ?", getId()).
+                master().
+                noCache().
+                first();
+
+        return stored != null ? stored.getState() : null;
     }
 
     @FieldInternalNamePrefix("cms.workstream.")
@@ -0,0 +1,280 @@
+package com.psddev.cms.db;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.db.Sorter;
+import com.psddev.dari.db.State;
+import com.psddev.dari.util.Settings;
+
+/**
+ * Node-local queue of candidate items for a {@link WorkStream}.
+ *
+ * <p>Candidate IDs are prefetched from the work stream query in batches
+ * and leased out to one user at a time, so that finding the next item
+ * doesn't require a query with an ever-growing exclusion predicate.
+ * Batches keep the sort of the work stream, with the ID as the tiebreaker,
+ * and start right after the sort values and the ID of the last prefetched
+ * item, so deep streams don't cost an offset scan. Sorts that can't be
+ * continued that way, such as relevancy, fall back to an offset.</p>
+ *
+ * <p>Items that are leased to other users are retried after the rest of
+ * the queue. Once the end of the stream is reached, it isn't queried
+ * again for {@code cms/tool/workStreamRescanInterval} milliseconds.</p>
+ */
+class WorkStreamQueue {
+
+    private static final int PREFETCH_SIZE = Settings.getOrDefault(int.class, "cms/tool/workStreamPrefetchSize", 50);
+
+    private static final long RESCAN_INTERVAL = Settings.getOrDefault(long.class, "cms/tool/workStreamRescanInterval", 60000L);
+
+    private static final Cache<UUID, WorkStreamQueue> INSTANCES = CacheBuilder.
+            newBuilder().
+            expireAfterAccess(1, TimeUnit.HOURS).
+            build();
+
+    private final Deque<UUID> candidates = new ArrayDeque<>();
+    private final Set<UUID> queuedIds = new HashSet<>();
+    private final Map<UUID, UUID> leases = new HashMap<>();
+    private List<Object> lastValues;
+    private UUID lastId;
+    private long fetched;
+    private long exhaustedAt;
+
+    /**
+     * Returns the queue associated with the given {@code workStream}.
+     *
+     * @param workStream Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    public static WorkStreamQueue getInstance(WorkStream workStream) {
+        UUID workStreamId = workStream.getId();
+        WorkStreamQueue queue = INSTANCES.getIfPresent(workStreamId);
+
+        if (queue == null) {
+            queue = new WorkStreamQueue();
+            WorkStreamQueue existing = INSTANCES.asMap().putIfAbsent(workStreamId, queue);
+
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+
+        return queue;
+    }
+
+    /**
+     * Leases the next candidate item to the user with the given
+     * {@code userId}, releasing any item that was leased to them before.
+     *
+     * @param workStream Can't be {@code null}.
+     * @param userId Can't be {@code null}.
+     * @param skippedIds IDs of the items that the user skipped.
+     * Can't be {@code null}.
+     * @param leasedIds IDs of the items that are leased to other users
+     * on any node. Can't be {@code null}.
+     * @return May be {@code null} if there aren't any more items.
+     */
+    public synchronized UUID lease(WorkStream workStream, UUID userId, Set<UUID> skippedIds, Collection<UUID> leasedIds) {
+        leases.remove(userId);
+
+        List<UUID> deferred = new ArrayList<>();
+        List<UUID> retries = new ArrayList<>();
+        UUID leased = null;
+
+        while (leased == null) {
+            UUID candidateId = candidates.pollFirst();
+
+            if (candidateId == null) {
+                if (prefetch(workStream)) {
+                    continue;
+                }
+
+                break;
+            }
+
+            // Skipped items stay queued for the other users.
+            if (skippedIds.contains(candidateId)) {
+                deferred.add(candidateId);
+                continue;
+            }
+
+            // Items leased to other users go to the back of the queue in
+            // case they're released without being completed.
+            if (leases.containsValue(candidateId) ||
+                    leasedIds.contains(candidateId)) {
+                retries.add(candidateId);
+                continue;
+            }
+
+            queuedIds.remove(candidateId);
+            leased = candidateId;
+        }
+
+        for (ListIterator<UUID> i = deferred.listIterator(deferred.size()); i.hasPrevious();) {
+            candidates.addFirst(i.previous());
+        }
+
+        candidates.addAll(retries);
+
+        if (leased != null) {
+            leases.put(userId, leased);
+        }
+
+        return leased;
+    }
+
+    /**
+     * Releases the item leased to the user with the given {@code userId}
+     * and queues it again for the other users.
+     *
+     * @param userId Can't be {@code null}.
+     */
+    public synchronized void release(UUID userId) {
+        UUID itemId = leases.remove(userId);
+
+        if (itemId != null && queuedIds.add(itemId)) {
+            candidates.addFirst(itemId);
+        }
+    }
+
+    // Fetches the next batch of incomplete items after the last prefetched
+    // one and returns false if the end of the results has been reached.
+    private boolean prefetch(WorkStream workStream) {
+        long now = System.currentTimeMillis();
+
+        if (exhaustedAt != 0L) {
+            if (now - exhaustedAt < RESCAN_INTERVAL) {
+                return false;
+            }
+
+            // Look for the items that were added to the stream since.
+            exhaustedAt = 0L;
+            lastValues = null;
+            lastId = null;
+            fetched = 0;
+        }
+
+        Query<?> query = workStream.getQuery().clone().
+                not("cms.workstream.completeIds ^= ?", workStream.getId().toString() + ",");
+
+        List<Sorter> sorters = new ArrayList<>(query.getSorters());
+        List<String> fields = findKeysetFields(sorters);
+
+        if (fields == null || fields.isEmpty()) {
+            query.referenceOnly();
+        }
+
+        if (lastId != null) {
+            if (fields != null && lastValues != null && !lastValues.contains(null)) {
+                addKeysetPredicate(query, sorters, fields);
+
+            } else {
+                fields = null;
+            }
+        }
+
+        query.sortAscending("_id");
+
+        List<?> items = fields != null ?
+                query.select(0, PREFETCH_SIZE).getItems() :
+                query.select(fetched, PREFETCH_SIZE).getItems();
+
+        if (items.isEmpty()) {
+            exhaustedAt = now;
+            return false;
+        }
+
+        for (Object item : items) {
+            State state = State.getInstance(item);
+            UUID itemId = state.getId();
+
+            lastId = itemId;
+            ++ fetched;
+
+            if (fields != null) {
+                lastValues = new ArrayList<>();
+
+                for (String field : fields) {
+                    lastValues.add(state.getByPath(field));
+                }
+            }
+
+            if (queuedIds.add(itemId)) {
+                candidates.addLast(itemId);
+            }
+        }
+
+        return true;
+    }
+
+    // Returns the fields sorted by the given sorters, or null if any of
+    // them can't be continued with a keyset, such as relevancy.
+    private static List<String> findKeysetFields(List<Sorter> sorters) {
+        List<String> fields = new ArrayList<>();
+
+        for (Sorter sorter : sorters) {
+            String operator = sorter.getOperator();
+            List<Object> options = sorter.getOptions();
+
+            if (!(Sorter.ASCENDING_OPERATOR.equals(operator) ||
+                    Sorter.DESCENDING_OPERATOR.equals(operator)) ||
+                    options.size() != 1 ||
+                    !(options.get(0) instanceof String)) {
+                return null;
+            }
+
+            fields.add((String) options.get(0));
+        }
+
+        return fields;
+    }
+
+    // Adds (f1 > ?) or (f1 = ? and f2 > ?) ... or (f1 = ? ... and _id > ?)
+    // so that the batch starts right after the last prefetched item.
+    private void addKeysetPredicate(Query<?> query, List<Sorter> sorters, List<String> fields) {
+        StringBuilder predicate = new StringBuilder();
+        List<Object> parameters = new ArrayList<>();
+
+        for (int i = 0, size = fields.size(); i <= size; ++ i) {
+            if (i > 0) {
+                predicate.append(" or ");
+            }
+
+            predicate.append('(');
+
+            for (int j = 0; j < i; ++ j) {
+                predicate.append(fields.get(j));
+                predicate.append(" = ? and ");
+                parameters.add(lastValues.get(j));
+            }
+
+            if (i < size) {
+                predicate.append(fields.get(i));
+                predicate.append(Sorter.DESCENDING_OPERATOR.equals(sorters.get(i).getOperator()) ? " < ?" : " > ?");
+                parameters.add(lastValues.get(i));
+
+            } else {
+                predicate.append("_id > ?");
+                parameters.add(lastId);
+            }
+
+            predicate.append(')');
+        }
+
+        query.and(predicate.toString(), parameters.toArray());
+    }
+}
@@ -69,7 +69,7 @@ public class Area extends Plugin {
         }
 
         Area selected = null;
-        List<Area> areas = Tool.Static.getPluginsByClass(Area.class);
+        List<Area> areas = new ArrayList<Area>(Tool.Static.getPluginsByClass(Area.class));
 
         for (Area area : areas) {
             if (ObjectUtils.equals(area.getUrl(), path)) {
@@ -10,12 +10,14 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeFieldType;
 
+import com.psddev.cms.db.ConfigurationFeed;
 import com.psddev.cms.db.Content;
 import com.psddev.cms.db.Template;
 import com.psddev.cms.db.ToolRole;
@@ -755,6 +757,16 @@ public class CmsTool extends Tool {
         writer.end();
     }
 
+    @Override
+    protected void afterSave() {
+        ConfigurationFeed.notifyChanged(CmsTool.class);
+    }
+
+    @Override
+    protected void afterDelete() {
+        ConfigurationFeed.notifyChanged(CmsTool.class);
+    }
+
     // --- Tool support ---
 
     @Override
@@ -923,9 +935,16 @@ public class CmsTool extends Tool {
         }
     }
 
+    /**
+     * Copies the {@linkplain #getDariSettings Dari settings} into the
+     * permanent overrides whenever they change, using the
+     * {@link ConfigurationFeed} instead of polling the database.
+     */
     public static class DariSettingsUpdater extends RepeatingTask {
 
-        private Date oldLastUpdate;
+        private static final AtomicBoolean SUBSCRIBED = new AtomicBoolean();
+
+        private static Date oldLastUpdate;
 
         @Override
         protected DateTime calculateRunTime(DateTime currentTime) {
@@ -934,8 +953,20 @@ public class CmsTool extends Tool {
 
         @Override
         protected void doRepeatingTask(DateTime runTime) {
-            Date newLastUpdate = Query.from(CmsTool.class).lastUpdate();
+            if (SUBSCRIBED.compareAndSet(false, true)) {
+                ConfigurationFeed.subscribe(CmsTool.class, new ConfigurationFeed.Listener() {
+
+                    @Override
+                    public void configurationChanged(Class<?> recordClass, Date lastUpdate) {
+                        update(lastUpdate);
+                    }
+                });
+
+                update(Query.from(CmsTool.class).lastUpdate());
+            }
+        }
 
+        private static synchronized void update(Date newLastUpdate) {
             if (newLastUpdate != null &&
                     (oldLastUpdate == null ||
                     !newLastUpdate.equals(oldLastUpdate))) {
@@ -0,0 +1,335 @@
+package com.psddev.cms.tool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.psddev.dari.db.Database;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.db.QueryFilter;
+import com.psddev.dari.db.State;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
+
+/**
+ * Page of items selected with a cursor made of the sort value and the ID
+ * of the item next to it, so that selecting any page costs the same as
+ * selecting the first one.
+ *
+ * <p>Unlike {@link com.psddev.dari.util.PaginatedResult}, there's no
+ * offset or count. Use {@link #getApproximateCount} to show a count
+ * without waiting for it.</p>
+ */
+public class KeysetPage<E> {
+
+    /** Parameter for the cursor of the item right before the page. */
+    public static final String AFTER_PARAMETER = "after";
+
+    /** Parameter for the cursor of the item right after the page. */
+    public static final String BEFORE_PARAMETER = "before";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeysetPage.class);
+
+    private static final int MAXIMUM_SCAN = Settings.getOrDefault(int.class, "cms/tool/keysetMaximumScan", 1000);
+
+    private static final Cache<String, Long> COUNTS = CacheBuilder.
+            newBuilder().
+            maximumSize(1000).
+            expireAfterWrite(Settings.getOrDefault(long.class, "cms/tool/approximateCountDuration", 60000L), TimeUnit.MILLISECONDS).
+            build();
+
+    private static final Set<String> COUNTING = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static final ExecutorService COUNT_EXECUTOR = Executors.newFixedThreadPool(
+            Settings.getOrDefault(int.class, "cms/tool/approximateCountThreads", 2),
+            new ThreadFactoryBuilder().
+                    setDaemon(true).
+                    setNameFormat("KeysetPage-%d").
+                    build());
+
+    private final List<E> items;
+    private final String previousCursor;
+    private final String nextCursor;
+
+    private KeysetPage(List<E> items, String previousCursor, String nextCursor) {
+        this.items = items;
+        this.previousCursor = previousCursor;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Selects the page of items in the given {@code query} sorted by the
+     * given {@code field} and the IDs.
+     *
+     * <p>If the given {@code filter} rejects too many items in a row, the
+     * page may have fewer items than the given {@code limit} even though
+     * there are more pages.</p>
+     *
+     * @param query Can't be {@code null}. Shouldn't be sorted.
+     * @param field Can't be {@code null}.
+     * @param after Cursor of the item right before the page. If
+     * {@code null}, selects the page using the given {@code before}.
+     * @param before Cursor of the item right after the page. If
+     * {@code null} along with the given {@code after}, selects the first
+     * page.
+     * @param filter May be {@code null}.
+     * @return Never {@code null}.
+     */
+    public static <E> KeysetPage<E> select(
+            Query<E> query,
+            String field,
+            boolean descending,
+            String after,
+            String before,
+            int limit,
+            QueryFilter<? super E> filter) {
+
+        boolean backward = after == null && before != null;
+        boolean ascending = descending == backward;
+        Cursor cursor = Cursor.parse(backward ? before : after);
+        List<E> items = new ArrayList<E>();
+        String resumeCursor = null;
+        int batchSize = limit + 1;
+        int scanned = 0;
+
+        SCAN: while (true) {
+            Query<E> batchQuery = query.clone();
+
+            if (cursor != null) {
+                String operator = ascending ? " > ?" : " < ?";
+
+                batchQuery.and(
+                        field + operator + " or (" + field + " = ? and _id" + operator + ")",
+                        cursor.value, cursor.value, cursor.id);
+            }
+
+            if (ascending) {
+                batchQuery.sortAscending(field).sortAscending("_id");
+
+            } else {
+                batchQuery.sortDescending(field).sortDescending("_id");
+            }
+
+            List<E> batch = batchQuery.select(0, batchSize).getItems();
+
+            for (E item : batch) {
+                ++ scanned;
+
+                if (filter == null || filter.include(item)) {
+                    if (items.size() >= limit) {
+                        resumeCursor = Cursor.create(items.get(items.size() - 1), field);
+                        break SCAN;
+                    }
+
+                    items.add(item);
+                }
+
+                cursor = new Cursor(item, field);
+            }
+
+            if (batch.size() < batchSize) {
+                break;
+
+            } else if (scanned >= MAXIMUM_SCAN) {
+                resumeCursor = cursor.toString();
+                break;
+            }
+
+            // The filter is rejecting items, so fetch more at a time, up
+            // to the rest of the scan budget.
+            batchSize = Math.min(batchSize * 2, MAXIMUM_SCAN - scanned);
+        }
+
+        if (backward) {
+            Collections.reverse(items);
+
+            return new KeysetPage<E>(
+                    items,
+                    resumeCursor,
+                    items.isEmpty() ? before : Cursor.create(items.get(items.size() - 1), field));
+
+        } else {
+            return new KeysetPage<E>(
+                    items,
+                    after != null && !items.isEmpty() ? Cursor.create(items.get(0), field) : null,
+                    resumeCursor);
+        }
+    }
+
+    /**
+     * Returns the count of the items in the given {@code query} if it was
+     * counted recently, and starts counting it in the background if not.
+     *
+     * @param query Can't be {@code null}.
+     * @return May be {@code null}.
+     */
+    public static Long getApproximateCount(Query<?> query) {
+        final String key = query.toString();
+        Long count = COUNTS.getIfPresent(key);
+
+        if (count == null && COUNTING.add(key)) {
+            final Query<?> countQuery = query.clone().using(Database.Static.getDefault());
+
+            COUNT_EXECUTOR.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        COUNTS.put(key, countQuery.count());
+
+                    } catch (RuntimeException error) {
+                        LOGGER.debug("Can't count [{}]!", key, error);
+
+                    } finally {
+                        COUNTING.remove(key);
+                    }
+                }
+            });
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the items in this page.
+     *
+     * @return Never {@code null}.
+     */
+    public List<E> getItems() {
+        return items;
+    }
+
+    /** Returns {@code true} if there are items before this page. */
+    public boolean hasPrevious() {
+        return previousCursor != null;
+    }
+
+    /**
+     * Returns the cursor to use as the {@link #BEFORE_PARAMETER} for the
+     * previous page.
+     *
+     * @return May be {@code null}.
+     */
+    public String getPreviousCursor() {
+        return previousCursor;
+    }
+
+    /** Returns {@code true} if there are items after this page. */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    /**
+     * Returns the cursor to use as the {@link #AFTER_PARAMETER} for the
+     * next page.
+     *
+     * @return May be {@code null}.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    // Sort value and ID of an item, formatted as the type of the value,
+    // the value and the ID so that it can be parsed back.
+    static final class Cursor {
+
+        private final Object value;
+        private final UUID id;
+
+        public static String create(Object item, String field) {
+            return new Cursor(item, field).toString();
+        }
+
+        public static Cursor parse(String string) {
+            if (ObjectUtils.isBlank(string)) {
+                return null;
+            }
+
+            int tildeAt = string.lastIndexOf('~');
+
+            if (tildeAt < 1) {
+                return null;
+            }
+
+            UUID id = ObjectUtils.to(UUID.class, string.substring(tildeAt + 1));
+
+            if (id == null) {
+                return null;
+            }
+
+            char type = string.charAt(0);
+            String valueString = string.substring(1, tildeAt);
+            Object value;
+
+            if (type == 'd') {
+                value = new Date(ObjectUtils.to(long.class, valueString));
+
+            } else if (type == 'n') {
+                value = ObjectUtils.to(double.class, valueString);
+
+            } else if (type == 's') {
+                value = valueString;
+
+            } else {
+                return null;
+            }
+
+            return new Cursor(value, id);
+        }
+
+        public Cursor(Object item, String field) {
+            State state = State.getInstance(item);
+
+            this.value = state.getByPath(field);
+            this.id = state.getId();
+        }
+
+        Cursor(Object value, UUID id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder string = new StringBuilder();
+
+            if (value instanceof Date) {
+                string.append('d');
+                string.append(((Date) value).getTime());
+
+            } else if (value instanceof Number) {
+                string.append('n');
+                string.append(value);
+
+            } else {
+                string.append('s');
+                string.append(value != null ? value.toString() : "");
+            }
+
+            string.append('~');
+            string.append(id);
+            return string.toString();
+        }
+    }
+}
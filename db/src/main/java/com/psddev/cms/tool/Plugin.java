@@ -1,5 +1,6 @@
 package com.psddev.cms.tool;
 
+import com.psddev.cms.db.ConfigurationFeed;
 import com.psddev.dari.db.Record;
 
 /** Part of the tool UI that can be modified. */
@@ -38,4 +39,14 @@ public class Plugin extends Record {
     public void setInternalName(String internalName) {
         this.internalName = internalName;
     }
+
+    @Override
+    protected void afterSave() {
+        ConfigurationFeed.notifyChanged(Plugin.class);
+    }
+
+    @Override
+    protected void afterDelete() {
+        ConfigurationFeed.notifyChanged(Plugin.class);
+    }
 }
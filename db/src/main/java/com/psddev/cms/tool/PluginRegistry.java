@@ -0,0 +1,287 @@
+package com.psddev.cms.tool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.psddev.cms.db.ConfigurationFeed;
+import com.psddev.dari.db.Application;
+import com.psddev.dari.db.Database;
+import com.psddev.dari.db.ObjectFieldComparator;
+import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.util.CodeUtils;
+import com.psddev.dari.util.ObjectUtils;
+
+/**
+ * Snapshot of all plugins across all tools, with indexes by plugin class
+ * and by widget position.
+ *
+ * <p>The snapshot is shared until a {@link Plugin} or {@link CmsTool}
+ * changes according to the {@link ConfigurationFeed}, or a plugin or tool
+ * class is redefined. The plugins in it are shared as well and are only
+ * handed out in unmodifiable lists.</p>
+ */
+final class PluginRegistry {
+
+    private static final ConfigurationFeed.CachedValue<PluginRegistry> INSTANCE = new ConfigurationFeed.CachedValue<PluginRegistry>(Plugin.class, CmsTool.class) {
+
+        @Override
+        protected PluginRegistry produce() {
+            return new PluginRegistry();
+        }
+    };
+
+    static {
+        CodeUtils.addRedefineClassesListener(new CodeUtils.RedefineClassesListener() {
+            @Override
+            public void redefined(Set<Class<?>> classes) {
+                for (Class<?> c : classes) {
+                    if (Plugin.class.isAssignableFrom(c) || Tool.class.isAssignableFrom(c)) {
+                        invalidate();
+                        break;
+                    }
+                }
+            }
+        });
+    }
+
+    private final List<Plugin> plugins;
+    private final ConcurrentMap<Class<?>, List<Plugin>> pluginsByClass = new ConcurrentHashMap<Class<?>, List<Plugin>>();
+    private final List<Area> topAreas;
+    private final Map<String, List<List<Widget>>> widgetsByPosition;
+
+    /**
+     * Returns the current registry, rebuilding it if any plugins have
+     * changed.
+     *
+     * @return Never {@code null}.
+     */
+    public static PluginRegistry getInstance() {
+        return INSTANCE.get();
+    }
+
+    /** Discards the current registry so that it's rebuilt on next use. */
+    public static void invalidate() {
+        INSTANCE.invalidate();
+    }
+
+    private PluginRegistry() {
+        this.plugins = Collections.unmodifiableList(findPlugins());
+        this.topAreas = Collections.unmodifiableList(findTopAreas());
+        this.widgetsByPosition = Collections.unmodifiableMap(findWidgetsByPosition());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Plugin> findPlugins() {
+        List<Plugin> databasePlugins = Query.from(Plugin.class).selectAll();
+        List<Plugin> plugins = new ArrayList<Plugin>();
+
+        for (ObjectType type : Database.Static.getDefault().getEnvironment().getTypesByGroup(Tool.class.getName())) {
+            if (type.isAbstract() || type.isEmbedded()) {
+                continue;
+            }
+
+            Class<?> objectClass = type.getObjectClass();
+
+            if (objectClass == null || !Tool.class.isAssignableFrom(objectClass)) {
+                continue;
+            }
+
+            Tool tool = Application.Static.getInstance((Class<? extends Tool>) objectClass);
+            List<Plugin> toolPlugins = tool.getPlugins();
+
+            if (toolPlugins != null && !toolPlugins.isEmpty()) {
+                for (Plugin plugin : toolPlugins) {
+                    plugin.setTool(tool);
+                    plugins.add(plugin);
+                }
+
+            } else {
+                for (Plugin plugin : databasePlugins) {
+                    if (tool.equals(plugin.getTool())) {
+                        plugins.add(plugin);
+                    }
+                }
+            }
+        }
+
+        CmsTool cms = Application.Static.getInstance(CmsTool.class);
+        Set<String> disabled = cms.getDisabledPlugins();
+
+        for (Iterator<Plugin> i = plugins.iterator(); i.hasNext();) {
+            Plugin plugin = i.next();
+
+            if (disabled.contains(plugin.getInternalName())) {
+                i.remove();
+            }
+        }
+
+        Collections.sort(plugins, new ObjectFieldComparator("displayName", true));
+
+        return plugins;
+    }
+
+    private List<Area> findTopAreas() {
+        List<Area> topAreas = new ArrayList<Area>();
+        Area first = null;
+        Area last = null;
+
+        for (Area area : getPluginsByClass(Area.class)) {
+            if (area.getHierarchy().contains("/")) {
+                continue;
+            }
+
+            if (area.getTool() instanceof CmsTool) {
+                String internalName = area.getInternalName();
+                if ("dashboard".equals(internalName)) {
+                    first = area;
+                    continue;
+                } else if ("admin".equals(internalName)) {
+                    last = area;
+                    continue;
+                }
+            }
+
+            topAreas.add(area);
+        }
+
+        if (first != null) {
+            topAreas.add(0, first);
+        }
+
+        if (last != null) {
+            topAreas.add(last);
+        }
+
+        return topAreas;
+    }
+
+    private Map<String, List<List<Widget>>> findWidgetsByPosition() {
+        List<Widget> widgets = getPluginsByClass(Widget.class);
+        Set<String> positionNames = new LinkedHashSet<String>();
+        Map<String, List<List<Widget>>> widgetsByPosition = new HashMap<String, List<List<Widget>>>();
+
+        for (Widget widget : widgets) {
+            for (Widget.Position position : widget.getPositions()) {
+                positionNames.add(position.getName());
+            }
+        }
+
+        for (String positionName : positionNames) {
+            widgetsByPosition.put(positionName, findWidgets(widgets, positionName));
+        }
+
+        return widgetsByPosition;
+    }
+
+    private static List<List<Widget>> findWidgets(List<Widget> allWidgets, String positionName) {
+        Map<Double, Map<Double, List<Widget>>> widgets = new HashMap<Double, Map<Double, List<Widget>>>();
+        List<List<Widget>> widgetsTable = new ArrayList<List<Widget>>();
+
+        for (Widget widget : allWidgets) {
+            for (Widget.Position position : widget.getPositions()) {
+                if (ObjectUtils.equals(position.getName(), positionName)) {
+                    double column = position.getColumn();
+                    Map<Double, List<Widget>> widgetsColumn = widgets.get(column);
+
+                    if (widgetsColumn == null) {
+                        widgetsColumn = new HashMap<Double, List<Widget>>();
+                        widgets.put(column, widgetsColumn);
+                    }
+
+                    double row = position.getRow();
+                    List<Widget> widgetsRow = widgetsColumn.get(row);
+
+                    if (widgetsRow == null) {
+                        widgetsRow = new ArrayList<Widget>();
+                        widgetsColumn.put(row, widgetsRow);
+                    }
+
+                    widgetsRow.add(widget);
+                    break;
+                }
+            }
+        }
+
+        List<Double> columns = new ArrayList<Double>(widgets.keySet());
+        Collections.sort(columns);
+
+        for (Double column : columns) {
+            Map<Double, List<Widget>> widgetsColumn = widgets.get(column);
+            List<Double> rows = new ArrayList<Double>(widgetsColumn.keySet());
+            List<Widget> widgetsTableRow = new ArrayList<Widget>();
+
+            Collections.sort(rows);
+            widgetsTable.add(Collections.unmodifiableList(widgetsTableRow));
+
+            for (Double row : rows) {
+                widgetsTableRow.addAll(widgetsColumn.get(row));
+            }
+        }
+
+        return Collections.unmodifiableList(widgetsTable);
+    }
+
+    /**
+     * Returns all plugins, sorted by {@code displayName}.
+     *
+     * @return Never {@code null}. Unmodifiable.
+     */
+    public List<Plugin> getPlugins() {
+        return plugins;
+    }
+
+    /**
+     * Returns all plugins of the given {@code pluginClass}, sorted by
+     * {@code displayName}.
+     *
+     * @return Never {@code null}. Unmodifiable.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Plugin> List<T> getPluginsByClass(Class<T> pluginClass) {
+        List<Plugin> classPlugins = pluginsByClass.get(pluginClass);
+
+        if (classPlugins == null) {
+            classPlugins = new ArrayList<Plugin>();
+
+            for (Plugin plugin : plugins) {
+                if (pluginClass.isInstance(plugin)) {
+                    classPlugins.add(plugin);
+                }
+            }
+
+            classPlugins = Collections.unmodifiableList(classPlugins);
+            pluginsByClass.putIfAbsent(pluginClass, classPlugins);
+        }
+
+        return (List<T>) classPlugins;
+    }
+
+    /**
+     * Returns all top-level areas.
+     *
+     * @return Never {@code null}. Unmodifiable.
+     */
+    public List<Area> getTopAreas() {
+        return topAreas;
+    }
+
+    /**
+     * Returns a table of all widgets with the given {@code positionName}.
+     *
+     * @return Never {@code null}. Unmodifiable.
+     */
+    public List<List<Widget>> getWidgets(String positionName) {
+        List<List<Widget>> widgets = widgetsByPosition.get(positionName);
+
+        return widgets != null ? widgets : Collections.<List<Widget>>emptyList();
+    }
+}
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Modifier;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
@@ -20,9 +21,13 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.psddev.cms.db.Content;
 import com.psddev.cms.db.Directory;
 import com.psddev.cms.db.Site;
@@ -82,6 +87,18 @@ public class Search extends Record {
 
     public static final double RELEVANT_SORT_LABEL_BOOST = 10.0;
 
+    private static final Cache<String, Optional<UUID>> MAIN_OBJECT_IDS = CacheBuilder.
+            newBuilder().
+            maximumSize(1000).
+            expireAfterWrite(1, TimeUnit.MINUTES).
+            build();
+
+    private static final Cache<String, List<String>> DIRECTORY_RAW_PATHS = CacheBuilder.
+            newBuilder().
+            maximumSize(1000).
+            expireAfterWrite(1, TimeUnit.MINUTES).
+            build();
+
     private String name;
     private Set<ObjectType> types;
     private ObjectType selectedType;
@@ -102,6 +119,10 @@ public class Search extends Record {
     private long offset;
     private int limit;
 
+    private transient Query<?> compiledQuery;
+    private transient Site compiledSite;
+    private transient String compiledSignature;
+
     public Search() {
     }
 
@@ -511,45 +532,41 @@ public class Search extends Record {
 
     }
 
+    /**
+     * Returns a query that finds all items matching this search within
+     * the given {@code site}.
+     *
+     * <p>The query is compiled only once for as long as this search and
+     * the site stay the same, and a copy of it is returned each time.</p>
+     */
     public Query<?> toQuery(Site site) {
+        String signature = ObjectUtils.toJson(getState().getSimpleValues());
+
+        if (compiledQuery == null ||
+                !ObjectUtils.equals(compiledSite, site) ||
+                !signature.equals(compiledSignature)) {
+            compiledQuery = compileQuery(site);
+            compiledSite = site;
+            compiledSignature = signature;
+        }
+
+        return compiledQuery.clone();
+    }
+
+    private Query<?> compileQuery(Site site) {
 
         // If the query string is an URL, hit it to find the ID.
         String queryString = getQueryString();
 
         if (!ObjectUtils.isBlank(queryString)) {
-            try {
-                URL qsUrl = new URL(queryString.trim());
-                URLConnection qsConnection = qsUrl.openConnection();
-
-                if (qsConnection instanceof HttpURLConnection) {
-                    HttpURLConnection qsHttp = (HttpURLConnection) qsConnection;
-
-                    qsHttp.setConnectTimeout(1000);
-                    qsHttp.setReadTimeout(1000);
-                    qsHttp.setRequestMethod("HEAD");
-                    qsHttp.setRequestProperty("Brightspot-Main-Object-Id-Query", "true");
-
-                    InputStream qsInput = qsHttp.getInputStream();
-
-                    try {
-                        UUID mainObjectId = ObjectUtils.to(UUID.class, qsHttp.getHeaderField("Brightspot-Main-Object-Id"));
-
-                        if (mainObjectId != null) {
-                            return Query.
-                                    fromAll().
-                                    or("_id = ?", mainObjectId).
-                                    or("* matches ?", mainObjectId).
-                                    sortRelevant(100.0, "_id = ?", mainObjectId);
-                        }
-
-                    } finally {
-                        qsInput.close();
-                    }
-                }
-
-            } catch (IOException error) {
-                // Can't connect to the URL in the query string to get the main
-                // object ID, but that's OK to ignore and move on.
+            UUID mainObjectId = findMainObjectId(queryString);
+
+            if (mainObjectId != null) {
+                return Query.
+                        fromAll().
+                        or("_id = ?", mainObjectId).
+                        or("* matches ?", mainObjectId).
+                        sortRelevant(100.0, "_id = ?", mainObjectId);
             }
         }
 
@@ -665,21 +682,13 @@ public class Search extends Record {
             if (isAllSearchable && queryString.startsWith("/") && queryString.length() > 1) {
                 List<String> paths = new ArrayList<String>();
 
-                for (Directory directory : Query.
-                        from(Directory.class).
-                        where("path ^=[c] ?", queryString).
-                        selectAll()) {
-                    paths.add(directory.getRawPath());
-                }
+                paths.addAll(findDirectoryRawPaths(queryString));
 
                 int lastSlashAt = queryString.lastIndexOf("/");
 
                 if (lastSlashAt > 0) {
-                    for (Directory directory : Query.
-                            from(Directory.class).
-                            where("path ^=[c] ?", queryString.substring(0, lastSlashAt)).
-                            selectAll()) {
-                        paths.add(directory.getRawPath() + queryString.substring(lastSlashAt + 1));
+                    for (String rawPath : findDirectoryRawPaths(queryString.substring(0, lastSlashAt))) {
+                        paths.add(rawPath + queryString.substring(lastSlashAt + 1));
                     }
                 }
 
@@ -962,6 +971,77 @@ public class Search extends Record {
         return query;
     }
 
+    // Hits the URL in the given query string to find the ID of the main
+    // object that it renders, remembering the answer briefly so that
+    // repeated searches don't wait on the connection.
+    private static UUID findMainObjectId(String queryString) {
+        String url = queryString.trim();
+        Optional<UUID> cached = MAIN_OBJECT_IDS.getIfPresent(url);
+
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+
+        UUID mainObjectId = null;
+
+        try {
+            URL qsUrl = new URL(url);
+            URLConnection qsConnection = qsUrl.openConnection();
+
+            if (qsConnection instanceof HttpURLConnection) {
+                HttpURLConnection qsHttp = (HttpURLConnection) qsConnection;
+
+                qsHttp.setConnectTimeout(1000);
+                qsHttp.setReadTimeout(1000);
+                qsHttp.setRequestMethod("HEAD");
+                qsHttp.setRequestProperty("Brightspot-Main-Object-Id-Query", "true");
+
+                InputStream qsInput = qsHttp.getInputStream();
+
+                try {
+                    mainObjectId = ObjectUtils.to(UUID.class, qsHttp.getHeaderField("Brightspot-Main-Object-Id"));
+
+                } finally {
+                    qsInput.close();
+                }
+            }
+
+        } catch (MalformedURLException error) {
+            // Not an URL, so there's nothing to remember.
+            return null;
+
+        } catch (IOException error) {
+            // Can't connect to the URL in the query string to get the main
+            // object ID, but that's OK to ignore and move on.
+        }
+
+        MAIN_OBJECT_IDS.put(url, Optional.ofNullable(mainObjectId));
+        return mainObjectId;
+    }
+
+    // Finds the raw paths of all directories whose paths start with the
+    // given prefix, remembering them briefly.
+    private static List<String> findDirectoryRawPaths(String pathPrefix) {
+        String key = pathPrefix.toLowerCase(Locale.ENGLISH);
+        List<String> rawPaths = DIRECTORY_RAW_PATHS.getIfPresent(key);
+
+        if (rawPaths == null) {
+            rawPaths = new ArrayList<String>();
+
+            for (Directory directory : Query.
+                    from(Directory.class).
+                    where("path ^=[c] ?", pathPrefix).
+                    selectAll()) {
+                rawPaths.add(directory.getRawPath());
+            }
+
+            rawPaths = Collections.unmodifiableList(rawPaths);
+            DIRECTORY_RAW_PATHS.put(key, rawPaths);
+        }
+
+        return rawPaths;
+    }
+
     private static void addVisibilityTypeIds(Set<UUID> visibilityTypeIds, Set<UUID> validTypeIds, String field, String value) {
         if (validTypeIds == null) {
             return;
@@ -8,12 +8,20 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.servlet.http.HttpServletRequest;
 
 import com.psddev.dari.db.PredicateParser;
 import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.psddev.cms.db.Directory;
 import com.psddev.cms.db.Renderer;
 import com.psddev.cms.db.Site;
@@ -30,6 +38,7 @@ import com.psddev.dari.db.Recordable;
 import com.psddev.dari.db.State;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
+import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.StorageItem;
 import com.psddev.dari.util.StringUtils;
 
@@ -42,6 +51,14 @@ public class SearchResultRenderer {
     private static final String MAX_SUM_ATTRIBUTE = ATTRIBUTE_PREFIX + ".maximumSum";
     private static final String TAXON_PARENT_ID_PARAMETER = "taxonParentId";
     private static final String SORT_SETTING_PREFIX = "sort/";
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchResultRenderer.class);
+
+    private static final ExecutorService QUERY_EXECUTOR = Executors.newFixedThreadPool(
+            Settings.getOrDefault(int.class, "cms/tool/searchQueryThreads", 8),
+            new ThreadFactoryBuilder().
+                    setDaemon(true).
+                    setNameFormat("SearchResultRenderer-%d").
+                    build());
 
     protected final ToolPageContext page;
 
@@ -99,9 +116,9 @@ public class SearchResultRenderer {
             }
         }
 
-        showSiteLabel = Query.from(CmsTool.class).first().isDisplaySiteInSearchResult() &&
+        showSiteLabel = ToolMetadataCache.getCmsTool().isDisplaySiteInSearchResult() &&
                 page.getSite() == null &&
-                Query.from(Site.class).hasMoreThan(0);
+                ToolMetadataCache.hasInstances(ObjectType.getInstance(Site.class));
 
         if (selectedType != null) {
             this.sortField = selectedType.getFieldGlobally(search.getSort());
@@ -129,7 +146,7 @@ public class SearchResultRenderer {
 
         if (result == null) {
             try {
-                result = search.toQuery(page.getSite()).select(search.getOffset(), search.getLimit());
+                result = selectConcurrently(search.toQuery(page.getSite()));
 
             } catch (IllegalArgumentException | Query.NoFieldException error) {
                 queryError = error;
@@ -140,6 +157,60 @@ public class SearchResultRenderer {
         this.queryError = queryError;
     }
 
+    // Selects the items and, when sorting by a metric, finds its maximum
+    // value in the background at the same time. The selection already
+    // includes the count.
+    private PaginatedResult<?> selectConcurrently(Query<?> query) {
+        Future<Object> maxObjectFuture = null;
+
+        if (sortField != null && sortField.isMetric()) {
+            Query<?> maxObjectQuery = query.clone().using(Database.Static.getDefault()).sortDescending(sortField.getInternalName());
+            Callable<Object> maxObjectFinder = maxObjectQuery::first;
+            maxObjectFuture = QUERY_EXECUTOR.submit(maxObjectFinder);
+        }
+
+        PaginatedResult<?> items;
+
+        try {
+            items = query.select(search.getOffset(), search.getLimit());
+
+        } catch (RuntimeException error) {
+            if (maxObjectFuture != null) {
+                maxObjectFuture.cancel(true);
+            }
+
+            throw error;
+        }
+
+        if (maxObjectFuture != null) {
+            Object maxObject = getQuietly(maxObjectFuture);
+
+            if (maxObject != null) {
+                Object maxValue = State.getInstance(maxObject).get(sortField.getInternalName());
+
+                if (maxValue instanceof Metric) {
+                    page.getRequest().setAttribute(MAX_SUM_ATTRIBUTE, ((Metric) maxValue).getSum());
+                }
+            }
+        }
+
+        return items;
+    }
+
+    private static <T> T getQuietly(Future<T> future) {
+        try {
+            return future.get();
+
+        } catch (ExecutionException error) {
+            LOGGER.warn("Can't run search query in the background!", error.getCause());
+            return null;
+
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public void render() throws IOException {
         if (queryError != null) {
@@ -2,19 +2,12 @@ package com.psddev.cms.tool;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 
 import com.psddev.cms.db.ToolUi;
 import com.psddev.dari.db.Application;
 import com.psddev.dari.db.Database;
-import com.psddev.dari.db.ObjectFieldComparator;
-import com.psddev.dari.db.ObjectType;
 import com.psddev.dari.db.Query;
 import com.psddev.dari.db.State;
 import com.psddev.dari.util.ErrorUtils;
@@ -177,165 +170,47 @@ public abstract class Tool extends Application {
         /**
          * Returns all plugins across all tools.
          *
-         * @return Never {@code null}. Sorted by {@code displayName}.
+         * <p>The plugins are shared across calls until any of them
+         * change, so they shouldn't be modified.</p>
+         *
+         * @return Never {@code null}. Unmodifiable. Sorted by
+         * {@code displayName}.
          */
-        @SuppressWarnings("unchecked")
         public static List<Plugin> getPlugins() {
-            List<Plugin> databasePlugins = Query.from(Plugin.class).selectAll();
-            List<Plugin> plugins = new ArrayList<Plugin>();
-
-            for (ObjectType type : Database.Static.getDefault().getEnvironment().getTypesByGroup(Tool.class.getName())) {
-                if (type.isAbstract() || type.isEmbedded()) {
-                    continue;
-                }
-
-                Class<?> objectClass = type.getObjectClass();
-
-                if (objectClass == null || !Tool.class.isAssignableFrom(objectClass)) {
-                    continue;
-                }
-
-                Tool tool = Application.Static.getInstance((Class<? extends Tool>) objectClass);
-                List<Plugin> toolPlugins = tool.getPlugins();
-
-                if (toolPlugins != null && !toolPlugins.isEmpty()) {
-                    for (Plugin plugin : toolPlugins) {
-                        plugin.setTool(tool);
-                        plugins.add(plugin);
-                    }
-
-                } else {
-                    for (Plugin plugin : databasePlugins) {
-                        if (tool.equals(plugin.getTool())) {
-                            plugins.add(plugin);
-                        }
-                    }
-                }
-            }
-
-            CmsTool cms = Application.Static.getInstance(CmsTool.class);
-            Set<String> disabled = cms.getDisabledPlugins();
-
-            for (Iterator<Plugin> i = plugins.iterator(); i.hasNext();) {
-                Plugin plugin = i.next();
-
-                if (disabled.contains(plugin.getInternalName())) {
-                    i.remove();
-                }
-            }
-
-            Collections.sort(plugins, new ObjectFieldComparator("displayName", true));
-
-            return plugins;
+            return PluginRegistry.getInstance().getPlugins();
         }
 
         /**
          * Returns all plugins of the given {@code pluginClass} across all
          * tools.
          *
-         * @return Never {@code null}. Sorted by {@code displayName}.
+         * <p>The plugins are shared across calls until any of them
+         * change, so they shouldn't be modified.</p>
+         *
+         * @return Never {@code null}. Unmodifiable. Sorted by
+         * {@code displayName}.
          */
-        @SuppressWarnings("unchecked")
         public static <T extends Plugin> List<T> getPluginsByClass(Class<T> pluginClass) {
-            List<Plugin> plugins = getPlugins();
-
-            for (Iterator<Plugin> i = plugins.iterator(); i.hasNext();) {
-                Plugin plugin = i.next();
-
-                if (!pluginClass.isInstance(plugin)) {
-                    i.remove();
-                }
-            }
-
-            return (List<T>) plugins;
+            return PluginRegistry.getInstance().getPluginsByClass(pluginClass);
         }
 
-        /** Returns all top-level areas. */
+        /**
+         * Returns all top-level areas.
+         *
+         * @return Never {@code null}. Unmodifiable.
+         */
         public static List<Area> getTopAreas() {
-            List<Area> topAreas = new ArrayList<Area>();
-            Area first = null;
-            Area last = null;
-
-            for (Area area : getPluginsByClass(Area.class)) {
-                if (area.getHierarchy().contains("/")) {
-                    continue;
-                }
-
-                if (area.getTool() instanceof CmsTool) {
-                    String internalName = area.getInternalName();
-                    if ("dashboard".equals(internalName)) {
-                        first = area;
-                        continue;
-                    } else if ("admin".equals(internalName)) {
-                        last = area;
-                        continue;
-                    }
-                }
-
-                topAreas.add(area);
-            }
-
-            if (first != null) {
-                topAreas.add(0, first);
-            }
-
-            if (last != null) {
-                topAreas.add(last);
-            }
-
-            return topAreas;
+            return PluginRegistry.getInstance().getTopAreas();
         }
 
         /**
          * Returns a table of all widgets with the given
          * {@code positionName}.
+         *
+         * @return Never {@code null}. Unmodifiable.
          */
         public static List<List<Widget>> getWidgets(String positionName) {
-            Map<Double, Map<Double, List<Widget>>> widgets = new HashMap<Double, Map<Double, List<Widget>>>();
-            List<List<Widget>> widgetsTable = new ArrayList<List<Widget>>();
-
-            for (Widget widget : getPluginsByClass(Widget.class)) {
-                for (Widget.Position position : widget.getPositions()) {
-                    if (ObjectUtils.equals(position.getName(), positionName)) {
-                        double column = position.getColumn();
-                        Map<Double, List<Widget>> widgetsColumn = widgets.get(column);
-
-                        if (widgetsColumn == null) {
-                            widgetsColumn = new HashMap<Double, List<Widget>>();
-                            widgets.put(column, widgetsColumn);
-                        }
-
-                        double row = position.getRow();
-                        List<Widget> widgetsRow = widgetsColumn.get(row);
-
-                        if (widgetsRow == null) {
-                            widgetsRow = new ArrayList<Widget>();
-                            widgetsColumn.put(row, widgetsRow);
-                        }
-
-                        widgetsRow.add(widget);
-                        break;
-                    }
-                }
-            }
-
-            List<Double> columns = new ArrayList<Double>(widgets.keySet());
-            Collections.sort(columns);
-
-            for (Double column : columns) {
-                Map<Double, List<Widget>> widgetsColumn = widgets.get(column);
-                List<Double> rows = new ArrayList<Double>(widgetsColumn.keySet());
-                List<Widget> widgetsTableRow = new ArrayList<Widget>();
-
-                Collections.sort(rows);
-                widgetsTable.add(widgetsTableRow);
-
-                for (Double row : rows) {
-                    widgetsTableRow.addAll(widgetsColumn.get(row));
-                }
-            }
-
-            return widgetsTable;
+            return PluginRegistry.getInstance().getWidgets(positionName);
         }
     }
 
@@ -0,0 +1,131 @@
+package com.psddev.cms.tool;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.psddev.cms.db.ConfigurationFeed;
+import com.psddev.cms.db.ContentType;
+import com.psddev.dari.db.Modification;
+import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.util.Settings;
+
+/**
+ * Cache of the metadata that's looked up while rendering every tool
+ * page: the {@link CmsTool} settings, the {@link ContentType} field
+ * orderings and whether deprecated types still have any instances.
+ *
+ * <p>Entries are discarded as soon as their records are saved on this
+ * node, and picked up from the other nodes through the
+ * {@link ConfigurationFeed}.</p>
+ */
+public final class ToolMetadataCache {
+
+    private static final ConfigurationFeed.CachedValue<CmsTool> CMS_TOOL = new ConfigurationFeed.CachedValue<CmsTool>(CmsTool.class) {
+
+        @Override
+        protected CmsTool produce() {
+            return Query.from(CmsTool.class).first();
+        }
+    };
+
+    private static final ConfigurationFeed.CachedValue<Map<String, ContentType>> CONTENT_TYPES = new ConfigurationFeed.CachedValue<Map<String, ContentType>>(ContentType.class) {
+
+        @Override
+        protected Map<String, ContentType> produce() {
+            Map<String, ContentType> contentTypes = new HashMap<String, ContentType>();
+
+            for (ContentType ct : Query.from(ContentType.class).selectAll()) {
+                contentTypes.put(ct.getInternalName(), ct);
+            }
+
+            return Collections.unmodifiableMap(contentTypes);
+        }
+    };
+
+    private static final Cache<UUID, Boolean> HAS_INSTANCES = CacheBuilder.
+            newBuilder().
+            expireAfterWrite(Settings.getOrDefault(long.class, "cms/tool/hasInstancesCacheDuration", 60000L), TimeUnit.MILLISECONDS).
+            build();
+
+    private ToolMetadataCache() {
+    }
+
+    /**
+     * Returns the cached CMS tool settings. The instance is shared across
+     * all requests until the settings change, so it must not be modified.
+     *
+     * @return May be {@code null}.
+     */
+    public static CmsTool getCmsTool() {
+        return CMS_TOOL.get();
+    }
+
+    /**
+     * Finds the cached content type customization for the given
+     * {@code type}.
+     *
+     * @return May be {@code null}.
+     */
+    public static ContentType findContentType(ObjectType type) {
+        return type != null ? CONTENT_TYPES.get().get(type.getInternalName()) : null;
+    }
+
+    /**
+     * Returns {@code true} if there are any instances of the given
+     * {@code type}. The result is discarded when an instance is saved or
+     * deleted on this node, and may be stale by up to
+     * {@code cms/tool/hasInstancesCacheDuration} milliseconds for the
+     * changes made on the other nodes.
+     *
+     * @param type Can't be {@code null}.
+     */
+    public static boolean hasInstances(ObjectType type) {
+        UUID typeId = type.getId();
+        Boolean hasInstances = HAS_INSTANCES.getIfPresent(typeId);
+
+        if (hasInstances == null) {
+            hasInstances = Query.fromType(type).hasMoreThan(0);
+            HAS_INSTANCES.put(typeId, hasInstances);
+        }
+
+        return hasInstances;
+    }
+
+    /** Invalidates all cached metadata. */
+    public static void invalidateAll() {
+        CMS_TOOL.invalidate();
+        CONTENT_TYPES.invalidate();
+        HAS_INSTANCES.invalidateAll();
+    }
+
+    /**
+     * Discards the cached {@link #hasInstances} results that an instance
+     * being saved or deleted on this node may have changed.
+     */
+    public static class HasInstancesModification extends Modification<Object> {
+
+        @Override
+        protected void afterSave() {
+            UUID typeId = getState().getTypeId();
+
+            if (Boolean.FALSE.equals(HAS_INSTANCES.getIfPresent(typeId))) {
+                HAS_INSTANCES.invalidate(typeId);
+            }
+        }
+
+        @Override
+        protected void afterDelete() {
+            UUID typeId = getState().getTypeId();
+
+            if (Boolean.TRUE.equals(HAS_INSTANCES.getIfPresent(typeId))) {
+                HAS_INSTANCES.invalidate(typeId);
+            }
+        }
+    }
+}
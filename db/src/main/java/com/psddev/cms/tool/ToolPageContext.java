@@ -1776,7 +1776,7 @@ public class ToolPageContext extends WebPageContext {
                     type.getObjectClass() == null) ||
                     Draft.class.equals(type.getObjectClass()) ||
                     (type.isDeprecated() &&
-                    !Query.fromType(type).hasMoreThan(0))) {
+                    !ToolMetadataCache.hasInstances(type))) {
                 i.remove();
             }
         }
@@ -2311,7 +2311,7 @@ public class ToolPageContext extends WebPageContext {
                     writeEnd();
 
                 } else if (!fields.isEmpty()) {
-                    ContentType ct = type != null ? Query.from(ContentType.class).where("internalName = ?", type.getInternalName()).first() : null;
+                    ContentType ct = ToolMetadataCache.findContentType(type);
 
                     if (ct != null) {
                         List<ObjectField> firsts = new ArrayList<ObjectField>();
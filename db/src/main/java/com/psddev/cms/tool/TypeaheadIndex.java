@@ -0,0 +1,437 @@
+package com.psddev.cms.tool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeFieldType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.psddev.cms.db.Content;
+import com.psddev.cms.db.Directory;
+import com.psddev.cms.db.Site;
+import com.psddev.dari.db.Modification;
+import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.db.Query;
+import com.psddev.dari.db.State;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.RepeatingTask;
+import com.psddev.dari.util.Settings;
+
+/**
+ * Node-local index of the label word prefixes and the permalink prefixes
+ * of the most recently updated searchable objects, so that the first
+ * keystrokes of the tool search can be answered from memory.
+ *
+ * <p>The index is loaded in the background on first use with up to
+ * {@code cms/tool/typeaheadIndexSize} objects (50000 by default), and is
+ * updated whenever a searchable object is saved or deleted on this node,
+ * evicting the least recently updated objects beyond that size.
+ * Until it's loaded, {@link #find} returns {@code null} so that callers
+ * can fall back to the full search.</p>
+ *
+ * <p>The saves on other nodes are picked up by {@link RemoteUpdateTask},
+ * which reloads the objects updated since its last run every
+ * {@code cms/tool/typeaheadIndexCheckInterval} milliseconds (10000 by
+ * default). The deletes on other nodes aren't tracked, but {@link #find}
+ * only returns the objects that still exist.</p>
+ */
+public final class TypeaheadIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TypeaheadIndex.class);
+
+    private static final int MAXIMUM_SIZE = Settings.getOrDefault(int.class, "cms/tool/typeaheadIndexSize", 50000);
+    private static final int MAXIMUM_SCAN = 1000;
+    private static final int FETCH_SIZE = 200;
+    private static final char SEPARATOR = '\u0000';
+    private static final long CHECK_INTERVAL = Settings.getOrDefault(long.class, "cms/tool/typeaheadIndexCheckInterval", 10000L);
+
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().
+            setDaemon(true).
+            setNameFormat("cms-typeahead-index-%d").
+            build());
+
+    private static final TypeaheadIndex INSTANCE = new TypeaheadIndex();
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<UUID, Entry>();
+
+    // Entries by the order that they were updated in, so that the least
+    // recently updated ones can be evicted. The loaded entries have
+    // negative sequences, newest first, so that they're all older than
+    // the entries updated since.
+    private final ConcurrentSkipListMap<Long, UUID> sequences = new ConcurrentSkipListMap<Long, UUID>();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final ConcurrentSkipListMap<String, UUID> words = new ConcurrentSkipListMap<String, UUID>();
+    private final ConcurrentSkipListMap<String, UUID> paths = new ConcurrentSkipListMap<String, UUID>();
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private volatile boolean ready;
+    private volatile Date updatedSince;
+
+    /**
+     * Returns the typeahead index, starting to load it if necessary.
+     *
+     * @return Never {@code null}.
+     */
+    public static TypeaheadIndex getInstance() {
+        INSTANCE.startLoading();
+        return INSTANCE;
+    }
+
+    private TypeaheadIndex() {
+    }
+
+    private void startLoading() {
+        if (ready || !loading.compareAndSet(false, true)) {
+            return;
+        }
+
+        LOADER.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    long sequence = 0L;
+
+                    // Look back an extra interval to allow for clock
+                    // differences between the nodes.
+                    updatedSince = new Date(System.currentTimeMillis() - CHECK_INTERVAL);
+
+                    for (Object item : Query.
+                            fromGroup(Content.SEARCHABLE_GROUP).
+                            sortDescending(Content.UPDATE_DATE_FIELD).
+                            iterable(FETCH_SIZE)) {
+
+                        if (-- sequence < -MAXIMUM_SIZE) {
+                            break;
+                        }
+
+                        update(item, sequence);
+                    }
+
+                    ready = true;
+
+                } catch (RuntimeException error) {
+                    LOGGER.warn("Can't load the typeahead index!", error);
+                    loading.set(false);
+                }
+            }
+        });
+    }
+
+    /** Returns {@code true} if the index is loaded and can be queried. */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /** Returns the number of objects in the index. */
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Finds the objects whose labels contain words starting with all the
+     * words in the given {@code queryString}, or whose permalinks start
+     * with it if it starts with a {@code /}.
+     *
+     * @param queryString If blank, returns an empty list.
+     * @param typeIds If not empty, only the objects of these types are
+     * returned.
+     * @param site If not {@code null}, only the objects that are
+     * accessible by it are returned.
+     * @return {@code null} if the index isn't ready yet.
+     */
+    public List<Entry> find(String queryString, Collection<UUID> typeIds, Site site, int limit) {
+        if (!ready) {
+            return null;
+        }
+
+        List<Entry> found = new ArrayList<Entry>();
+
+        if (ObjectUtils.isBlank(queryString) || limit <= 0) {
+            return found;
+        }
+
+        String normalized = queryString.trim().toLowerCase(Locale.ENGLISH);
+        boolean path = normalized.startsWith("/");
+        List<String> queryWords = path ? null : splitWords(normalized);
+
+        if (!path && queryWords.isEmpty()) {
+            return found;
+        }
+
+        // Scan the longest word since it's likely to match the fewest.
+        String prefix = normalized;
+
+        if (!path) {
+            prefix = "";
+
+            for (String word : queryWords) {
+                if (word.length() > prefix.length()) {
+                    prefix = word;
+                }
+            }
+        }
+
+        ConcurrentNavigableMap<String, UUID> matches = (path ? paths : words).subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+        Map<UUID, Entry> candidates = new LinkedHashMap<UUID, Entry>();
+        int scanned = 0;
+
+        for (UUID id : matches.values()) {
+            if (++ scanned > MAXIMUM_SCAN || candidates.size() >= limit * 2) {
+                break;
+            }
+
+            Entry entry = entries.get(id);
+
+            if (entry == null ||
+                    candidates.containsKey(id) ||
+                    (typeIds != null && !typeIds.isEmpty() && !typeIds.contains(entry.getTypeId())) ||
+                    (!path && !entry.matchesAll(queryWords))) {
+                continue;
+            }
+
+            candidates.put(id, entry);
+        }
+
+        if (candidates.isEmpty()) {
+            return found;
+        }
+
+        // Make sure that the objects still exist and are accessible.
+        Set<UUID> validIds = new HashSet<UUID>();
+        Query<Object> query = Query.fromAll().where("_id = ?", candidates.keySet());
+
+        if (site != null) {
+            query.and(site.itemsPredicate());
+        }
+
+        for (Object item : query.selectAll()) {
+            validIds.add(State.getInstance(item).getId());
+        }
+
+        for (Entry entry : candidates.values()) {
+            if (validIds.contains(entry.getId())) {
+                found.add(entry);
+
+                if (found.size() >= limit) {
+                    break;
+                }
+            }
+        }
+
+        return found;
+    }
+
+    // Adds or replaces the given object in the index as the most recently
+    // updated one, and evicts the least recently updated ones beyond the
+    // maximum size.
+    private void update(Object object) {
+        update(object, nextSequence.incrementAndGet());
+
+        while (entries.size() > MAXIMUM_SIZE) {
+            Map.Entry<Long, UUID> eldest = sequences.pollFirstEntry();
+
+            if (eldest == null) {
+                break;
+            }
+
+            Entry entry = entries.get(eldest.getValue());
+
+            if (entry != null && entry.sequence == eldest.getKey()) {
+                remove(entry.id);
+            }
+        }
+    }
+
+    // Adds or replaces the given object in the index with the given
+    // sequence.
+    private void update(Object object, long sequence) {
+        State state = State.getInstance(object);
+        UUID id = state.getId();
+
+        remove(id);
+
+        if (!state.isVisible() || !Content.Static.isSearchable(object)) {
+            return;
+        }
+
+        String label = state.getLabel();
+        String permalink = state.as(Directory.ObjectModification.class).getPermalink();
+        Entry entry = new Entry(id, state.getTypeId(), label, permalink, sequence);
+
+        entries.put(id, entry);
+        sequences.put(sequence, id);
+
+        for (String word : entry.words) {
+            words.put(word + SEPARATOR + id, id);
+        }
+
+        if (entry.path != null) {
+            paths.put(entry.path + SEPARATOR + id, id);
+        }
+    }
+
+    private void remove(UUID id) {
+        Entry entry = entries.remove(id);
+
+        if (entry != null) {
+            sequences.remove(entry.sequence);
+
+            for (String word : entry.words) {
+                words.remove(word + SEPARATOR + id);
+            }
+
+            if (entry.path != null) {
+                paths.remove(entry.path + SEPARATOR + id);
+            }
+        }
+    }
+
+    private static List<String> splitWords(String string) {
+        List<String> words = new ArrayList<String>();
+
+        for (String word : string.split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() > 0) {
+                words.add(word);
+            }
+        }
+
+        return words;
+    }
+
+    /** Object in the typeahead index. */
+    public static final class Entry {
+
+        private final UUID id;
+        private final UUID typeId;
+        private final String label;
+        private final String permalink;
+        private final List<String> words;
+        private final String path;
+        private final long sequence;
+
+        private Entry(UUID id, UUID typeId, String label, String permalink, long sequence) {
+            this.id = id;
+            this.typeId = typeId;
+            this.label = label;
+            this.permalink = permalink;
+            this.words = label != null ? splitWords(label.toLowerCase(Locale.ENGLISH)) : new ArrayList<String>();
+            this.path = permalink != null ? permalink.toLowerCase(Locale.ENGLISH) : null;
+            this.sequence = sequence;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public UUID getTypeId() {
+            return typeId;
+        }
+
+        /** Returns the type of the object. */
+        public ObjectType getType() {
+            return ObjectType.getInstance(typeId);
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /** @return May be {@code null}. */
+        public String getPermalink() {
+            return permalink;
+        }
+
+        // Returns true if every query word is a prefix of any label word.
+        private boolean matchesAll(List<String> queryWords) {
+            for (String queryWord : queryWords) {
+                boolean matched = false;
+
+                for (String word : words) {
+                    if (word.startsWith(queryWord)) {
+                        matched = true;
+                        break;
+                    }
+                }
+
+                if (!matched) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /** Keeps the typeahead index up to date with the saves on other nodes. */
+    public static class RemoteUpdateTask extends RepeatingTask {
+
+        @Override
+        protected DateTime calculateRunTime(DateTime currentTime) {
+            return every(currentTime, DateTimeFieldType.secondOfDay(), 0, (int) Math.max(1L, CHECK_INTERVAL / 1000L));
+        }
+
+        // Updates the index with the objects that were updated since the
+        // last run, which includes the saves on this node.
+        @Override
+        protected void doRepeatingTask(DateTime runTime) {
+            Date since = INSTANCE.updatedSince;
+
+            if (!INSTANCE.ready || since == null) {
+                return;
+            }
+
+            INSTANCE.updatedSince = new Date(runTime.getMillis() - CHECK_INTERVAL);
+
+            for (Object item : Query.
+                    fromGroup(Content.SEARCHABLE_GROUP).
+                    where(Content.UPDATE_DATE_FIELD + " > ?", since).
+                    sortAscending(Content.UPDATE_DATE_FIELD).
+                    iterable(FETCH_SIZE)) {
+
+                if (!shouldContinue()) {
+                    break;
+                }
+
+                INSTANCE.update(item);
+            }
+        }
+    }
+
+    /** Keeps the typeahead index up to date with the saves on this node. */
+    public static class UpdateModification extends Modification<Object> {
+
+        @Override
+        protected void afterSave() {
+            if (INSTANCE.loading.get() &&
+                    !Content.Static.isMetadataOnlySave(getState()) &&
+                    Content.Static.isSearchable(getOriginalObject())) {
+                INSTANCE.update(getOriginalObject());
+            }
+        }
+
+        @Override
+        protected void afterDelete() {
+            if (INSTANCE.loading.get()) {
+                INSTANCE.remove(getId());
+            }
+        }
+    }
+}
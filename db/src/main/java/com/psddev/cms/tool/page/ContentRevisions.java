@@ -3,24 +3,19 @@ package com.psddev.cms.tool.page;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.UUID;
 
 import com.psddev.cms.db.Content;
 import com.psddev.cms.db.Draft;
 import com.psddev.cms.db.History;
+import com.psddev.cms.db.RevisionIndex;
 import com.psddev.cms.db.Schedule;
-import com.psddev.cms.db.Workflow;
-import com.psddev.cms.db.WorkflowState;
 import com.psddev.cms.tool.CmsTool;
 import com.psddev.cms.tool.Search;
 import com.psddev.cms.tool.ToolPageContext;
 import com.psddev.cms.tool.Widget;
 import com.psddev.dari.db.ObjectType;
-import com.psddev.dari.db.Query;
 import com.psddev.dari.db.State;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
@@ -55,11 +50,6 @@ public class ContentRevisions extends Widget {
             return;
         }
 
-        List<Draft> scheduled = new ArrayList<Draft>();
-        List<Draft> drafts = new ArrayList<Draft>();
-        List<History> namedHistories = new ArrayList<History>();
-        List<History> histories = new ArrayList<History>();
-
         Object selected = page.getOverlaidHistory(object);
 
         if (selected == null) {
@@ -70,52 +60,14 @@ public class ContentRevisions extends Widget {
             }
         }
 
-        for (Draft d : Query.
-                from(Draft.class).
-                where("objectId = ?", state.getId()).
-                selectAll()) {
-            if (d.getSchedule() != null) {
-                scheduled.add(d);
-
-            } else {
-                drafts.add(d);
-            }
-        }
-
-        Collections.sort(scheduled, new Comparator<Draft>() {
-            @Override
-            public int compare(Draft x, Draft y) {
-                return ObjectUtils.compare(x.getSchedule().getTriggerDate(), y.getSchedule().getTriggerDate(), true);
-            }
-        });
-
-        Collections.sort(drafts, new Comparator<Draft>() {
-            @Override
-            public int compare(Draft x, Draft y) {
-                return ObjectUtils.compare(
-                        x.as(Content.ObjectModification.class).getUpdateDate(),
-                        y.as(Content.ObjectModification.class).getUpdateDate(),
-                        true);
-            }
-        });
-
-        for (History h : Query.
-                from(History.class).
-                where("name != missing and objectId = ?", state.getId()).
-                sortAscending("name").
-                selectAll()) {
-            namedHistories.add(h);
-        }
-
-        PaginatedResult<History> historiesResult = Query.
-                from(History.class).
-                where("name = missing and objectId = ?", state.getId()).
-                sortDescending("updateDate").
-                select(0, 10);
-
-        for (History h : historiesResult.getItems()) {
-            histories.add(h);
-        }
+        RevisionIndex revisions = new RevisionIndex(object);
+        List<Draft> scheduled = revisions.getScheduledDrafts();
+        List<Draft> drafts = revisions.getDrafts();
+        PaginatedResult<RevisionIndex.Header> namedHistoriesResult = revisions.findNamedHistories(0, 10);
+        List<RevisionIndex.Header> namedHistories = namedHistoriesResult.getItems();
+        PaginatedResult<RevisionIndex.Header> historiesResult = revisions.findHistories(0, 10);
+        List<RevisionIndex.Header> histories = historiesResult.getItems();
+        UUID selectedHistoryId = selected instanceof History ? ((History) selected).getId() : null;
 
         page.writeStart("div", "class", "widget");
             page.writeStart("h1", "class", "icon icon-object-history");
@@ -182,13 +134,32 @@ public class ContentRevisions extends Widget {
             if (!namedHistories.isEmpty()) {
                 page.writeStart("h2").writeHtml("Named Past").writeEnd();
 
+                if (namedHistoriesResult.hasNext()) {
+                    page.writeStart("p");
+                        page.writeStart("a",
+                                "class", "icon icon-action-search",
+                                "target", "_top",
+                                "href", page.cmsUrl("/searchAdvancedFull",
+                                        Search.SELECTED_TYPE_PARAMETER, ObjectType.getInstance(History.class).getId(),
+                                        Search.ADVANCED_QUERY_PARAMETER, "objectId = " + state.getId() + " and name != missing"));
+                            page.writeHtml("View All ");
+                            page.writeHtml(namedHistoriesResult.getCount());
+                            page.writeHtml(" Named Past Revisions");
+                        page.writeEnd();
+                    page.writeEnd();
+                }
+
                 page.writeStart("ul", "class", "links pageThumbnails");
-                    for (History h : namedHistories) {
+                    for (RevisionIndex.Header h : namedHistories) {
                         page.writeStart("li",
-                                "class", h.equals(selected) ? "selected" : null,
+                                "class", h.getId().equals(selectedHistoryId) ? "selected" : null,
                                 "data-preview-url", "/_preview?_cms.db.previewId=" + h.getId());
-                            page.writeStart("a", "href", page.objectUrl(null, h));
-                                page.writeObjectLabel(h);
+                            page.writeStart("a", "href", historyUrl(page, h));
+                                page.writeHtml(h.getName());
+                                page.writeHtml(" - ");
+                                page.writeHtml(page.formatUserDateTime(h.getUpdateDate()));
+                                page.writeHtml(" by ");
+                                page.writeObjectLabel(h.getUpdateUser());
                             page.writeEnd();
                         page.writeEnd();
                     }
@@ -218,43 +189,23 @@ public class ContentRevisions extends Widget {
                 }
 
                 page.writeStart("ul", "class", "links pageThumbnails");
-                    for (History h : histories) {
-                        Map<String, Object> originals = h.getObjectOriginals();
-
+                    for (RevisionIndex.Header h : histories) {
                         page.writeStart("li",
-                                "class", h.equals(selected) ? "selected" : null,
+                                "class", h.getId().equals(selectedHistoryId) ? "selected" : null,
                                 "data-preview-url", "/_preview?_cms.db.previewId=" + h.getId());
 
-                            if (ObjectUtils.to(boolean.class, originals.get("cms.content.draft"))) {
+                            if (h.isDraft()) {
                                 page.writeStart("span", "class", "visibilityLabel");
                                     page.writeHtml("Draft");
                                 page.writeEnd();
 
-                            } else {
-                                String workflowState = ObjectUtils.to(String.class, originals.get("cms.workflow.currentState"));
-
-                                if (workflowState != null) {
-                                    Workflow workflow = Query.
-                                            from(Workflow.class).
-                                            where("contentTypes = ?", h.getState().get("objectType")).
-                                            first();
-
-                                    if (workflow != null) {
-                                        for (WorkflowState s : workflow.getStates()) {
-                                            if (workflowState.equals(s.getName())) {
-                                                workflowState = s.getDisplayName();
-                                                break;
-                                            }
-                                        }
-                                    }
-
-                                    page.writeStart("span", "class", "visibilityLabel");
-                                        page.writeHtml(workflowState);
-                                    page.writeEnd();
-                                }
+                            } else if (h.getWorkflowState() != null) {
+                                page.writeStart("span", "class", "visibilityLabel");
+                                    page.writeHtml(h.getWorkflowState());
+                                page.writeEnd();
                             }
 
-                            page.writeStart("a", "href", page.objectUrl(null, h));
+                            page.writeStart("a", "href", historyUrl(page, h));
                                 page.writeHtml(page.formatUserDateTime(h.getUpdateDate()));
                                 page.writeHtml(" by ");
                                 page.writeObjectLabel(h.getUpdateUser());
@@ -270,6 +221,15 @@ public class ContentRevisions extends Widget {
         page.writeEnd();
     }
 
+    // Links to the history by its ID so that it's only loaded in full
+    // once it's selected.
+    private String historyUrl(ToolPageContext page, RevisionIndex.Header header) {
+        return page.url(null,
+                ToolPageContext.OBJECT_ID_PARAMETER, header.getObjectId(),
+                ToolPageContext.DRAFT_ID_PARAMETER, null,
+                ToolPageContext.HISTORY_ID_PARAMETER, header.getId());
+    }
+
     @Override
     public void update(ToolPageContext page, Object object) {
     }
@@ -0,0 +1,87 @@
+package com.psddev.cms.tool.page;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.servlet.ServletException;
+
+import com.psddev.cms.tool.PageServlet;
+import com.psddev.cms.tool.Search;
+import com.psddev.cms.tool.ToolPageContext;
+import com.psddev.cms.tool.TypeaheadIndex;
+import com.psddev.dari.db.ObjectType;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.RoutingFilter;
+
+/**
+ * Answers the first keystrokes of the tool search from the
+ * {@link TypeaheadIndex} as JSON.
+ *
+ * <p>The response has {@code ready} set to {@code false} while the index
+ * is still loading, in which case the caller should use the full search
+ * result page instead, as it should when the user pauses or asks for
+ * more results.</p>
+ */
+@RoutingFilter.Path(application = "cms", value = "/searchTypeahead")
+public class SearchTypeahead extends PageServlet {
+
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAXIMUM_LIMIT = 50;
+
+    @Override
+    protected String getPermissionId() {
+        return null;
+    }
+
+    @Override
+    protected void doService(ToolPageContext page) throws IOException, ServletException {
+        Search search = new Search(page);
+        int limit = Math.min(page.paramOrDefault(int.class, Search.LIMIT_PARAMETER, DEFAULT_LIMIT), MAXIMUM_LIMIT);
+        ObjectType selectedType = search.getSelectedType();
+        Set<UUID> typeIds = new HashSet<UUID>();
+
+        for (ObjectType type : selectedType != null ? Collections.singleton(selectedType) : search.findValidTypes()) {
+            if (type.isAbstract()) {
+                for (ObjectType concreteType : type.findConcreteTypes()) {
+                    typeIds.add(concreteType.getId());
+                }
+
+            } else {
+                typeIds.add(type.getId());
+            }
+        }
+
+        List<TypeaheadIndex.Entry> entries = TypeaheadIndex.getInstance().find(search.getQueryString(), typeIds, page.getSite(), limit);
+        Map<String, Object> response = new HashMap<String, Object>();
+
+        response.put("ready", entries != null);
+
+        if (entries != null) {
+            List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+
+            for (TypeaheadIndex.Entry entry : entries) {
+                Map<String, Object> result = new HashMap<String, Object>();
+                ObjectType type = entry.getType();
+
+                result.put("id", entry.getId().toString());
+                result.put("label", entry.getLabel());
+                result.put("typeLabel", type != null ? type.getDisplayName() : null);
+                result.put("permalink", entry.getPermalink());
+                result.put("url", page.cmsUrl("/content/edit.jsp", "id", entry.getId()));
+                results.add(result);
+            }
+
+            response.put("results", results);
+        }
+
+        page.getResponse().setContentType("application/json");
+        page.writeRaw(ObjectUtils.toJson(response));
+    }
+}
@@ -17,6 +17,7 @@ import com.psddev.cms.tool.SearchResultAction;
 import com.psddev.cms.tool.SearchResultSelection;
 import com.psddev.cms.tool.SearchResultSelectionItem;
 import com.psddev.cms.tool.SearchResultSelectionGeneratable;
+import com.psddev.cms.tool.ToolMetadataCache;
 import com.psddev.cms.tool.ToolPageContext;
 import com.psddev.cms.tool.page.CreateDraft;
 import com.psddev.dari.db.Database;
@@ -71,7 +72,7 @@ public class CreateDraftSearchResultAction implements SearchResultAction {
                         type.getObjectClass() == null) ||
                         Draft.class.equals(type.getObjectClass()) ||
                         (type.isDeprecated() &&
-                        !Query.fromType(type).hasMoreThan(0))) {
+                        !ToolMetadataCache.hasInstances(type))) {
 
                     continue;
                 }
@@ -7,12 +7,11 @@ import java.util.List;
 
 import com.psddev.cms.db.Site;
 import com.psddev.cms.db.ToolUi;
-import com.psddev.cms.tool.CmsTool;
 import com.psddev.cms.tool.Search;
+import com.psddev.cms.tool.ToolMetadataCache;
 import com.psddev.dari.db.Database;
 import com.psddev.dari.db.ObjectType;
 import com.psddev.dari.db.Predicate;
-import com.psddev.dari.db.Query;
 import com.psddev.dari.util.PaginatedResult;
 
 public class GridSearchResultView extends ListSearchResultView {
@@ -39,9 +38,9 @@ public class GridSearchResultView extends ListSearchResultView {
         ObjectType selectedType = search.getSelectedType();
 
         sortField = updateSort();
-        showSiteLabel = Query.from(CmsTool.class).first().isDisplaySiteInSearchResult() &&
+        showSiteLabel = ToolMetadataCache.getCmsTool().isDisplaySiteInSearchResult() &&
                 page.getSite() == null &&
-                Query.from(Site.class).hasMoreThan(0);
+                ToolMetadataCache.hasInstances(ObjectType.getInstance(Site.class));
 
         if (selectedType != null) {
             showTypeLabel = selectedType.as(ToolUi.class).findDisplayTypes().size() != 1;
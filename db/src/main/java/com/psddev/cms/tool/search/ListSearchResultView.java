@@ -17,16 +17,15 @@ import com.psddev.cms.db.Renderer;
 import com.psddev.cms.db.Site;
 import com.psddev.cms.db.ToolUi;
 import com.psddev.cms.db.ToolUser;
-import com.psddev.cms.tool.CmsTool;
 import com.psddev.cms.tool.Search;
 import com.psddev.cms.tool.SearchResultField;
+import com.psddev.cms.tool.ToolMetadataCache;
 import com.psddev.dari.db.Database;
 import com.psddev.dari.db.Metric;
 import com.psddev.dari.db.MetricInterval;
 import com.psddev.dari.db.ObjectField;
 import com.psddev.dari.db.ObjectType;
 import com.psddev.dari.db.Predicate;
-import com.psddev.dari.db.Query;
 import com.psddev.dari.db.Recordable;
 import com.psddev.dari.db.State;
 import com.psddev.dari.util.ClassFinder;
@@ -65,9 +64,9 @@ public class ListSearchResultView extends AbstractSearchResultView {
         ObjectType selectedType = search.getSelectedType();
 
         sortField = updateSort();
-        showSiteLabel = Query.from(CmsTool.class).first().isDisplaySiteInSearchResult() &&
+        showSiteLabel = ToolMetadataCache.getCmsTool().isDisplaySiteInSearchResult() &&
                 page.getSite() == null &&
-                Query.from(Site.class).hasMoreThan(0);
+                ToolMetadataCache.hasInstances(ObjectType.getInstance(Site.class));
 
         if (selectedType != null) {
             showTypeLabel = selectedType.as(ToolUi.class).findDisplayTypes().size() != 1;
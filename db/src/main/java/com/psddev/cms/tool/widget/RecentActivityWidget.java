@@ -2,19 +2,26 @@ package com.psddev.cms.tool.widget;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.servlet.ServletException;
 
 import org.joda.time.DateTime;
 
+import com.psddev.cms.db.Activity;
 import com.psddev.cms.db.Content;
 import com.psddev.cms.db.Directory;
 import com.psddev.cms.db.ToolRole;
 import com.psddev.cms.db.ToolUser;
 import com.psddev.cms.tool.Dashboard;
 import com.psddev.cms.tool.DefaultDashboardWidget;
+import com.psddev.cms.tool.KeysetPage;
 import com.psddev.cms.tool.Search;
 import com.psddev.cms.tool.ToolPageContext;
 import com.psddev.dari.db.DatabaseException;
@@ -22,11 +29,11 @@ import com.psddev.dari.db.ObjectType;
 import com.psddev.dari.db.Predicate;
 import com.psddev.dari.db.Query;
 import com.psddev.dari.db.State;
-import com.psddev.dari.util.PaginatedResult;
 
 public class RecentActivityWidget extends DefaultDashboardWidget {
 
     private static final int[] LIMITS = { 10, 20, 50 };
+    private static final String BEFORE_FEED_PARAMETER = "beforeFeed";
 
     @Override
     public int getColumnIndex() {
@@ -45,60 +52,122 @@ public class RecentActivityWidget extends DefaultDashboardWidget {
         Type type = page.pageParam(Type.class, "type", Type.ANYONE);
         String valueParameter = type + ".value";
         Object valueObject = Query.from(Object.class).where("_id = ?", page.pageParam(UUID.class, valueParameter, null)).first();
-        long offset = page.param(long.class, "offset");
+        String after = page.param(String.class, KeysetPage.AFTER_PARAMETER);
+        String before = page.param(String.class, KeysetPage.BEFORE_PARAMETER);
         int limit = page.pageParam(Integer.class, "limit", 20);
+        boolean beforeFeed = page.param(boolean.class, BEFORE_FEED_PARAMETER);
+        boolean olderBeforeFeed = false;
 
         if (type == null) {
             type = Type.ANYONE;
         }
 
-        PaginatedResult<?> result;
+        KeysetPage<?> result = null;
+        List<Change> changes = new ArrayList<>();
 
         List<String> visibilities = page.pageParams(String.class, Search.VISIBILITIES_PARAMETER, new ArrayList<>());
+        boolean valueMissing = valueObject == null && (type == Type.ROLE || type == Type.USER);
 
-        if (valueObject == null && (type == Type.ROLE || type == Type.USER)) {
-            result = null;
+        // Read the activity feed unless filtering by the visibilities, which
+        // aren't recorded in it, or paging past its oldest entry.
+        if (!valueMissing && visibilities.isEmpty() && !beforeFeed) {
+            Query<Activity> activityQuery = Query.
+                    from(Activity.class).
+                    where(page.siteItemsPredicate());
 
-        } else {
-            Query<?> contentQuery = (itemType != null ? Query.fromType(itemType) : Query.fromGroup(Content.SEARCHABLE_GROUP)).
-                    where(page.siteItemsSearchPredicate()).
-                    and(Content.UPDATE_DATE_FIELD + " != missing").
-                    sortDescending(Content.UPDATE_DATE_FIELD);
+            if (itemType != null) {
+                activityQuery.and("objectType = ?", itemType);
+            }
 
             switch (type) {
                 case ROLE :
-                    contentQuery.and(Content.UPDATE_USER_FIELD + " = ?", Query.from(ToolUser.class).where("role = ?", valueObject));
+                    activityQuery.and("role = ?", valueObject);
                     break;
 
                 case USER :
-                    contentQuery.and(Content.UPDATE_USER_FIELD + " = ?", valueObject);
+                    activityQuery.and("user = ?", valueObject);
                     break;
 
                 case ME :
-                    contentQuery.and(Content.UPDATE_USER_FIELD + " = ?", page.getUser());
+                    activityQuery.and("user = ?", page.getUser());
                     break;
 
                 default :
                     break;
             }
 
-            Predicate visibilitiesPredicate = Search.getVisibilitiesPredicate(itemType, visibilities, null, false);
+            KeysetPage<Activity> activities = KeysetPage.select(activityQuery, "date", true, after, before, limit, null);
+            List<UUID> objectIds = new ArrayList<>();
+
+            for (Activity activity : activities.getItems()) {
+                objectIds.add(activity.getObjectId());
+            }
+
+            Map<UUID, Object> objects = new HashMap<>();
+
+            if (!objectIds.isEmpty()) {
+                for (Object object : Query.fromAll().where("_id = ?", objectIds).selectAll()) {
+                    objects.put(State.getInstance(object).getId(), object);
+                }
+            }
+
+            // Skip the older entries for the same object that were
+            // recorded before the feed kept one entry per object.
+            Set<UUID> seenIds = new HashSet<>();
+
+            for (Activity activity : activities.getItems()) {
+                Object content = objects.get(activity.getObjectId());
+
+                if (content != null && seenIds.add(activity.getObjectId())) {
+                    changes.add(new Change(content, activity.getDate(), activity.getUser()));
+                }
+            }
+
+            // Fall back to the objects until the feed has some entries.
+            if (!activities.getItems().isEmpty() || after != null || before != null) {
+                result = activities;
 
-            if (visibilitiesPredicate != null) {
-                contentQuery.and(visibilitiesPredicate);
+                // The feed only goes back to its oldest entry, so link to
+                // the objects that were updated before it.
+                if (!activities.hasNext()) {
+                    Date feedStart = findFeedStart();
+
+                    olderBeforeFeed = feedStart != null &&
+                            createContentQuery(page, itemType, type, valueObject, visibilities).
+                                    and(Content.UPDATE_DATE_FIELD + " < ?", feedStart).
+                                    first() != null;
+                }
+            }
+        }
+
+        if (!valueMissing && result == null) {
+            Query<?> contentQuery = createContentQuery(page, itemType, type, valueObject, visibilities);
+
+            if (beforeFeed) {
+                Date feedStart = findFeedStart();
+
+                if (feedStart != null) {
+                    contentQuery.and(Content.UPDATE_DATE_FIELD + " < ?", feedStart);
+                }
             }
 
             try {
-                result = contentQuery.select(offset, limit);
+                result = KeysetPage.select(contentQuery, Content.UPDATE_DATE_FIELD, true, after, before, limit, null);
 
             } catch (DatabaseException error) {
                 if (error instanceof DatabaseException.ReadTimeout) {
-                    result = contentQuery.and("_any matches *").select(offset, limit);
+                    result = KeysetPage.select(contentQuery.and("_any matches *"), Content.UPDATE_DATE_FIELD, true, after, before, limit, null);
 
                 } else {
                     throw error;
                 }
             }
+
+            for (Object content : result.getItems()) {
+                Content.ObjectModification contentData = State.getInstance(content).as(Content.ObjectModification.class);
+
+                changes.add(new Change(content, contentData.getUpdateDate(), contentData.getUpdateUser()));
+            }
         }
 
         page.writeStart("div", "class", "widget");
@@ -193,7 +262,7 @@ public class RecentActivityWidget extends DefaultDashboardWidget {
                     page.writeEnd();
                 page.writeEnd();
 
-            } else if (!result.hasPages()) {
+            } else if (result.getItems().isEmpty() && !result.hasPrevious()) {
                 page.writeStart("div", "class", "message message-info");
                     page.writeStart("p");
                         page.writeHtml("No recent activity!");
@@ -203,25 +272,32 @@ public class RecentActivityWidget extends DefaultDashboardWidget {
             } else {
                 page.writeStart("ul", "class", "pagination");
 
-                    if (result.hasPrevious()) {
+                    if (result.hasPrevious() || beforeFeed) {
                         page.writeStart("li", "class", "first");
                             page.writeStart("a",
-                                    "href", page.url("", "offset", result.getFirstOffset()));
+                                    "href", page.url("",
+                                            KeysetPage.AFTER_PARAMETER, null,
+                                            KeysetPage.BEFORE_PARAMETER, null,
+                                            BEFORE_FEED_PARAMETER, null));
                                 page.writeHtml("Newest");
                             page.writeEnd();
                         page.writeEnd();
+                    }
 
+                    if (result.hasPrevious()) {
                         page.writeStart("li", "class", "previous");
                             page.writeStart("a",
-                                    "href", page.url("", "offset", result.getPreviousOffset()));
+                                    "href", page.url("",
+                                            KeysetPage.AFTER_PARAMETER, null,
+                                            KeysetPage.BEFORE_PARAMETER, result.getPreviousCursor()));
                                 page.writeHtml("Newer ").writeHtml(limit);
                             page.writeEnd();
                         page.writeEnd();
                     }
 
-                    if (result.getOffset() > 0 ||
+                    if (result.hasPrevious() ||
                             result.hasNext() ||
-                            result.getItems().size() > LIMITS[0]) {
+                            changes.size() > LIMITS[0]) {
                         page.writeStart("li");
                             page.writeStart("form",
                                     "data-bsp-autosubmit", "",
@@ -244,7 +320,20 @@ public class RecentActivityWidget extends DefaultDashboardWidget {
                     if (result.hasNext()) {
                         page.writeStart("li", "class", "next");
                             page.writeStart("a",
-                                    "href", page.url("", "offset", result.getNextOffset()));
+                                    "href", page.url("",
+                                            KeysetPage.AFTER_PARAMETER, result.getNextCursor(),
+                                            KeysetPage.BEFORE_PARAMETER, null));
+                                page.writeHtml("Older ").writeHtml(limit);
+                            page.writeEnd();
+                        page.writeEnd();
+
+                    } else if (olderBeforeFeed) {
+                        page.writeStart("li", "class", "next");
+                            page.writeStart("a",
+                                    "href", page.url("",
+                                            KeysetPage.AFTER_PARAMETER, null,
+                                            KeysetPage.BEFORE_PARAMETER, null,
+                                            BEFORE_FEED_PARAMETER, true));
                                 page.writeHtml("Older ").writeHtml(limit);
                             page.writeEnd();
                         page.writeEnd();
@@ -256,13 +345,12 @@ public class RecentActivityWidget extends DefaultDashboardWidget {
 
                     String lastUpdateDate = null;
 
-                    for (Object content : result.getItems()) {
-                        State contentState = State.getInstance(content);
-                        String permalink = contentState.as(Directory.ObjectModification.class).getPermalink();
-                        Content.ObjectModification contentData = contentState.as(Content.ObjectModification.class);
-                        DateTime updateDateTime = page.toUserDateTime(contentData.getUpdateDate());
+                    for (Change change : changes) {
+                        Object content = change.content;
+                        String permalink = State.getInstance(content).as(Directory.ObjectModification.class).getPermalink();
+                        DateTime updateDateTime = page.toUserDateTime(change.date);
                         String updateDate = page.formatUserDate(updateDateTime);
-                        ToolUser updateUser = contentData.getUpdateUser();
+                        ToolUser updateUser = change.user;
 
                         page.writeStart("tr", "data-preview-url", permalink);
                             page.writeStart("td", "class", "date");
@@ -300,6 +388,61 @@ public class RecentActivityWidget extends DefaultDashboardWidget {
         page.writeEnd();
     }
 
+    // Returns the date of the oldest entry in the activity feed.
+    private static Date findFeedStart() {
+        Activity oldest = Query.from(Activity.class).sortAscending("date").first();
+
+        return oldest != null ? oldest.getDate() : null;
+    }
+
+    // Returns the query for the objects that were changed, filtered the
+    // same way as the activity feed plus the visibilities.
+    private static Query<?> createContentQuery(ToolPageContext page, ObjectType itemType, Type type, Object valueObject, List<String> visibilities) {
+        Query<?> contentQuery = (itemType != null ? Query.fromType(itemType) : Query.fromGroup(Content.SEARCHABLE_GROUP)).
+                where(page.siteItemsSearchPredicate()).
+                and(Content.UPDATE_DATE_FIELD + " != missing");
+
+        switch (type) {
+            case ROLE :
+                contentQuery.and(Content.UPDATE_USER_FIELD + " = ?", Query.from(ToolUser.class).where("role = ?", valueObject));
+                break;
+
+            case USER :
+                contentQuery.and(Content.UPDATE_USER_FIELD + " = ?", valueObject);
+                break;
+
+            case ME :
+                contentQuery.and(Content.UPDATE_USER_FIELD + " = ?", page.getUser());
+                break;
+
+            default :
+                break;
+        }
+
+        Predicate visibilitiesPredicate = Search.getVisibilitiesPredicate(itemType, visibilities, null, false);
+
+        if (visibilitiesPredicate != null) {
+            contentQuery.and(visibilitiesPredicate);
+        }
+
+        return contentQuery;
+    }
+
+    // Change to an object, either from the activity feed or from the object
+    // itself.
+    private static final class Change {
+
+        public final Object content;
+        public final Date date;
+        public final ToolUser user;
+
+        public Change(Object content, Date date, ToolUser user) {
+            this.content = content;
+            this.date = date;
+            this.user = user;
+        }
+    }
+
     private enum Type {
 
         ANYONE("Anyone"),
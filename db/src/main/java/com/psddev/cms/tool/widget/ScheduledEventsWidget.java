@@ -3,13 +3,21 @@ package com.psddev.cms.tool.widget;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 
 import org.joda.time.DateTime;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.psddev.cms.db.Draft;
 import com.psddev.cms.db.Schedule;
 import com.psddev.cms.db.Site;
@@ -17,10 +25,18 @@ import com.psddev.cms.tool.Dashboard;
 import com.psddev.cms.tool.DefaultDashboardWidget;
 import com.psddev.cms.tool.ToolPageContext;
 import com.psddev.dari.db.Query;
+import com.psddev.dari.db.State;
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
 
 public class ScheduledEventsWidget extends DefaultDashboardWidget {
 
+    private static final Cache<String, Events> EVENTS = CacheBuilder.
+            newBuilder().
+            expireAfterWrite(Settings.getOrDefault(long.class, "cms/tool/scheduledEventsCacheDuration", 10000L), TimeUnit.MILLISECONDS).
+            maximumSize(1000).
+            build();
+
     @Override
     public int getColumnIndex() {
         return 1;
@@ -37,32 +53,50 @@ public class ScheduledEventsWidget extends DefaultDashboardWidget {
         DateTime date = new DateTime(page.param(Date.class, "date"), page.getUserDateTimeZone());
         DateTime begin = mode.getBegin(date);
         DateTime end = mode.getEnd(date);
-        Map<DateTime, List<Schedule>> schedulesByDate = new TreeMap<DateTime, List<Schedule>>();
-        boolean hasSchedules = false;
+        Site currentSite = page.getSite();
+        String eventsKey = (currentSite != null ? currentSite.getId() : "") + "/" +
+                page.getUserDateTimeZone().getID() + "/" +
+                begin.getMillis() + "/" +
+                end.getMillis();
+
+        Events events = EVENTS.getIfPresent(eventsKey);
 
-        for (DateTime i = begin; i.isBefore(end); i = i.plusDays(1)) {
-            schedulesByDate.put(i, new ArrayList<Schedule>());
+        if (events == null) {
+            events = new Events(page, currentSite, begin, end);
+            EVENTS.put(eventsKey, events);
         }
 
-        Site currentSite = page.getSite();
+        Map<UUID, Object> records = events.findRecords();
+        Map<DateTime, List<Schedule>> schedulesByDate = new TreeMap<DateTime, List<Schedule>>();
+        Map<UUID, List<Draft>> draftsBySchedule = new HashMap<UUID, List<Draft>>();
+        boolean hasSchedules = events.hasSchedules;
+
+        for (Map.Entry<DateTime, List<UUID>> entry : events.scheduleIdsByDate.entrySet()) {
+            List<Schedule> schedules = new ArrayList<Schedule>();
 
-        for (Schedule schedule : Query.
-                from(Schedule.class).
-                where("triggerDate >= ? and triggerDate < ?", begin, end).
-                sortAscending("triggerDate").
-                iterable(0)) {
+            for (UUID scheduleId : entry.getValue()) {
+                Object schedule = records.get(scheduleId);
 
-            if (currentSite != null && !currentSite.equals(schedule.getTriggerSite())) {
-                continue;
+                if (schedule instanceof Schedule) {
+                    schedules.add((Schedule) schedule);
+                }
             }
 
-            DateTime scheduleDate = page.toUserDateTime(schedule.getTriggerDate()).toDateMidnight().toDateTime();
-            List<Schedule> schedules = schedulesByDate.get(scheduleDate);
+            schedulesByDate.put(entry.getKey(), schedules);
+        }
+
+        for (Map.Entry<UUID, List<UUID>> entry : events.draftIdsBySchedule.entrySet()) {
+            List<Draft> drafts = new ArrayList<Draft>();
+
+            for (UUID draftId : entry.getValue()) {
+                Object draft = records.get(draftId);
 
-            if (schedules != null) {
-                schedules.add(schedule);
-                hasSchedules = true;
+                if (draft instanceof Draft) {
+                    drafts.add((Draft) draft);
+                }
             }
+
+            draftsBySchedule.put(entry.getKey(), drafts);
         }
 
         page.writeStart("div", "class", "widget widget-scheduledEvents" + (hasSchedules ? "" : " widget-scheduledEvents-empty"));
@@ -166,10 +200,86 @@ public class ScheduledEventsWidget extends DefaultDashboardWidget {
                 page.writeEnd();
             page.writeEnd();
 
-            mode.display(page, schedulesByDate);
+            mode.display(page, schedulesByDate, draftsBySchedule);
         page.writeEnd();
     }
 
+    // IDs of the schedules and their drafts within a date range for a site.
+    // The records themselves are loaded for each request, since they're
+    // mutable and the requests may be from different users.
+    private static class Events {
+
+        public final Map<DateTime, List<UUID>> scheduleIdsByDate = new TreeMap<DateTime, List<UUID>>();
+        public final Map<UUID, List<UUID>> draftIdsBySchedule = new HashMap<UUID, List<UUID>>();
+        public boolean hasSchedules;
+
+        public Events(ToolPageContext page, Site site, DateTime begin, DateTime end) {
+            for (DateTime i = begin; i.isBefore(end); i = i.plusDays(1)) {
+                scheduleIdsByDate.put(i, new ArrayList<UUID>());
+            }
+
+            Query<Schedule> query = Query.
+                    from(Schedule.class).
+                    where("triggerDate >= ? and triggerDate < ?", begin, end).
+                    sortAscending("triggerDate");
+
+            // Schedules saved before triggerSite was indexed are missing
+            // from the index, so they're still checked below.
+            if (site != null) {
+                query.and("triggerSite = ? or triggerSite = missing", site);
+            }
+
+            List<Schedule> allSchedules = new ArrayList<Schedule>();
+
+            for (Schedule schedule : query.iterable(0)) {
+                if (site != null && !site.equals(schedule.getTriggerSite())) {
+                    continue;
+                }
+
+                DateTime scheduleDate = page.toUserDateTime(schedule.getTriggerDate()).toDateMidnight().toDateTime();
+                List<UUID> scheduleIds = scheduleIdsByDate.get(scheduleDate);
+
+                if (scheduleIds != null) {
+                    scheduleIds.add(schedule.getId());
+                    allSchedules.add(schedule);
+                    hasSchedules = true;
+                }
+            }
+
+            for (Map.Entry<UUID, List<Draft>> entry : Schedule.Static.findDraftsBySchedule(allSchedules).entrySet()) {
+                List<UUID> draftIds = new ArrayList<UUID>();
+
+                for (Draft draft : entry.getValue()) {
+                    draftIds.add(draft.getId());
+                }
+
+                draftIdsBySchedule.put(entry.getKey(), draftIds);
+            }
+        }
+
+        // Loads all schedules and drafts in a single query.
+        public Map<UUID, Object> findRecords() {
+            Set<UUID> ids = new HashSet<UUID>();
+            Map<UUID, Object> records = new HashMap<UUID, Object>();
+
+            for (List<UUID> scheduleIds : scheduleIdsByDate.values()) {
+                ids.addAll(scheduleIds);
+            }
+
+            for (List<UUID> draftIds : draftIdsBySchedule.values()) {
+                ids.addAll(draftIds);
+            }
+
+            if (!ids.isEmpty()) {
+                for (Object record : Query.fromAll().where("_id = ?", ids).selectAll()) {
+                    records.put(State.getInstance(record).getId(), record);
+                }
+            }
+
+            return records;
+        }
+    }
+
     private enum Mode {
         DAY("Day") {
 
@@ -194,8 +304,8 @@ public class ScheduledEventsWidget extends DefaultDashboardWidget {
             }
 
             @Override
-            public void display(ToolPageContext page, Map<DateTime, List<Schedule>> schedulesByDate) throws IOException {
-                displayAgendaView(page, schedulesByDate);
+            public void display(ToolPageContext page, Map<DateTime, List<Schedule>> schedulesByDate, Map<UUID, List<Draft>> draftsBySchedule) throws IOException {
+                displayAgendaView(page, schedulesByDate, draftsBySchedule);
             }
         },
         WEEK("Week") {
@@ -221,8 +331,8 @@ public class ScheduledEventsWidget extends DefaultDashboardWidget {
             }
 
             @Override
-            public void display(ToolPageContext page, Map<DateTime, List<Schedule>> schedulesByDate) throws IOException {
-                displayAgendaView(page, schedulesByDate);
+            public void display(ToolPageContext page, Map<DateTime, List<Schedule>> schedulesByDate, Map<UUID, List<Draft>> draftsBySchedule) throws IOException {
+                displayAgendaView(page, schedulesByDate, draftsBySchedule);
             }
         },
 
@@ -249,7 +359,7 @@ public class ScheduledEventsWidget extends DefaultDashboardWidget {
             }
 
             @Override
-            public void display(ToolPageContext page, Map<DateTime, List<Schedule>> schedulesByDate) throws IOException {
+            public void display(ToolPageContext page, Map<DateTime, List<Schedule>> schedulesByDate, Map<UUID, List<Draft>> draftsBySchedule) throws IOException {
                 page.writeStart("div", "class", "calendar calendar-month");
 
                 for (Map.Entry<DateTime, List<Schedule>> entry : schedulesByDate.entrySet()) {
@@ -262,17 +372,17 @@ public class ScheduledEventsWidget extends DefaultDashboardWidget {
                         if (date.getDayOfMonth() == 1) {
                             int offset = date.getDayOfWeek() - 1;
                             for (int i = offset; i > 0; i--) {
-                                writeCalendarDay(page, null, date.minusDays(i), "other-month");
+                                writeCalendarDay(page, null, null, date.minusDays(i), "other-month");
                             }
                         }
                     }
 
-                    writeCalendarDay(page, schedules, date, "");
+                    writeCalendarDay(page, schedules, draftsBySchedule, date, "");
 
                     if (date.dayOfMonth().withMaximumValue().equals(date)) {
                         int extraDays = 7 - date.getDayOfWeek();
                         for (int i = 1; i <= extraDays; i++) {
-                            writeCalendarDay(page, null, date.plusDays(i), "other-month");
+                            writeCalendarDay(page, null, null, date.plusDays(i), "other-month");
                         }
                     }
 
@@ -284,7 +394,7 @@ public class ScheduledEventsWidget extends DefaultDashboardWidget {
                 page.writeEnd();
             }
 
-            private void writeCalendarDay(ToolPageContext page, List<Schedule> schedules, DateTime date, String extraClass) throws IOException {
+            private void writeCalendarDay(ToolPageContext page, List<Schedule> schedules, Map<UUID, List<Draft>> draftsBySchedule, DateTime date, String extraClass) throws IOException {
                 page.writeStart("div", "class", "calendarDay" + (date.equals(new DateTime(null, page.getUserDateTimeZone()).toDateMidnight()) ? " calendarDay-today" : "") + (" day-of-week-" + date.getDayOfWeek()) + " " + extraClass);
                     page.writeStart("span", "class", "calendarDayOfWeek").writeHtml(date.dayOfWeek().getAsShortText()).writeEnd();
                     page.writeStart("span", "class", "calendarDayOfMonth").writeHtml(date.dayOfMonth().get()).writeEnd();
@@ -292,9 +402,9 @@ public class ScheduledEventsWidget extends DefaultDashboardWidget {
                     if (!ObjectUtils.isBlank(schedules)) {
 
                         for (Schedule schedule : schedules) {
-                            List<Object> drafts = Query.fromAll().where("com.psddev.cms.db.Draft/schedule = ?", schedule).selectAll();
+                            List<Draft> drafts = draftsBySchedule.get(schedule.getId());
 
-                            if (drafts.isEmpty()) {
+                            if (ObjectUtils.isBlank(drafts)) {
                                 continue;
                             }
 
@@ -335,14 +445,14 @@ public class ScheduledEventsWidget extends DefaultDashboardWidget {
 
         public abstract DateTime getNext(DateTime date);
 
-        public abstract void display(ToolPageContext page, Map<DateTime, List<Schedule>> schedulesByDate) throws IOException;
+        public abstract void display(ToolPageContext page, Map<DateTime, List<Schedule>> schedulesByDate, Map<UUID, List<Draft>> draftsBySchedule) throws IOException;
 
         @Override
         public String toString() {
             return displayName;
         }
 
-        public static void displayAgendaView(ToolPageContext page, Map<DateTime, List<Schedule>> schedulesByDate) throws IOException {
+        public static void displayAgendaView(ToolPageContext page, Map<DateTime, List<Schedule>> schedulesByDate, Map<UUID, List<Draft>> draftsBySchedule) throws IOException {
             page.writeStart("div", "class", "calendar calendar-week");
             for (Map.Entry<DateTime, List<Schedule>> entry : schedulesByDate.entrySet()) {
                 DateTime date = entry.getKey();
@@ -357,20 +467,15 @@ public class ScheduledEventsWidget extends DefaultDashboardWidget {
                 page.writeStart("div", "class", "calendarCell").writeStart("table", "class", "links table-striped pageThumbnails").writeStart("tbody");
                 for (Schedule schedule : schedules) {
                     DateTime triggerDate = page.toUserDateTime(schedule.getTriggerDate());
-                    List<Object> drafts = Query.fromAll().where("com.psddev.cms.db.Draft/schedule = ?", schedule).selectAll();
+                    List<Draft> drafts = draftsBySchedule.get(schedule.getId());
 
-                    if (drafts.isEmpty()) {
+                    if (ObjectUtils.isBlank(drafts)) {
                         continue;
                     }
 
                     boolean first = true;
 
-                    for (Object d : drafts) {
-                        if (!(d instanceof Draft)) {
-                            continue;
-                        }
-
-                        Draft draft = (Draft) d;
+                    for (Draft draft : drafts) {
                         Object draftObject = draft.getObject();
 
                         page.writeStart("tr", "data-preview-url", "/_preview?_cms.db.previewId=" + draft.getId());
@@ -15,6 +15,7 @@ import com.psddev.cms.db.Directory;
 import com.psddev.cms.db.ToolUi;
 import com.psddev.cms.tool.Dashboard;
 import com.psddev.cms.tool.DefaultDashboardWidget;
+import com.psddev.cms.tool.KeysetPage;
 import com.psddev.cms.tool.ToolPageContext;
 import com.psddev.dari.db.AggregateQueryResult;
 import com.psddev.dari.db.Database;
@@ -118,7 +119,7 @@ public class SiteMapWidget extends DefaultDashboardWidget {
                     }
                 });
 
-                count = query.count();
+                count = KeysetPage.getApproximateCount(query);
 
             } else {
                 @SuppressWarnings("unchecked")
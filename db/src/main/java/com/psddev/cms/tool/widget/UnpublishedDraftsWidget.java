@@ -17,12 +17,12 @@ import com.psddev.cms.db.Workflow;
 import com.psddev.cms.db.WorkflowState;
 import com.psddev.cms.tool.Dashboard;
 import com.psddev.cms.tool.DefaultDashboardWidget;
+import com.psddev.cms.tool.KeysetPage;
 import com.psddev.cms.tool.ToolPageContext;
 import com.psddev.dari.db.ObjectType;
 import com.psddev.dari.db.Query;
 import com.psddev.dari.db.QueryFilter;
 import com.psddev.dari.db.State;
-import com.psddev.dari.util.PaginatedResult;
 
 public class UnpublishedDraftsWidget extends DefaultDashboardWidget {
 
@@ -106,12 +106,17 @@ public class UnpublishedDraftsWidget extends DefaultDashboardWidget {
         }
 
         int limit = page.pageParam(int.class, "limit", 20);
-        PaginatedResult<?> drafts = draftsQuery.
-                and("* matches *").
-                and(Content.UPDATE_DATE_FIELD + " != missing").
-                and(page.siteItemsPredicate()).
-                sortDescending(Content.UPDATE_DATE_FIELD).
-                selectFiltered(page.param(long.class, "offset"), limit, queryFilter);
+        KeysetPage<?> drafts = KeysetPage.select(
+                draftsQuery.
+                        and("* matches *").
+                        and(Content.UPDATE_DATE_FIELD + " != missing").
+                        and(page.siteItemsPredicate()),
+                Content.UPDATE_DATE_FIELD,
+                true,
+                page.param(String.class, KeysetPage.AFTER_PARAMETER),
+                page.param(String.class, KeysetPage.BEFORE_PARAMETER),
+                limit,
+                queryFilter);
 
         page.writeStart("div", "class", "widget widget-unpublishedDrafts");
             page.writeStart("h1", "class", "icon icon-object-draft");
@@ -213,7 +218,7 @@ public class UnpublishedDraftsWidget extends DefaultDashboardWidget {
                 page.writeEnd();
             page.writeEnd();
 
-            if (drafts.getItems().isEmpty()) {
+            if (drafts.getItems().isEmpty() && !drafts.hasPrevious()) {
                 String label = state != null ? workflowStateLabels.get(state) : null;
 
                 page.writeStart("div", "class", "message message-info");
@@ -226,15 +231,19 @@ public class UnpublishedDraftsWidget extends DefaultDashboardWidget {
                 page.writeStart("ul", "class", "pagination");
                     if (drafts.hasPrevious()) {
                         page.writeStart("li", "class", "first");
-                            page.writeStart("a", "href", page.url("", "offset", drafts.getFirstOffset()));
+                            page.writeStart("a", "href", page.url("",
+                                    KeysetPage.AFTER_PARAMETER, null,
+                                    KeysetPage.BEFORE_PARAMETER, null));
                                 page.writeHtml("Newest");
                             page.writeEnd();
                         page.writeEnd();
 
                         page.writeStart("li", "class", "previous");
-                            page.writeStart("a", "href", page.url("", "offset", drafts.getPreviousOffset()));
+                            page.writeStart("a", "href", page.url("",
+                                    KeysetPage.AFTER_PARAMETER, null,
+                                    KeysetPage.BEFORE_PARAMETER, drafts.getPreviousCursor()));
                                 page.writeHtml("Newer ");
-                                page.writeHtml(drafts.getLimit());
+                                page.writeHtml(limit);
                             page.writeEnd();
                         page.writeEnd();
                     }
@@ -259,9 +268,11 @@ public class UnpublishedDraftsWidget extends DefaultDashboardWidget {
 
                     if (drafts.hasNext()) {
                         page.writeStart("li", "class", "next");
-                            page.writeStart("a", "href", page.url("", "offset", drafts.getNextOffset()));
+                            page.writeStart("a", "href", page.url("",
+                                    KeysetPage.AFTER_PARAMETER, drafts.getNextCursor(),
+                                    KeysetPage.BEFORE_PARAMETER, null));
                                 page.writeHtml("Older ");
-                                page.writeHtml(drafts.getLimit());
+                                page.writeHtml(limit);
                             page.writeEnd();
                         page.writeEnd();
                     }
@@ -0,0 +1,29 @@
+package com.psddev.cms.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Local stand-in for a CDN that records the surrogate keys it's asked to
+ * purge.
+ */
+public class RecordingPurgeHook implements SurrogateKeys.PurgeHook {
+
+    private final List<Set<String>> purges = Collections.synchronizedList(new ArrayList<Set<String>>());
+
+    /**
+     * Returns the keys passed to each purge, in order.
+     *
+     * @return Never {@code null}.
+     */
+    public List<Set<String>> getPurges() {
+        return purges;
+    }
+
+    @Override
+    public void purge(Set<String> keys) {
+        purges.add(keys);
+    }
+}
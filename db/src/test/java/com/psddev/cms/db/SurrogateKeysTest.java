@@ -0,0 +1,120 @@
+package com.psddev.cms.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SurrogateKeysTest {
+
+    private static final UUID ID1 = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID ID2 = UUID.fromString("00000000-0000-0000-0000-000000000002");
+    private static final UUID TYPE_ID = UUID.fromString("00000000-0000-0000-0000-0000000000ff");
+
+    private RecordingPurgeHook hook;
+
+    @Before
+    public void before() {
+        hook = new RecordingPurgeHook();
+        SurrogateKeys.addPurgeHook(hook);
+    }
+
+    @After
+    public void after() {
+        SurrogateKeys.removePurgeHook(hook);
+    }
+
+    @Test
+    public void purgeObjectAndTypeKeys() {
+        SurrogateKeys.purge(ID1, TYPE_ID);
+
+        assertEquals(
+                Collections.singletonList(new LinkedHashSet<String>(Arrays.asList(
+                        SurrogateKeys.getKey(ID1),
+                        SurrogateKeys.getTypeKey(TYPE_ID)))),
+                hook.getPurges());
+    }
+
+    @Test
+    public void purgeWithoutType() {
+        SurrogateKeys.purge(ID1, null);
+
+        assertEquals(
+                Collections.singletonList(Collections.singleton(SurrogateKeys.getKey(ID1))),
+                hook.getPurges());
+    }
+
+    @Test
+    public void purgeAfterRemovingHook() {
+        SurrogateKeys.removePurgeHook(hook);
+        SurrogateKeys.purge(ID1, TYPE_ID);
+
+        assertTrue(hook.getPurges().isEmpty());
+    }
+
+    @Test
+    public void createKeysListsTypesBeforeIds() {
+        assertEquals(
+                "type-" + TYPE_ID + " " + ID1 + " " + ID2,
+                SurrogateKeys.createKeys(ids(ID1, ID2), ids(TYPE_ID)));
+    }
+
+    @Test
+    public void createKeysEmpty() {
+        assertEquals("", SurrogateKeys.createKeys(ids(), ids()));
+    }
+
+    @Test
+    public void createEtagIgnoresOrder() {
+        assertEquals(
+                SurrogateKeys.createEtag(ids(ID1, ID2), 1000L),
+                SurrogateKeys.createEtag(ids(ID2, ID1), 1000L));
+    }
+
+    @Test
+    public void createEtagChangesWithLastUpdate() {
+        assertNotEquals(
+                SurrogateKeys.createEtag(ids(ID1, ID2), 1000L),
+                SurrogateKeys.createEtag(ids(ID1, ID2), 1001L));
+    }
+
+    @Test
+    public void createEtagChangesWithIds() {
+        assertNotEquals(
+                SurrogateKeys.createEtag(ids(ID1), 1000L),
+                SurrogateKeys.createEtag(ids(ID1, ID2), 1000L));
+    }
+
+    @Test
+    public void createEtagIsQuoted() {
+        String etag = SurrogateKeys.createEtag(ids(ID1), 1000L);
+
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+    }
+
+    @Test
+    public void matchesEtag() {
+        String etag = SurrogateKeys.createEtag(ids(ID1), 1000L);
+
+        assertTrue(SurrogateKeys.matchesEtag(etag, etag));
+        assertTrue(SurrogateKeys.matchesEtag("W/" + etag, etag));
+        assertTrue(SurrogateKeys.matchesEtag("\"other\", " + etag, etag));
+        assertTrue(SurrogateKeys.matchesEtag("*", etag));
+        assertFalse(SurrogateKeys.matchesEtag("\"other\"", etag));
+        assertFalse(SurrogateKeys.matchesEtag(null, etag));
+    }
+
+    private static Set<UUID> ids(UUID... ids) {
+        return new LinkedHashSet<UUID>(Arrays.asList(ids));
+    }
+}
@@ -0,0 +1,99 @@
+package com.psddev.cms.tool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class KeysetPageTest {
+
+    private static final UUID ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    @Test
+    public void formatDate() {
+        assertEquals("d1000~" + ID, new KeysetPage.Cursor(new Date(1000L), ID).toString());
+    }
+
+    @Test
+    public void formatNumber() {
+        assertEquals("n1.5~" + ID, new KeysetPage.Cursor(1.5, ID).toString());
+    }
+
+    @Test
+    public void formatString() {
+        assertEquals("sfoo~" + ID, new KeysetPage.Cursor("foo", ID).toString());
+    }
+
+    @Test
+    public void formatNullAsEmptyString() {
+        assertEquals("s~" + ID, new KeysetPage.Cursor(null, ID).toString());
+    }
+
+    @Test
+    public void roundTripDate() {
+        KeysetPage.Cursor cursor = roundTrip(new Date(1234567890L));
+
+        assertEquals(new Date(1234567890L), cursor.getValue());
+        assertEquals(ID, cursor.getId());
+    }
+
+    @Test
+    public void roundTripNumber() {
+        KeysetPage.Cursor cursor = roundTrip(42.25);
+
+        assertEquals(42.25, (Double) cursor.getValue(), 0.0);
+        assertEquals(ID, cursor.getId());
+    }
+
+    @Test
+    public void roundTripIntegerAsDouble() {
+        assertEquals(7.0, (Double) roundTrip(7).getValue(), 0.0);
+    }
+
+    @Test
+    public void roundTripString() {
+        KeysetPage.Cursor cursor = roundTrip("foo");
+
+        assertEquals("foo", cursor.getValue());
+        assertEquals(ID, cursor.getId());
+    }
+
+    @Test
+    public void roundTripStringWithSeparator() {
+        assertEquals("a~b~c", roundTrip("a~b~c").getValue());
+    }
+
+    @Test
+    public void parseBlank() {
+        assertNull(KeysetPage.Cursor.parse(null));
+        assertNull(KeysetPage.Cursor.parse(""));
+        assertNull(KeysetPage.Cursor.parse("  "));
+    }
+
+    @Test
+    public void parseWithoutSeparator() {
+        assertNull(KeysetPage.Cursor.parse("sfoo"));
+    }
+
+    @Test
+    public void parseWithoutType() {
+        assertNull(KeysetPage.Cursor.parse("~" + ID));
+    }
+
+    @Test
+    public void parseInvalidId() {
+        assertNull(KeysetPage.Cursor.parse("sfoo~bar"));
+    }
+
+    @Test
+    public void parseUnknownType() {
+        assertNull(KeysetPage.Cursor.parse("xfoo~" + ID));
+    }
+
+    private static KeysetPage.Cursor roundTrip(Object value) {
+        return KeysetPage.Cursor.parse(new KeysetPage.Cursor(value, ID).toString());
+    }
+}
@@ -8,12 +8,12 @@ com.psddev.cms.db.ContentType,
 com.psddev.cms.db.ToolUi,
 com.psddev.cms.db.ToolUiLayoutElement,
 com.psddev.cms.tool.CmsTool,
+com.psddev.cms.tool.ToolMetadataCache,
 com.psddev.cms.tool.ToolPageContext,
 com.psddev.cms.tool.page.ContentEditBulk,
 
 com.psddev.dari.db.ObjectField,
 com.psddev.dari.db.ObjectType,
-com.psddev.dari.db.Query,
 com.psddev.dari.db.State,
 com.psddev.dari.util.JspUtils,
 com.psddev.dari.util.ObjectUtils,
@@ -45,7 +45,7 @@ boolean isHidden = ui.isHidden();
 
 String tab = null;
 String label = null;
-ContentType ct = type != null ? Query.from(ContentType.class).where("internalName = ?", type.getInternalName()).first() : null;
+ContentType ct = ToolMetadataCache.findContentType(type);
 
 if (ct != null) {
     for (ContentField cf : ct.getFields()) {
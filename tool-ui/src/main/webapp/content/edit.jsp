@@ -268,6 +268,30 @@ wp.writeHeader(editingState.getType() != null ? editingState.getType().getLabel(
                 %></h1>
 
                 <div class="widgetControls">
+                    <%
+                    ToolSearch toolSearch = state.isNew() ? null : Query.from(ToolSearch.class).where("_id = ?", wp.param(UUID.class, "toolSearchId")).first();
+
+                    if (toolSearch != null) {
+                        UUID previousId = toolSearch.findPreviousId(state);
+                        UUID nextId = toolSearch.findNextId(state);
+
+                        if (previousId != null) {
+                            wp.writeStart("a",
+                                    "class", "icon icon-arrow-left",
+                                    "href", wp.cmsUrl("/content/edit.jsp", "id", previousId, "toolSearchId", toolSearch.getId()));
+                                wp.writeHtml("Previous");
+                            wp.writeEnd();
+                        }
+
+                        if (nextId != null) {
+                            wp.writeStart("a",
+                                    "class", "icon icon-arrow-right",
+                                    "href", wp.cmsUrl("/content/edit.jsp", "id", nextId, "toolSearchId", toolSearch.getId()));
+                                wp.writeHtml("Next");
+                            wp.writeEnd();
+                        }
+                    }
+                    %>
                     <a class="icon icon-action-edit widgetControlsEditInFull" target="_blank" href="<%= wp.url("") %>">Edit In Full</a>
                     <% if (wp.getCmsTool().isEnableAbTesting()) { %>
                         <a class="icon icon-beaker" href="<%= wp.url("", "ab", !wp.param(boolean.class, "ab")) %>">A/B</a>
@@ -552,15 +552,95 @@ function() {
     }
   });
 
+  // Handles typing into the main search input directly, so that the input
+  // events don't reach the autosubmit on the form. The matches from the
+  // typeahead index are shown right away, and the full search only runs
+  // once typing pauses or Enter is pressed.
+  bsp_utils.onDomInsert(document, '.searchFiltersRest > .searchInput > :text', {
+    'insert': function(input) {
+      var $input = $(input),
+          $form = $input.closest('form'),
+          submitTimeout,
+          showTypeahead = $.throttle(100, function() {
+            showSearchTypeahead($input);
+          });
+
+      $form.on('submit', function() {
+        clearTimeout(submitTimeout);
+      });
+
+      $input.on('change', function(event) {
+        event.stopPropagation();
+      });
+
+      $input.on('input', function(event) {
+        event.stopPropagation();
+        syncSearchInput($input);
+        showTypeahead();
+
+        clearTimeout(submitTimeout);
+        submitTimeout = setTimeout(function() {
+          $form.submit();
+        }, 500);
+      });
+    }
+  });
+
   // Synchronizes main search input with the hidden one in the type select form.
-  $doc.on('input', '.searchFiltersRest > .searchInput > :text', function() {
-    var $input = $(this),
-        $otherInput = $input.closest('.searchFilters').find('.searchFiltersType > input[name="' + $input.attr('name') + '"]');
+  function syncSearchInput($input) {
+    var $otherInput = $input.closest('.searchFilters').find('.searchFiltersType > input[name="' + $input.attr('name') + '"]');
 
     if ($otherInput.length > 0) {
       $otherInput.val($input.val());
     }
-  });
+  }
+
+  // Shows the matches from the typeahead index, until the full search
+  // result page replaces them.
+  function showSearchTypeahead($input) {
+    var $form = $input.closest('form'),
+        $frame = $('.frame[name="' + $form.attr('target') + '"]'),
+        queryString = $input.val(),
+        loaded = false;
+
+    if (!queryString || $frame.length === 0) {
+      return;
+    }
+
+    $frame.one('frame-load', function() {
+      loaded = true;
+    });
+
+    $.ajax({
+      'url': CONTEXT_PATH + '/searchTypeahead',
+      'cache': false,
+      'dataType': 'json',
+      'data': $form.serialize()
+
+    }).done(function(response) {
+      var $list;
+
+      if (loaded ||
+          !response ||
+          !response.ready ||
+          $input.val() !== queryString) {
+        return;
+      }
+
+      $list = $('<ul/>', { 'class': 'links searchTypeahead' });
+
+      $.each(response.results, function(i, result) {
+        $list.append($('<li/>').append($('<a/>', {
+          'href': result.url,
+          'target': '_top',
+          'text': result.typeLabel ? result.typeLabel + ': ' + result.label : result.label
+        })));
+      });
+
+      $frame.find('> .searchTypeahead').remove();
+      $frame.prepend($list);
+    });
+  }
 
   $doc.on('open', '.popup[name="miscSearch"]', function() {
     $(document.body).addClass('toolSearchOpen');